@@ -25,6 +25,7 @@ package org.couch4j.api;
 
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.List;
 
 import org.couch4j.exceptions.DocumentNotFoundException;
 
@@ -48,9 +49,9 @@ public interface AsynchronousDatabase {
      * 
      * @param Collection
      *            of {@link Document}s.
-     * @return ServerResponse
+     * @see SynchronousDatabase#bulkSave(Collection)
      */
-    void bulkSave(Collection<Document> docs, ResponseHandler<ServerResponse> response);
+    void bulkSave(Collection<Document> docs, ResponseHandler<List<ServerResponse>> response);
 
     /**
      * Fetch all documents.
@@ -85,6 +86,15 @@ public interface AsynchronousDatabase {
      */
     void fetchDocument(String docId, String rev, ResponseHandler<Document> response);
 
+    /**
+     * Fetch several documents at once.
+     * 
+     * @param docIds
+     *            The document ids
+     * @see SynchronousDatabase#fetchDocuments(Collection)
+     */
+    void fetchDocuments(Collection<String> docIds, ResponseHandler<List<Document>> response);
+
     /**
      * @param v
      *            - A ViewQuery
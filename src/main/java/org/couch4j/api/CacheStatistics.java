@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.api;
+
+/**
+ * Usage statistics of a client side cache.
+ * 
+ * @author Stefan Saasen
+ */
+public interface CacheStatistics {
+
+    /**
+     * @return the number of lookups that were answered from the cache.
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of lookups that required a request to the server.
+     */
+    long getMissCount();
+
+    /**
+     * @return {@code hits / (hits + misses)} or 0 if the cache was not used
+     *         yet.
+     */
+    double getHitRatio();
+
+    /**
+     * @return the number of entries that were removed to stay within the
+     *         size limit.
+     */
+    long getEvictionCount();
+
+    /**
+     * @return the number of entries that were removed because the server side
+     *         data changed.
+     */
+    long getInvalidationCount();
+
+    /**
+     * @return the number of cached entries.
+     */
+    int getSize();
+
+    /**
+     * @return the size of all the cached entries (in characters).
+     */
+    long getWeight();
+}
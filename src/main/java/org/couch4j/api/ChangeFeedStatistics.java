@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and lag of the {@code _changes} feed of a database.
+ * 
+ * @author Stefan Saasen
+ */
+public interface ChangeFeedStatistics {
+
+    /**
+     * @return the number of change events that have been delivered to the
+     *         listeners.
+     */
+    long getEventCount();
+
+    /**
+     * @return the number of delivered events per second (averaged over the
+     *         last few seconds).
+     */
+    double getEventRate();
+
+    /**
+     * @return the sequence of the latest change received from the server or
+     *         null.
+     */
+    String getLastReceivedSeq();
+
+    /**
+     * @return the sequence up to which all changes have been processed by
+     *         all listeners (the sequence that is checkpointed) or null.
+     */
+    String getLastProcessedSeq();
+
+    /**
+     * The server's {@code update_seq} is requested at most once per second,
+     * i.e. this method can be polled frequently.
+     * 
+     * @return the number of changes between the last processed sequence and
+     *         the server's {@code update_seq} or -1 if unknown.
+     */
+    long getLag();
+
+    /**
+     * The dispatch latency is the time from receiving a change until all
+     * listeners returned (excluding batch listeners), it includes the time the
+     * event is queued for parallel dispatch or held back for coalescing.
+     * 
+     * @param percentile
+     *            The percentile between 0 and 100, e.g. 99.
+     * @return the dispatch latency of the given percentile of the most
+     *         recent events or 0 if no event has been delivered yet.
+     */
+    long getDispatchLatency(double percentile, TimeUnit unit);
+
+    /**
+     * @return the number of events waiting for parallel dispatch.
+     */
+    int getDispatchBacklog();
+
+    /**
+     * @return the number of times the feed was reconnected (or polled
+     *         again) after a failure.
+     */
+    long getReconnectCount();
+}
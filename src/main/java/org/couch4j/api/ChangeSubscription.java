@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.couch4j.annotations.Immutable;
+
+/**
+ * Narrows the {@code _changes} feed a {@link Database.ChangeListener} receives.
+ * The filtering is done by the server, i.e. changes the listener is not
+ * interested in are not transferred at all.
+ * <p>
+ * The class uses the builder pattern to provide a fluent interface:
+ * 
+ * <pre>
+ * ChangeSubscription s = ChangeSubscription.builder().filter(&quot;app/by_type&quot;).filterParameter(&quot;type&quot;, &quot;order&quot;)
+ *         .includeDocs(true).build();
+ * </pre>
+ * 
+ * @author Stefan Saasen
+ */
+@Immutable
+public final class ChangeSubscription {
+
+    /**
+     * All changes without the documents.
+     */
+    public static final ChangeSubscription ALL = builder().build();
+
+    /**
+     * The parameters of the {@code _changes} request that are set by the
+     * client and must not be overridden by filter parameters.
+     */
+    private static final Set<String> RESERVED_PARAMETERS = Collections.unmodifiableSet(new HashSet<String>(
+            Arrays.asList("feed", "style", "since", "filter", "doc_ids", "include_docs", "limit", "timeout",
+                    "heartbeat")));
+
+    public static class ChangeSubscriptionBuilder {
+        private String filter;
+        private final Map<String, String> filterParameters = new LinkedHashMap<String, String>();
+        private List<String> docIds;
+        private boolean includeDocs;
+
+        ChangeSubscriptionBuilder() {
+        }
+
+        /**
+         * @param filter
+         *            The filter function as {@code designdoc/filtername}.
+         */
+        public ChangeSubscriptionBuilder filter(final String filter) {
+            if (null == filter || filter.indexOf('/') < 1) {
+                throw new IllegalArgumentException("filter has to be 'designdoc/filtername' but was " + filter);
+            }
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * Add a query parameter that is passed to the filter function (as
+         * {@code req.query}). The parameters of the feed itself (e.g.
+         * {@code since} or {@code feed}) cannot be used.
+         */
+        public ChangeSubscriptionBuilder filterParameter(final String name, final String value) {
+            if (null == name || null == value) {
+                throw new IllegalArgumentException("name and value are required");
+            }
+            if (RESERVED_PARAMETERS.contains(name)) {
+                throw new IllegalArgumentException(name + " is a parameter of the _changes feed");
+            }
+            filterParameters.put(name, value);
+            return this;
+        }
+
+        /**
+         * Only receive the changes of the given documents (the built-in
+         * {@code _doc_ids} filter).
+         */
+        public ChangeSubscriptionBuilder docIds(final Collection<String> docIds) {
+            if (null == docIds || docIds.isEmpty()) {
+                throw new IllegalArgumentException("docIds must not be empty");
+            }
+            this.docIds = new ArrayList<String>(docIds);
+            return this;
+        }
+
+        /**
+         * Include the document body in the change events.
+         * 
+         * @see Database.ChangeEvent#getDocument()
+         */
+        public ChangeSubscriptionBuilder includeDocs(final boolean includeDocs) {
+            this.includeDocs = includeDocs;
+            return this;
+        }
+
+        public ChangeSubscription build() {
+            if (null != filter && null != docIds) {
+                throw new IllegalArgumentException("A filter function and docIds cannot be combined");
+            }
+            if (null == filter && !filterParameters.isEmpty()) {
+                throw new IllegalArgumentException("Filter parameters require a filter function");
+            }
+            return new ChangeSubscription(this);
+        }
+    }
+
+    private final String filter;
+    private final Map<String, String> filterParameters;
+    private final List<String> docIds;
+    private final boolean includeDocs;
+
+    private ChangeSubscription(ChangeSubscriptionBuilder builder) {
+        this.filter = builder.filter;
+        this.filterParameters = Collections.unmodifiableMap(new LinkedHashMap<String, String>(
+                builder.filterParameters));
+        this.docIds = null == builder.docIds ? Collections.<String> emptyList() : Collections
+                .unmodifiableList(new ArrayList<String>(builder.docIds));
+        this.includeDocs = builder.includeDocs;
+    }
+
+    public static ChangeSubscriptionBuilder builder() {
+        return new ChangeSubscriptionBuilder();
+    }
+
+    /**
+     * @return the filter function ({@code designdoc/filtername}) or null.
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    public Map<String, String> getFilterParameters() {
+        return filterParameters;
+    }
+
+    /**
+     * @return the ids of the documents to receive the changes of or an empty
+     *         list for all documents.
+     */
+    public List<String> getDocIds() {
+        return docIds;
+    }
+
+    public boolean isIncludeDocs() {
+        return includeDocs;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((filter == null) ? 0 : filter.hashCode());
+        result = prime * result + filterParameters.hashCode();
+        result = prime * result + docIds.hashCode();
+        result = prime * result + (includeDocs ? 1231 : 1237);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof ChangeSubscription))
+            return false;
+        ChangeSubscription other = (ChangeSubscription) obj;
+        if (filter == null ? other.filter != null : !filter.equals(other.filter))
+            return false;
+        return filterParameters.equals(other.filterParameters) && docIds.equals(other.docIds)
+                && includeDocs == other.includeDocs;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeSubscription [filter=" + filter + ", filterParameters=" + filterParameters + ", docIds="
+                + docIds + ", includeDocs=" + includeDocs + "]";
+    }
+}
@@ -81,6 +81,13 @@ public interface CouchDbClient {
      */
     List<String> databaseNames();
 
+    /**
+     * @return the statistics of the conditional requests (a hit is a
+     *         response that was revalidated by the server) or null if
+     *         conditional requests are disabled.
+     */
+    CacheStatistics getETagCacheStatistics();
+
     /**
      * Disconnect all {@link Database} instances. Another call to
      * {@link CouchDbClient#getDatabase(String)} will reconnect or initialize
@@ -26,6 +26,7 @@ package org.couch4j.api;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a single CouchDB database.
@@ -48,6 +49,12 @@ public interface Database extends AsynchronousDatabase, SynchronousDatabase {
         String getSeq();
 
         List<String> changeRevs();
+
+        /**
+         * @return the changed document if the listener subscribed with
+         *         {@link ChangeSubscription#isIncludeDocs()}, null otherwise.
+         */
+        Document getDocument();
     }
 
     /**
@@ -57,6 +64,22 @@ public interface Database extends AsynchronousDatabase, SynchronousDatabase {
         void onChange(ChangeEvent event);
     }
 
+    /**
+     * Receives change events in batches, e.g. to forward them using bulk
+     * operations.
+     * 
+     * @see Database#addChangeListener(BatchChangeListener, int, long,
+     *      TimeUnit)
+     */
+    public interface BatchChangeListener {
+        /**
+         * @param events
+         *            The events in the order of the {@code _changes} feed
+         *            (never empty).
+         */
+        void onChanges(List<ChangeEvent> events);
+    }
+
     public interface StreamContext {
         void withInputStream(InputStream is) throws IOException;
     }
@@ -72,18 +95,258 @@ public interface Database extends AsynchronousDatabase, SynchronousDatabase {
      */
     String getName();
 
+    /**
+     * @return the operations of this database returning
+     *         {@link DatabaseFuture}s.
+     */
+    FutureDatabase async();
+
     /**
      * @couchdb 0.10.?
      */
     void addChangeListener(ChangeListener listener);
 
+    /**
+     * Add a listener that only receives the changes selected by the
+     * {@code subscription}. Listeners with equal subscriptions share a
+     * {@code _changes} feed.
+     * <p>
+     * Checkpointing, parallel dispatch and coalescing only apply to the
+     * unfiltered feed (i.e. {@link ChangeSubscription#ALL}).
+     * 
+     * @couchdb 0.10.?
+     */
+    void addChangeListener(ChangeListener listener, ChangeSubscription subscription);
+
     /**
      * @couchdb 0.10.?
      */
     void removeChangeListener(ChangeListener listener);
 
+    /**
+     * Add a listener that receives the change events in batches of at most
+     * {@code maxBatchSize} events. A batch is delivered when it is full or
+     * when its oldest event has been waiting for {@code maxDelay}.
+     * <p>
+     * Batches are delivered on a separate thread, the {@code _changes} feed
+     * is only blocked if the listener falls far behind.
+     * 
+     * @couchdb 0.10.?
+     */
+    void addChangeListener(BatchChangeListener listener, int maxBatchSize, long maxDelay, TimeUnit unit);
+
+    /**
+     * Add a batch listener that only receives the changes selected by the
+     * {@code subscription}.
+     * 
+     * @see #addChangeListener(BatchChangeListener, int, long, TimeUnit)
+     * @see #addChangeListener(ChangeListener, ChangeSubscription)
+     * @couchdb 0.10.?
+     */
+    void addChangeListener(BatchChangeListener listener, ChangeSubscription subscription, int maxBatchSize,
+            long maxDelay, TimeUnit unit);
+
+    /**
+     * Remove the listener. Events that have already been received are still
+     * delivered before this method returns.
+     * 
+     * @couchdb 0.10.?
+     */
+    void removeChangeListener(BatchChangeListener listener);
+
+    /**
+     * Enable checkpointing of the {@code _changes} feed.
+     * <p>
+     * The sequence of the latest change that has been processed by all
+     * listeners (batch listeners included) is written to the {@code store}
+     * in the background, every {@code maxEvents} changes and every
+     * {@code interval}. When the feed is started (i.e. the first listener is
+     * added) it resumes from the stored sequence. Changes that were processed
+     * after the last checkpoint was written are delivered again.
+     * 
+     * @param store
+     *            The store for the sequence, e.g. a
+     *            {@link org.couch4j.http.FileSequenceCheckpointStore}.
+     * @param maxEvents
+     *            The number of processed events after which a checkpoint is
+     *            written.
+     * @param interval
+     *            The maximum time between two checkpoints.
+     * @param unit
+     *            The unit of {@code interval}.
+     * @throws IllegalArgumentException
+     *             if {@code maxEvents} or {@code interval} is not positive.
+     * @couchdb 0.10.?
+     */
+    void enableCheckpointing(SequenceCheckpointStore store, int maxEvents, long interval, TimeUnit unit);
+
+    /**
+     * Write the latest checkpoint and disable checkpointing.
+     */
+    void disableCheckpointing();
+
+    /**
+     * Dispatch change events to the listeners on {@code lanes} threads
+     * instead of the thread that reads the {@code _changes} feed. The lane is
+     * chosen by the document id: events for the same document are delivered
+     * in order, events for different documents are delivered in parallel.
+     * Listeners therefore have to be thread safe.
+     * <p>
+     * Each lane queues at most {@code queueCapacity} events, reading the feed
+     * is paused while the queue of a lane is full. With checkpointing enabled
+     * the checkpoint is the latest sequence up to which all events have been
+     * delivered.
+     * 
+     * @couchdb 0.10.?
+     */
+    void enableParallelDispatch(int lanes, int queueCapacity);
+
+    /**
+     * Deliver the queued events and dispatch further events on the feed
+     * thread again.
+     */
+    void disableParallelDispatch();
+
+    /**
+     * Coalesce the change events of frequently updated documents: the first
+     * event for a document is held back for {@code window}, if the document
+     * changes again within the window only the latest event is delivered.
+     * Events for the same document are still delivered in order, every
+     * listener is delayed by up to {@code window}.
+     * 
+     * @couchdb 0.10.?
+     */
+    void enableChangeCoalescing(long window, TimeUnit unit);
+
+    /**
+     * Deliver the held back events and disable coalescing.
+     */
+    void disableChangeCoalescing();
+
+    /**
+     * @return the number of change events that were dropped in favour of a
+     *         later event for the same document since coalescing was enabled
+     *         (0 if coalescing is disabled).
+     */
+    long getCollapsedChangeCount();
+
+    /**
+     * @return the throughput and lag of the (unfiltered) {@code _changes}
+     *         feed.
+     */
+    ChangeFeedStatistics getChangeFeedStatistics();
+
+    /**
+     * Publish the rows of a view. The view is only requested and its rows are
+     * only parsed as the subscriber requests them, a slow subscriber pauses
+     * the reads from the connection instead of buffering the result.
+     * <p>
+     * Every subscription queries the view again.
+     */
+    Publisher<ViewResultRow> publishView(ViewQuery v);
+
+    /**
+     * Publish the changes selected by {@code subscription}. The
+     * {@code _changes} feed is polled only while the subscriber has
+     * outstanding demand, events are never buffered beyond the requested
+     * number. The publisher is independent of the change listeners (and
+     * their checkpointing), every subscription reads its own feed.
+     * 
+     * @param since
+     *            The sequence after which changes are published, e.g. a
+     *            stored checkpoint, or null to start at the current update
+     *            sequence.
+     * @couchdb 0.10.?
+     */
+    Publisher<ChangeEvent> publishChanges(ChangeSubscription subscription, String since);
+
     /**
      * Return a {@link DatabaseInfo} descriptor for this database.
      */
     DatabaseInfo getDatabaseInfo();
+
+    /**
+     * Enable write batching for {@link #saveDocument(Object)}.
+     * <p>
+     * Concurrent calls are collected for at most {@code maxDelay} (or until
+     * {@code maxBatchSize} documents have been collected) and are sent as a
+     * single {@code _bulk_docs} request. Each caller still blocks until the
+     * result for its own document is available, i.e. a single caller will see
+     * an additional latency of up to {@code maxDelay}.
+     * <p>
+     * Document level errors are reported as exceptions just like for the non
+     * batched operation (e.g. a
+     * {@link org.couch4j.exceptions.DocumentUpdateConflictException}).
+     * 
+     * @param maxBatchSize
+     *            The maximum number of documents per {@code _bulk_docs}
+     *            request.
+     * @param maxDelay
+     *            The maximum time to wait for other documents.
+     * @param unit
+     *            The unit of {@code maxDelay}.
+     */
+    void enableWriteBatching(int maxBatchSize, long maxDelay, TimeUnit unit);
+
+    /**
+     * Disable write batching. Batches that have already been started will be
+     * completed.
+     */
+    void disableWriteBatching();
+
+    /**
+     * Enable the document cache for {@link #fetchDocument(String)} and
+     * {@link #fetchObject(String, Class)}.
+     * <p>
+     * Cached documents are removed when the database's {@code _changes} feed
+     * reports a new revision and when the document is changed using this
+     * {@link Database} instance. The cache is bounded by the size of the JSON
+     * representation of the cached documents, the least recently used
+     * documents are evicted first.
+     * 
+     * @param maxSize
+     *            The maximum size (in characters) of all cached documents.
+     * @throws org.couch4j.exceptions.Couch4JException
+     *             if the {@code _changes} feed cannot be started.
+     */
+    void enableDocumentCache(long maxSize);
+
+    /**
+     * Disable (and clear) the document cache.
+     */
+    void disableDocumentCache();
+
+    /**
+     * @return the statistics of the document cache or null if the cache is
+     *         not enabled.
+     */
+    CacheStatistics getDocumentCacheStatistics();
+
+    /**
+     * Enable the view result cache for {@link #fetchView(ViewQuery)}.
+     * <p>
+     * A cached view result is used as long as the database's
+     * {@code update_seq} has not moved past the sequence the result was
+     * fetched at. The current sequence is tracked using the {@code _changes}
+     * feed, after a write via this {@link Database} instance it is requested
+     * from the server once. Outdated results of {@code stale=ok} queries are
+     * returned immediately and refreshed in the background.
+     * 
+     * @param maxSize
+     *            The maximum size (in characters) of all cached view results.
+     * @throws org.couch4j.exceptions.Couch4JException
+     *             if the {@code _changes} feed cannot be started.
+     */
+    void enableViewCache(long maxSize);
+
+    /**
+     * Disable (and clear) the view result cache.
+     */
+    void disableViewCache();
+
+    /**
+     * @return the statistics of the view result cache or null if the cache is
+     *         not enabled.
+     */
+    CacheStatistics getViewCacheStatistics();
 }
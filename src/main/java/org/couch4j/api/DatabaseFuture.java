@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.api;
+
+import java.util.concurrent.Future;
+
+import org.couch4j.api.AsynchronousDatabase.AsyncToken;
+import org.couch4j.api.AsynchronousDatabase.ResponseHandler;
+
+/**
+ * The result of an asynchronous database operation.
+ * <p>
+ * Besides blocking on {@link #get()} the result can be consumed by
+ * {@link #addHandler(ResponseHandler) handlers} or transformed into another
+ * future without blocking a thread. Every failure (including runtime
+ * exceptions and cancellation) completes the future exceptionally and is
+ * reported to {@link ResponseHandler#failed(Exception)}.
+ * 
+ * @param <T>
+ *            The result type.
+ * @author Stefan Saasen
+ */
+public interface DatabaseFuture<T> extends Future<T>, AsyncToken {
+
+    /**
+     * Transforms the result of a future.
+     */
+    interface Transformer<F, T> {
+        T apply(F input) throws Exception;
+    }
+
+    /**
+     * Registers a handler that is called once the operation completed. The
+     * handler is called immediately (on the calling thread) if the operation
+     * already completed, otherwise on the thread that completes the operation.
+     * The token passed to the handler is this future.
+     */
+    void addHandler(ResponseHandler<? super T> handler);
+
+    /**
+     * @return a future for the result of {@code transformer}, which is applied
+     *         to the result of this future once it completed. If this future
+     *         fails (or the transformer throws) the returned future fails
+     *         with the same exception.
+     */
+    <R> DatabaseFuture<R> transform(Transformer<? super T, ? extends R> transformer);
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.api;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The operations of {@link SynchronousDatabase} returning a
+ * {@link DatabaseFuture} instead of blocking the calling thread.
+ * <p>
+ * Many requests can be issued at once and joined using
+ * {@link org.couch4j.http.DatabaseFutures#allOf(Collection)}:
+ * 
+ * <pre>
+ * List&lt;DatabaseFuture&lt;Document&gt;&gt; futures = new ArrayList&lt;DatabaseFuture&lt;Document&gt;&gt;();
+ * for (String id : ids) {
+ *     futures.add(db.async().fetchDocument(id));
+ * }
+ * DatabaseFutures.allOf(futures).addHandler(handler);
+ * </pre>
+ * 
+ * @author Stefan Saasen
+ * @see SynchronousDatabase
+ */
+public interface FutureDatabase {
+
+    DatabaseFuture<List<ServerResponse>> bulkSave(Collection<Document> docs);
+
+    DatabaseFuture<List<ServerResponse>> bulkSave(Collection<Document> docs, int chunkSize);
+
+    DatabaseFuture<ServerResponse> delete();
+
+    DatabaseFuture<ServerResponse> deleteDocument(Document doc);
+
+    DatabaseFuture<ViewResult> fetchAllDocuments();
+
+    DatabaseFuture<ViewResult> fetchAllDocuments(boolean includeDocs);
+
+    /**
+     * The future fails with a
+     * {@link org.couch4j.exceptions.DocumentNotFoundException} if the document
+     * does not exist.
+     */
+    DatabaseFuture<Document> fetchDocument(String docId);
+
+    DatabaseFuture<Document> fetchDocument(String docId, String rev);
+
+    DatabaseFuture<List<Document>> fetchDocuments(Collection<String> docIds);
+
+    <T> DatabaseFuture<T> fetchObject(String docId, Class<T> clazz);
+
+    <T> DatabaseFuture<T> fetchObject(String docId, String rev, Class<T> clazz);
+
+    DatabaseFuture<ViewResult> fetchView(ViewQuery v);
+
+    /**
+     * The returned {@link StreamingViewResult} has to be closed by the
+     * caller.
+     */
+    DatabaseFuture<StreamingViewResult> streamView(ViewQuery v);
+
+    DatabaseFuture<ServerResponse> saveDocument(Object object);
+
+    DatabaseFuture<ServerResponse> saveDocument(String documentId, Object object);
+
+    DatabaseFuture<ServerResponse> storeAttachment(String documentId, String attachmentName, InputStream is);
+}
@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.api;
+
+/**
+ * A source of elements that are produced on demand of the
+ * {@link Subscriber}: no element is fetched from the server before it has
+ * been requested using {@link Subscription#request(long)}, i.e. a slow
+ * subscriber throttles the reads from the server connection.
+ * <p>
+ * The interfaces follow the <a href="http://www.reactive-streams.org/">Reactive
+ * Streams</a> specification (the signals of a subscription are never
+ * concurrent, {@code request(n)} with {@code n <= 0} fails the subscription)
+ * and can be adapted to any Reactive Streams implementation.
+ * <p>
+ * Every call to {@link #subscribe(Subscriber)} starts an independent
+ * subscription.
+ * 
+ * @author Stefan Saasen
+ */
+public interface Publisher<T> {
+
+    static interface Subscriber<T> {
+        /**
+         * Called once before any other signal.
+         */
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T element);
+
+        void onError(Throwable t);
+
+        void onComplete();
+    }
+
+    static interface Subscription {
+        /**
+         * Request {@code n} further elements ({@code Long.MAX_VALUE} for an
+         * unbounded number).
+         */
+        void request(long n);
+
+        /**
+         * Stop the subscription and release the server connection. Further
+         * signals may still arrive until the cancellation has been processed.
+         */
+        void cancel();
+    }
+
+    void subscribe(Subscriber<? super T> subscriber);
+}
@@ -0,0 +1,50 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.api;
+
+/**
+ * Durable storage for the last processed sequence of a {@code _changes} feed.
+ * <p>
+ * A {@link Database} with checkpointing enabled resumes its change feed from
+ * the stored sequence instead of the database's current {@code update_seq},
+ * so changes made while the application was down are not lost.
+ * 
+ * @see Database#enableCheckpointing(SequenceCheckpointStore, int, long,
+ *      java.util.concurrent.TimeUnit)
+ * @author Stefan Saasen
+ */
+public interface SequenceCheckpointStore {
+
+    /**
+     * @return the last stored sequence or null if no sequence has been stored
+     *         yet.
+     */
+    String load();
+
+    /**
+     * Stores the sequence. Called from a background thread, never
+     * concurrently.
+     */
+    void store(String seq);
+}
@@ -32,4 +32,20 @@ public interface ServerResponse extends JsonExportable {
 	String getId();
 
 	String getRev();
+
+	/**
+	 * @return true if the operation succeeded, false if the response carries
+	 *         an error (e.g. a single document of a bulk update).
+	 */
+	boolean isOk();
+
+	/**
+	 * @return the CouchDB error (e.g. "conflict") or null.
+	 */
+	String getError();
+
+	/**
+	 * @return the reason of the error or null.
+	 */
+	String getReason();
 }
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.api;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * A CouchDB view result that is read from the server connection while it is
+ * being iterated.
+ * <p>
+ * In contrast to {@link ViewResult} the rows are not materialized: each call to
+ * {@link Iterator#next()} parses exactly one row from the response stream. This
+ * keeps the memory footprint flat regardless of the size of the view result.
+ * <p>
+ * The connection is released as soon as the last row has been read. If the
+ * iteration is stopped early {@link #close()} has to be called to release the
+ * underlying connection.
+ * <p>
+ * A {@code StreamingViewResult} can only be iterated once.
+ * 
+ * @author Stefan Saasen
+ */
+public interface StreamingViewResult extends Iterable<ViewResultRow>, Closeable {
+
+    /**
+     * The number of rows in this view result.
+     * 
+     * @return number of rows
+     */
+    int getTotalRows();
+
+    /**
+     * The offset.
+     * 
+     * @return offset
+     */
+    int getOffset();
+
+    /**
+     * Release the underlying connection. Rows that have not been read yet are
+     * discarded. Calling {@code close} more than once has no effect.
+     */
+    void close();
+}
@@ -25,6 +25,8 @@ package org.couch4j.api;
 
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 import org.couch4j.exceptions.DocumentNotFoundException;
 
@@ -33,13 +35,32 @@ import org.couch4j.exceptions.DocumentNotFoundException;
  */
 public interface SynchronousDatabase {
     /**
-     * Bulk save a collection of documents.
+     * Bulk save a collection of documents using the {@code _bulk_docs} API.
+     * <p>
+     * Large collections are split into chunks of a default size that are sent
+     * in parallel. The {@code _id} and {@code _rev} of every successfully saved
+     * document are updated.
      * 
      * @param Collection
      *            of {@link Document}s.
-     * @return ServerResponse
+     * @return One ServerResponse per document (in the order of the given
+     *         collection). Use {@link ServerResponse#isOk()} to check for
+     *         document level errors (e.g. conflicts).
      */
-    ServerResponse bulkSave(Collection<Document> docs);
+    List<ServerResponse> bulkSave(Collection<Document> docs);
+
+    /**
+     * Bulk save a collection of documents using the {@code _bulk_docs} API.
+     * 
+     * @param Collection
+     *            of {@link Document}s.
+     * @param chunkSize
+     *            The maximum number of documents per request.
+     * @return One ServerResponse per document (in the order of the given
+     *         collection).
+     * @see #bulkSave(Collection)
+     */
+    List<ServerResponse> bulkSave(Collection<Document> docs, int chunkSize);
 
     /**
      * Delete this database. !There is no undo!
@@ -91,6 +112,20 @@ public interface SynchronousDatabase {
      */
     Document fetchDocument(String docId, String rev);
 
+    /**
+     * Fetch several documents at once.
+     * <p>
+     * The ids are POSTed to {@code _all_docs?include_docs=true}. Large id
+     * collections are split into several (parallel) requests.
+     * 
+     * @param docIds
+     *            The document ids
+     * @return List of documents in the order of {@code docIds}. The list
+     *         contains {@code null} for every id that does not exist (or that
+     *         belongs to a deleted document).
+     */
+    List<Document> fetchDocuments(Collection<String> docIds);
+
     /**
      * Returns an instance of clazz with the properties of the CouchDB document
      * with the id {@code docId}.
@@ -126,6 +161,109 @@ public interface SynchronousDatabase {
      */
     ViewResult fetchView(ViewQuery v);
 
+    /**
+     * Query a view without materializing the result. The rows are parsed from
+     * the server connection one at a time while the result is iterated.
+     * <p>
+     * Use this method for (very) large view results. The returned
+     * {@link StreamingViewResult} has to be closed if it is not iterated
+     * completely.
+     * 
+     * @param v
+     *            - A ViewQuery
+     * @return StreamingViewResult for this {@link ViewQuery}
+     */
+    StreamingViewResult streamView(ViewQuery v);
+
+    /**
+     * Iterate over all rows of a view, fetching {@code pageSize} rows per
+     * request. The pages are requested using keyset paging (
+     * {@code startkey} and {@code startkey_docid} of the last row of the
+     * previous page), which is not slowed down by the number of preceding rows
+     * as {@code skip} is. The next page is fetched in the background while the
+     * current page is iterated.
+     * <p>
+     * A {@code limit} of the query limits the total number of rows. The rows
+     * of reduce queries cannot be paged.
+     * 
+     * @param v
+     *            - A ViewQuery
+     * @param pageSize
+     *            - The number of rows per request
+     * @throws org.couch4j.exceptions.Couch4JException
+     *             (from {@code hasNext()}) if a page cannot be fetched
+     */
+    Iterator<ViewResultRow> scanView(ViewQuery v, int pageSize);
+
+    /**
+     * Sample keys that split the key range of a view query into
+     * {@code partitions} partitions of roughly the same number of rows, e.g. to
+     * read a large view with {@link #streamPartitions(ViewQuery, List)}.
+     * <p>
+     * The keys are requested one after the other, each request starts at the
+     * previous key and skips the rows of one partition. CouchDB skips rows by
+     * walking the index, so sampling reads the index rows of the whole range
+     * once on the server (without loading documents). Pass known split keys
+     * (e.g. id prefixes) to {@link #streamPartitions(ViewQuery, List)} to
+     * avoid this cost.
+     * 
+     * @param v
+     *            - A ViewQuery without {@code key}, {@code limit} and
+     *            {@code skip}
+     * @param partitions
+     *            - The number of partitions
+     * @return at most {@code partitions - 1} keys in the order of the view.
+     */
+    List<Object> sampleSplitKeys(ViewQuery v, int partitions);
+
+    /**
+     * Query the key range of a view as a number of partitions that can be read
+     * concurrently, each over its own connection. Partition {@code i} contains
+     * the rows from split key {@code i - 1} (inclusive) to split key {@code i}
+     * (exclusive), the partitions are returned in the order of the view.
+     * <p>
+     * All partitions are requested before this method returns. Every
+     * {@link StreamingViewResult} holds a pooled connection until it has been
+     * iterated completely or closed. The number of partitions must therefore
+     * not exceed the connection limit per host, and connections held by other
+     * streams (e.g. a continuous change feed) reduce the number of available
+     * connections further. Waiting for a connection is limited to a few
+     * seconds.
+     * 
+     * @param v
+     *            - A ViewQuery without {@code key}, {@code limit} and
+     *            {@code skip}
+     * @param splitKeys
+     *            - Keys in the order of the view and within its key range,
+     *            e.g. from {@link #sampleSplitKeys(ViewQuery, int)}. Compound
+     *            keys are given as a {@link java.util.List} or an array.
+     * @return {@code splitKeys.size() + 1} partitions
+     * @throws IllegalArgumentException
+     *             if the connection pool allows fewer connections per host
+     *             than there are partitions.
+     * @throws org.couch4j.exceptions.Couch4JException
+     *             if a partition could not be requested, e.g. because no
+     *             pooled connection became available in time.
+     */
+    List<StreamingViewResult> streamPartitions(ViewQuery v, List<?> splitKeys);
+
+    /**
+     * Read the partitions of a view query (see
+     * {@link #streamPartitions(ViewQuery, List)}) concurrently and return
+     * their rows as a single result. The rows of different partitions are
+     * interleaved as they arrive, i.e. the result is not sorted by key.
+     * 
+     * @param v
+     *            - A ViewQuery without {@code key}, {@code limit} and
+     *            {@code skip}
+     * @param splitKeys
+     *            - Keys in the order of the view and within its key range
+     * @throws IllegalArgumentException
+     *             if the connection pool allows fewer connections per host
+     *             than there are partitions.
+     */
+    StreamingViewResult streamPartitionsMerged(ViewQuery v, List<?> splitKeys);
+
     /**
      * Save the given object as a CouchDB document.
      * <p>
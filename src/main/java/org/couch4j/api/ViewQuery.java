@@ -24,6 +24,7 @@
 package org.couch4j.api;
 
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -65,6 +66,14 @@ public final class ViewQuery {
                 sb.append(value);
             }
         }
+
+        String value() {
+            try {
+                return null == value ? null : URLDecoder.decode(value.toString(), "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e); // UTF-8 is always present
+            }
+        }
     }
 
     private static class Param {
@@ -90,6 +99,10 @@ public final class ViewQuery {
                 // IGNORE
             }
         }
+
+        String value() {
+            return null == value ? null : value.toString();
+        }
     }
 
     public static class ViewQueryBuilder {
@@ -104,23 +117,44 @@ public final class ViewQuery {
             name(name);
         }
 
+        /**
+         * Sets the parameter, replacing a previous value.
+         */
+        private void set(Param param) {
+            remove(param.key.toString());
+            params.add(param);
+        }
+
+        /**
+         * Removes the parameter, e.g. to drop the {@code startkey_docid} of a
+         * query whose start key is replaced.
+         */
+        public ViewQueryBuilder remove(final String name) {
+            for (Iterator<Param> it = params.iterator(); it.hasNext();) {
+                if (name.equals(it.next().key)) {
+                    it.remove();
+                }
+            }
+            return this;
+        }
+
         public ViewQueryBuilder limit(final int limit) {
-            params.add(new Param("limit", String.valueOf(limit)));
+            set(new Param("limit", String.valueOf(limit)));
             return this;
         }
 
         public ViewQueryBuilder count(final int count) {
-            params.add(new Param("count", String.valueOf(count)));
+            set(new Param("count", String.valueOf(count)));
             return this;
         }
 
         public ViewQueryBuilder groupLevel(int level) {
-            params.add(new Param("group_level", String.valueOf(level)));
+            set(new Param("group_level", String.valueOf(level)));
             return this;
         }
 
         public ViewQueryBuilder descending(final boolean descending) {
-            params.add(new Param("descending", String.valueOf(descending)));
+            set(new Param("descending", String.valueOf(descending)));
             return this;
         }
 
@@ -135,29 +169,29 @@ public final class ViewQuery {
 
         public ViewQueryBuilder endkey(String... keyparts) {
             if (null != keyparts) {
-                params.add(new EncodedParam("endkey", toArray(keyparts)));
+                set(new EncodedParam("endkey", toArray(keyparts)));
             }
             return this;
         }
 
         public ViewQueryBuilder group(final boolean group) {
-            params.add(new Param("group", String.valueOf(group)));
+            set(new Param("group", String.valueOf(group)));
             return this;
         }
 
         public ViewQueryBuilder includeDocs(final boolean includeDocs) {
-            params.add(new Param("include_docs", String.valueOf(includeDocs)));
+            set(new Param("include_docs", String.valueOf(includeDocs)));
             return this;
         }
 
         public ViewQueryBuilder inclusiveEnd(boolean b) {
-            params.add(new Param("inclusive_end", String.valueOf(b)));
+            set(new Param("inclusive_end", String.valueOf(b)));
             return this;
         }
 
         public ViewQueryBuilder key(String... keyparts) {
             if (null != keyparts) {
-                params.add(new EncodedParam("key", toArray(keyparts)));
+                set(new EncodedParam("key", toArray(keyparts)));
             }
             return this;
         }
@@ -182,52 +216,84 @@ public final class ViewQuery {
         }
 
         public ViewQueryBuilder reduce(boolean b) {
-            params.add(new Param("reduce", String.valueOf(b)));
+            set(new Param("reduce", String.valueOf(b)));
             return this;
         }
 
         public ViewQueryBuilder skip(final int skip) {
-            params.add(new Param("skip", String.valueOf(skip)));
+            set(new Param("skip", String.valueOf(skip)));
             return this;
         }
 
         public ViewQueryBuilder stale(boolean b) {
             if (b) {
-                params.add(new Param("stale", "ok"));
+                set(new Param("stale", "ok"));
             }
             return this;
         }
 
         public ViewQueryBuilder startkey(final int... keyparts) {
             if (null != keyparts) {
-                params.add(new EncodedParam("startkey", toArray(keyparts)));
+                set(new EncodedParam("startkey", toArray(keyparts)));
             }
             return this;
         }
 
         public ViewQueryBuilder startkey(final String... keyparts) {
             if (null != keyparts) {
-                params.add(new EncodedParam("startkey", toArray(keyparts)));
+                set(new EncodedParam("startkey", toArray(keyparts)));
             }
             return this;
         }
 
+        /**
+         * @param json
+         *            The start key as JSON, e.g. the key of a view result row.
+         */
+        public ViewQueryBuilder startkeyJson(final String json) {
+            set(new Param("startkey", json));
+            return this;
+        }
+
+        /**
+         * @param json
+         *            The end key as JSON, e.g. the key of a view result row.
+         */
+        public ViewQueryBuilder endkeyJson(final String json) {
+            set(new Param("endkey", json));
+            return this;
+        }
+
+        /**
+         * @param keyparts
+         *            The document id. CouchDB expects the plain id (not a
+         *            JSON string) for {@code startkey_docid}.
+         */
         public ViewQueryBuilder startkeyDocid(final String... keyparts) {
-            if (null != keyparts) {
-                params.add(new EncodedParam("startkey_docid", toArray(keyparts)));
+            if (null != keyparts && keyparts.length == 1) {
+                set(new Param("startkey_docid", keyparts[0]));
+            } else if (null != keyparts) {
+                set(new EncodedParam("startkey_docid", toArray(keyparts)));
             }
             return this;
         }
 
+        /**
+         * @param keyparts
+         *            The document id. CouchDB expects the plain id (not a
+         *            JSON string) for {@code endkey_docid}.
+         */
         public ViewQueryBuilder endkeyDocid(final String... keyparts) {
-            if (null != keyparts) {
-                params.add(new EncodedParam("endkey_docid", toArray(keyparts)));
+            if (null != keyparts && keyparts.length == 1) {
+                set(new Param("endkey_docid", keyparts[0]));
+            } else if (null != keyparts) {
+                set(new EncodedParam("endkey_docid", toArray(keyparts)));
             }
             return this;
         }
 
         public ViewQueryBuilder update(final boolean update) {
-            params.add(new Param("update", String.valueOf(update)));
+            set(new Param("update", String.valueOf(update)));
             return this;
         }
 
@@ -316,9 +382,47 @@ public final class ViewQuery {
     private ViewQuery(final ViewQueryBuilder builder) {
         this.viewName = builder.viewName;
         this.documentName = builder.documentName;
-        this.params = builder.params;
+        this.params = new ArrayList<Param>(builder.params);
+    }
+
+    /**
+     * @return a builder initialized with the view and the parameters of this
+     *         query, e.g. to query the next page of a view.
+     */
+    public ViewQueryBuilder toBuilder() {
+        ViewQueryBuilder builder = new ViewQueryBuilder();
+        builder.viewName = viewName;
+        builder.documentName = documentName;
+        builder.params.addAll(params);
+        return builder;
     }
 
+    /**
+     * @return the (not URL encoded) value of the query parameter or null if
+     *         the parameter is not set. Keys are returned as JSON.
+     */
+    public String getParameter(String name) {
+        for (Param p : params) {
+            if (p.key.equals(name)) {
+                return p.value();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @return true if the query allows CouchDB to return a stale view result
+     *         ({@code stale=ok}).
+     */
+    public boolean isStale() {
+        for (Param p : params) {
+            if ("stale".equals(p.key)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * @return the query string to be used to fetch a CouchDB view result.
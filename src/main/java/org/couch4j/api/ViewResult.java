@@ -53,4 +53,15 @@ public interface ViewResult extends Iterable<ViewResultRow>, JsonExportable {
      * @return List of view result rows or an empty list. Never returns null.
      */
     List<ViewResultRow> getRows();
+
+    /**
+     * Load the documents of all rows that only reference a document (e.g. a
+     * view that has been queried without {@code include_docs}) with as few
+     * requests as possible.
+     * <p>
+     * Without calling this method the documents are fetched lazily one by one.
+     * After a few documents have been fetched lazily the remaining documents
+     * are loaded automatically.
+     */
+    void hydrate();
 }
@@ -4,40 +4,63 @@ package org.couch4j.http;
 
 import java.io.InputStream;
 import java.util.Collection;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import org.couch4j.api.AsynchronousDatabase;
 import org.couch4j.api.Document;
+import org.couch4j.api.FutureDatabase;
 import org.couch4j.api.ServerResponse;
 import org.couch4j.api.ViewQuery;
 import org.couch4j.api.*;
-import org.couch4j.exceptions.Couch4JException;
+import org.couch4j.http.DefaultCouchDbClient.RejectionPolicy;
 
 /**
  * @author Stefan Saasen
  */
 final class AsyncDatabaseImpl implements AsynchronousDatabase {
 
-    private final static class RequestToken implements AsyncToken {
-        RequestToken(Object... args) {
-
-        }
+    private static final int DEFAULT_THREADS = 5;
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private final Executor pool;
+
+    private final FutureDatabase futures;
+
+    /**
+     * @param transport
+     *            The transport for the non-blocking requests or null to
+     *            execute all requests on the executor.
+     * @param executor
+     *            The executor or null to create a pool of daemon threads for
+     *            this database.
+     */
+    AsyncDatabaseImpl(final DatabaseImpl database, final NioHttpTransport transport, final Executor executor) {
+        pool = null != executor ? executor : AsyncExecutors.newThreadPool(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY,
+                RejectionPolicy.CALLER_RUNS);
+        FutureDatabase blocking = new FutureDatabaseImpl(database, pool);
+        futures = null == transport ? blocking : new NonBlockingDatabase(database, transport, blocking, pool);
     }
 
-    private final ExecutorService pool;
-
-    private final JsonAwareDatabase database;
+    /**
+     * @return the executor that is used to run the asynchronous requests.
+     */
+    Executor executor() {
+        return pool;
+    }
 
-    AsyncDatabaseImpl(final JsonAwareDatabase database) {
-        this.database = database;
-        pool = Executors.newFixedThreadPool(5);
+    /**
+     * @return the operations returning futures. The handler based operations
+     *         of this class are implemented on top of them, the token passed to
+     *         the handlers is the future of the operation.
+     */
+    FutureDatabase futures() {
+        return futures;
     }
 
     @Override
-    public void bulkSave(Collection<Document> docs, ResponseHandler<ServerResponse> response) {
-        throw new UnsupportedOperationException("Implement!");
+    public void bulkSave(final Collection<Document> docs, final ResponseHandler<List<ServerResponse>> response) {
+        futures.bulkSave(docs).addHandler(response);
     }
 
     @Override
@@ -52,91 +75,37 @@ final class AsyncDatabaseImpl implements AsynchronousDatabase {
 
     @Override
     public void fetchView(final ViewQuery v, final ResponseHandler<ViewResult> response) {
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                ViewResult result = database.fetchView(v);
-                response.completed(result, new AsyncToken() {
-                });
-            }
-        };
-        pool.execute(r);
+        futures.fetchView(v).addHandler(response);
     }
 
     @Override
     public void saveDocument(final Object doc, final ResponseHandler<ServerResponse> response) {
-        Callable<Void> c = new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
-                try {
-                    ServerResponse sr = database.saveDocument(doc);
-                    response.completed(sr, new RequestToken(doc));
-                } catch (Couch4JException e) {
-                    response.failed(e);
-                }
-                return null;
-            }
-        };
-
-        pool.submit(c);
+        futures.saveDocument(doc).addHandler(response);
     }
 
     @Override
     public void saveDocument(final String documentId, final Object doc, final ResponseHandler<ServerResponse> response) {
-        Callable<Void> r = new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
-                try {
-                    ServerResponse sr = database.saveDocument(documentId, doc);
-                    response.completed(sr, new RequestToken(documentId, doc));
-                } catch (Couch4JException e) {
-                    response.failed(e);
-                }
-                return null;
-            }
-        };
-        pool.submit(r);
+        futures.saveDocument(documentId, doc).addHandler(response);
     }
 
     @Override
     public void fetchDocument(final String docId, final ResponseHandler<Document> response) {
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                Document d = database.fetchDocument(docId);
-                response.completed(d, new RequestToken(d.getId(), d.getRev()));
-            }
-        };
-        pool.submit(r);
+        futures.fetchDocument(docId).addHandler(response);
     }
 
     @Override
     public void fetchDocument(final String docId, final String rev, final ResponseHandler<Document> response) {
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                Document d = database.fetchDocument(docId, rev);
-                response.completed(d, new RequestToken(d.getId(), d.getRev()));
-            }
-        };
-        pool.submit(r);
+        futures.fetchDocument(docId, rev).addHandler(response);
+    }
+
+    @Override
+    public void fetchDocuments(final Collection<String> docIds, final ResponseHandler<List<Document>> response) {
+        futures.fetchDocuments(docIds).addHandler(response);
     }
 
     @Override
     public void storeAttachment(final String documentId, final String attachmentName, final InputStream is,
             final ResponseHandler<ServerResponse> response) {
-        Callable<Void> r = new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
-                try {
-                    ServerResponse sr = database.storeAttachment(documentId, attachmentName, is);
-                    response.completed(sr, new RequestToken(documentId, attachmentName));
-                } catch (Couch4JException e) {
-                    response.failed(e);
-                }
-                return null;
-            }
-        };
-        pool.submit(r);
+        futures.storeAttachment(documentId, attachmentName, is).addHandler(response);
     }
 }
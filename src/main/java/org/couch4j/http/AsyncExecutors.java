@@ -0,0 +1,199 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.http.DefaultCouchDbClient.RejectionPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the executors that run the asynchronous database operations.
+ * 
+ * @author Stefan Saasen
+ */
+final class AsyncExecutors {
+
+    private final static Logger logger = LoggerFactory.getLogger(AsyncExecutors.class);
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private AsyncExecutors() {
+        throw new AssertionError("AsyncExecutors should not be instantiated");
+    }
+
+    /**
+     * @param threads
+     *            The number of threads (ignored for virtual threads).
+     * @param queueCapacity
+     *            The number of tasks that may wait for a thread. With virtual
+     *            threads at most {@code threads + queueCapacity} tasks run
+     *            concurrently.
+     * @param virtualThreads
+     *            true to run every task on a new virtual thread if the JVM
+     *            supports them.
+     */
+    static ExecutorService newExecutor(int threads, int queueCapacity, RejectionPolicy policy,
+            boolean virtualThreads) {
+        if (virtualThreads) {
+            ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+            if (null != virtual) {
+                return new BoundedExecutorService(virtual, threads + queueCapacity, policy);
+            }
+            logger.warn("Virtual threads are not supported by this JVM, using a pool of {} threads", threads);
+        }
+        return newThreadPool(threads, queueCapacity, policy);
+    }
+
+    /**
+     * @return a pool of daemon threads that terminate when they have been idle
+     *         for a minute.
+     */
+    static ExecutorService newThreadPool(int threads, int queueCapacity, RejectionPolicy policy) {
+        RejectedExecutionHandler handler = policy == RejectionPolicy.CALLER_RUNS ? new CallerRunsPolicy()
+                : new ThreadPoolExecutor.AbortPolicy();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory(), handler);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * @return {@code Executors.newVirtualThreadPerTaskExecutor()} or null if
+     *         the JVM does not support virtual threads.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            // e.g. preview feature not enabled
+            logger.debug("Unable to create a virtual thread executor", e);
+            return null;
+        }
+    }
+
+    /**
+     * Unlike {@link ThreadPoolExecutor.CallerRunsPolicy} tasks are rejected
+     * (instead of silently discarded) once the executor has been shut down, so
+     * the futures of the requests do not wait forever.
+     */
+    private static final class CallerRunsPolicy implements RejectedExecutionHandler {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("The executor has been shut down");
+            }
+            r.run();
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL = new AtomicInteger();
+        private final int pool = POOL.incrementAndGet();
+        private final AtomicInteger thread = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "couch4j-async-" + pool + "-" + thread.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Limits the number of tasks that are running concurrently on an
+     * (unbounded) executor.
+     */
+    @ThreadSafe
+    static final class BoundedExecutorService extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+        private final RejectionPolicy policy;
+
+        BoundedExecutorService(ExecutorService delegate, int maxTasks, RejectionPolicy policy) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxTasks);
+            this.policy = policy;
+        }
+
+        public void execute(final Runnable command) {
+            if (!permits.tryAcquire()) {
+                if (policy == RejectionPolicy.CALLER_RUNS && !delegate.isShutdown()) {
+                    command.run();
+                    return;
+                }
+                throw new RejectedExecutionException("Too many pending asynchronous requests");
+            }
+            try {
+                delegate.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            command.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.couch4j.api.Database.BatchChangeListener;
+import org.couch4j.api.Database.ChangeEvent;
+import org.couch4j.api.Database.ChangeListener;
+import org.couch4j.http.DatabaseChangeNotificationService.DatabaseChangeEvent;
+
+/**
+ * Collects change events and delivers them to a {@link BatchChangeListener}
+ * on a separate thread.
+ * <p>
+ * A batch is delivered once {@code maxBatchSize} events have been collected
+ * or the oldest collected event is {@code maxDelay} old. The feed thread only
+ * appends to the pending events, it blocks only if the listener falls behind
+ * by more than {@link #MAX_PENDING_BATCHES} batches.
+ * 
+ * @author Stefan Saasen
+ */
+final class BatchingChangeListener implements ChangeListener {
+
+    private final static Logger logger = Logger.getLogger(BatchingChangeListener.class.getName());
+
+    static final int MAX_PENDING_BATCHES = 10;
+
+    private final BatchChangeListener listener;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    // Guarded by this
+    private List<ChangeEvent> pending;
+    private long firstEventTime;
+    private boolean closed;
+
+    private final Thread worker;
+
+    BatchingChangeListener(BatchChangeListener listener, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize has to be greater than 0 but was " + maxBatchSize);
+        }
+        this.listener = listener;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.pending = new ArrayList<ChangeEvent>(maxBatchSize);
+        this.worker = new Thread(new Runnable() {
+            public void run() {
+                deliver();
+            }
+        }, "couch4j-batch-change-listener");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void onChange(ChangeEvent event) {
+        try {
+            while (pending.size() >= maxBatchSize * MAX_PENDING_BATCHES && !closed) {
+                // Backpressure: the listener can't keep up with the feed
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (closed) {
+            processed(event);
+            return;
+        }
+        if (pending.isEmpty()) {
+            firstEventTime = System.nanoTime();
+        }
+        pending.add(event);
+        if (pending.size() == 1 || pending.size() == maxBatchSize) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Delivers the remaining events and stops the worker thread.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (Thread.currentThread() != worker) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void deliver() {
+        for (;;) {
+            List<ChangeEvent> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (null == batch) {
+                return;
+            }
+            try {
+                listener.onChanges(batch);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "BatchChangeListener " + listener + " failed to process " + batch.size()
+                        + " events", e);
+            }
+            for (ChangeEvent event : batch) {
+                processed(event);
+            }
+        }
+    }
+
+    private static void processed(ChangeEvent event) {
+        if (event instanceof DatabaseChangeEvent) {
+            ((DatabaseChangeEvent) event).processed();
+        }
+    }
+
+    /**
+     * @return the next batch or null if the listener was closed and all
+     *         events have been delivered.
+     */
+    private synchronized List<ChangeEvent> nextBatch() throws InterruptedException {
+        for (;;) {
+            if (pending.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                wait();
+                continue;
+            }
+            long remaining = maxDelayNanos - (System.nanoTime() - firstEventTime);
+            if (pending.size() >= maxBatchSize || remaining <= 0 || closed) {
+                return take();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    private List<ChangeEvent> take() {
+        List<ChangeEvent> batch;
+        if (pending.size() <= maxBatchSize) {
+            batch = pending;
+            pending = new ArrayList<ChangeEvent>(maxBatchSize);
+        } else {
+            batch = new ArrayList<ChangeEvent>(pending.subList(0, maxBatchSize));
+            pending.subList(0, maxBatchSize).clear();
+            firstEventTime = System.nanoTime();
+        }
+        // Unblock the feed thread
+        notifyAll();
+        return batch;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchingChangeListener [listener=" + listener + ", maxBatchSize=" + maxBatchSize + "]";
+    }
+}
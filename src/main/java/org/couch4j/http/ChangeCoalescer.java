@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.couch4j.api.Database.ChangeListener;
+import org.couch4j.http.DatabaseChangeNotificationService.DatabaseChangeEvent;
+
+/**
+ * Holds back change events for a time window and keeps only the latest event
+ * per document, i.e. a document that is updated many times within the window
+ * is reported once (with its latest revision).
+ * <p>
+ * The window starts with the first event for a document. When the window has
+ * passed the latest event for the document is dispatched on a separate
+ * thread. Events are dispatched in the order of their first occurrence and
+ * the events for a document are never reordered.
+ * 
+ * @author Stefan Saasen
+ */
+final class ChangeCoalescer {
+
+    private final static Logger logger = Logger.getLogger(ChangeCoalescer.class.getName());
+
+    /**
+     * Receives the events once their window has passed.
+     */
+    interface Sink {
+        void dispatch(DatabaseChangeEvent event, ChangeListener[] listeners);
+    }
+
+    private static final class Pending {
+        private final long due;
+        private DatabaseChangeEvent event;
+        private ChangeListener[] listeners;
+
+        Pending(long due, DatabaseChangeEvent event, ChangeListener[] listeners) {
+            this.due = due;
+            this.event = event;
+            this.listeners = listeners;
+        }
+    }
+
+    private final Sink sink;
+    private final long windowNanos;
+    private final AtomicLong collapsed = new AtomicLong();
+
+    // Guarded by this, in the order of the first event (i.e. of due)
+    private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    private boolean closed;
+    private boolean terminated;
+
+    private final Thread worker;
+
+    ChangeCoalescer(Sink sink, long window, TimeUnit unit) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window has to be greater than 0 but was " + window);
+        }
+        this.sink = sink;
+        this.windowNanos = unit.toNanos(window);
+        this.worker = new Thread(new Runnable() {
+            public void run() {
+                flush();
+            }
+        }, "couch4j-change-coalescer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    void offer(DatabaseChangeEvent event, ChangeListener[] listeners) {
+        DatabaseChangeEvent superseded = null;
+        synchronized (this) {
+            if (!terminated) {
+                Pending p = pending.get(event.getId());
+                if (null == p) {
+                    pending.put(event.getId(), new Pending(System.nanoTime() + windowNanos, event, listeners));
+                    if (pending.size() == 1) {
+                        notifyAll();
+                    }
+                } else {
+                    superseded = p.event;
+                    p.event = event;
+                    p.listeners = listeners;
+                }
+                event = null;
+            }
+        }
+        if (null != superseded) {
+            collapsed.incrementAndGet();
+            superseded.discard();
+        }
+        if (null != event) {
+            // Closed and all pending events have been dispatched
+            sink.dispatch(event, listeners);
+        }
+    }
+
+    /**
+     * @return the number of events that were dropped in favour of a later
+     *         event for the same document.
+     */
+    long collapsed() {
+        return collapsed.get();
+    }
+
+    /**
+     * Dispatches the pending events and stops the worker thread.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (Thread.currentThread() != worker) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void flush() {
+        for (;;) {
+            List<Pending> due;
+            try {
+                due = nextDue();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (null == due) {
+                return;
+            }
+            for (Pending p : due) {
+                try {
+                    sink.dispatch(p.event, p.listeners);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Dispatching " + p.event + " failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the events whose window has passed or null if the coalescer
+     *         was closed and all events have been dispatched.
+     */
+    private synchronized List<Pending> nextDue() throws InterruptedException {
+        for (;;) {
+            if (pending.isEmpty()) {
+                if (closed) {
+                    terminated = true;
+                    return null;
+                }
+                wait();
+                continue;
+            }
+            long now = System.nanoTime();
+            long remaining = pending.values().iterator().next().due - now;
+            if (remaining <= 0 || closed) {
+                List<Pending> due = new ArrayList<Pending>();
+                for (Iterator<Pending> it = pending.values().iterator(); it.hasNext();) {
+                    Pending p = it.next();
+                    if (!closed && p.due - now > 0) {
+                        break;
+                    }
+                    due.add(p);
+                    it.remove();
+                }
+                return due;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeCoalescer [window=" + TimeUnit.NANOSECONDS.toMillis(windowNanos) + "ms]";
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.ChangeSubscription;
+import org.couch4j.api.Publisher;
+import org.couch4j.api.Database.ChangeEvent;
+import org.couch4j.exceptions.Couch4JException;
+import org.couch4j.http.DatabaseChangeNotificationService.DatabaseChangeEvent;
+
+/**
+ * Publishes the {@code _changes} feed of a database. Each subscription polls
+ * the feed ({@code feed=longpoll}) with a {@code limit} of at most the
+ * outstanding demand, i.e. the feed is not read while the subscriber has not
+ * requested further events.
+ * <p>
+ * A longpoll blocks its thread for up to {@link #LONGPOLL_TIMEOUT}, the feeds
+ * are therefore read on a pool of daemon threads shared by all publishers
+ * rather than on the executor of the asynchronous requests. A subscription
+ * occupies a thread while there is demand; a longpoll that times out without
+ * changes returns the thread to the pool before the next poll. The
+ * subscription completes only if it fails or is cancelled.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class ChangeEventPublisher implements Publisher<ChangeEvent> {
+
+    static final int PAGE_SIZE = 100;
+    /**
+     * Shorter than the heartbeat that determines the recommended socket
+     * timeout.
+     */
+    static final long LONGPOLL_TIMEOUT = 4000;
+
+    private static final Executor POLLERS = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger thread = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "couch4j-changes-publisher-" + thread.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final HttpClient client;
+    private final DatabaseImpl database;
+    private final ChangeSubscription subscription;
+    private final String since;
+
+    /**
+     * @param since
+     *            The sequence after which the changes are published or null
+     *            to publish the changes after the current update sequence.
+     */
+    ChangeEventPublisher(HttpClient client, DatabaseImpl database, ChangeSubscription subscription, String since) {
+        this.client = client;
+        this.database = database;
+        this.subscription = subscription;
+        this.since = since;
+    }
+
+    public void subscribe(Subscriber<? super ChangeEvent> subscriber) {
+        if (null == subscriber) {
+            throw new NullPointerException("subscriber");
+        }
+        new FeedSubscription(subscriber).start();
+    }
+
+    private final class FeedSubscription extends PullSubscription<ChangeEvent> {
+        // Only accessed by the drain loop
+        private final ArrayDeque<ChangeEvent> buffer = new ArrayDeque<ChangeEvent>();
+        private String seq = since;
+        private volatile HttpGet request;
+
+        FeedSubscription(Subscriber<? super ChangeEvent> subscriber) {
+            super(subscriber, POLLERS);
+        }
+
+        @Override
+        protected ChangeEvent next() throws IOException {
+            if (buffer.isEmpty()) {
+                poll();
+            }
+            if (buffer.isEmpty()) {
+                // The longpoll timed out, release the thread before polling again
+                retryLater();
+                return null;
+            }
+            return buffer.poll();
+        }
+
+        private void poll() throws IOException {
+            if (null == seq) {
+                seq = String.valueOf(database.getDatabaseInfo().getUpdateSeq());
+            }
+            Map<String, String> params = DatabaseChangeNotificationService.feedParameters(subscription,
+                    "longpoll", seq);
+            params.put("limit", String.valueOf(Math.min(demand(), PAGE_SIZE)));
+            params.put("timeout", String.valueOf(LONGPOLL_TIMEOUT));
+            HttpGet method = new HttpGet(database.urlForPath("_changes", params));
+            request = method;
+            HttpEntity entity = null;
+            try {
+                HttpResponse response = client.execute(method);
+                entity = response.getEntity();
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode != HttpStatus.SC_OK) {
+                    throw new Couch4JException(JSONObject.fromObject(EntityUtils.toString(entity)), statusCode);
+                }
+                String charset = EntityUtils.getContentCharSet(entity);
+                JsonRowReader rows = new JsonRowReader(new InputStreamReader(entity.getContent(),
+                        null == charset ? "UTF-8" : charset), "results");
+                rows.readHeader();
+                JSONObject row;
+                while (null != (row = rows.nextRow())) {
+                    seq = row.getString("seq");
+                    buffer.add(event(row));
+                }
+                if (null != rows.trailer() && rows.trailer().has("last_seq")) {
+                    seq = rows.trailer().getString("last_seq");
+                }
+            } catch (JSONException e) {
+                throw new Couch4JException(e);
+            } finally {
+                request = null;
+                if (null != entity) {
+                    try {
+                        entity.consumeContent();
+                    } catch (IOException e) {
+                        // swallow
+                    }
+                }
+            }
+        }
+
+        private ChangeEvent event(JSONObject row) {
+            ResponseDocument document = null;
+            JSONObject doc = row.optJSONObject("doc");
+            if (null != doc && !doc.isNullObject()) {
+                document = new ResponseDocument(doc);
+                document.setDatabase(database);
+            }
+            return new DatabaseChangeEvent(row.getString("id"), row.getString("seq"), row.optBoolean("deleted"),
+                    DatabaseChangeNotificationService.revs(row), document);
+        }
+
+        @Override
+        protected void abort() {
+            HttpGet method = request;
+            if (null != method) {
+                method.abort();
+            }
+        }
+
+        @Override
+        protected void close() {
+            buffer.clear();
+        }
+    }
+}
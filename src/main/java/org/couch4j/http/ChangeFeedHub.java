@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.couch4j.annotations.ThreadSafe;
+
+/**
+ * Serves the {@code _changes} feeds of any number of databases from a small,
+ * fixed number of threads.
+ * <p>
+ * Instead of holding a continuous feed (a thread and a pooled connection) per
+ * database the hub rotates over the subscribed databases and polls each feed
+ * ({@code feed=normal}), i.e. at most one connection per hub thread is in use.
+ * A database that returned changes is polled again immediately, otherwise it
+ * is polled again after the poll interval. Failing databases are polled with
+ * an exponential backoff.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class ChangeFeedHub {
+
+    private final static Logger logger = Logger.getLogger(ChangeFeedHub.class.getName());
+
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * A subscribed feed.
+     */
+    interface Poller {
+        /**
+         * Requests and dispatches the changes since the previous poll. Never
+         * called concurrently for the same poller.
+         * 
+         * @return true if there were changes (the feed is polled again
+         *         immediately).
+         */
+        boolean poll() throws Exception;
+    }
+
+    private static final class Scheduled implements Delayed {
+        private final Poller poller;
+        private final Object subscription;
+        private final long due;
+        private final int failures;
+
+        Scheduled(Poller poller, Object subscription, long delay, int failures) {
+            this.poller = poller;
+            this.subscription = subscription;
+            this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            this.failures = failures;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            long d = due - ((Scheduled) o).due;
+            return d < 0 ? -1 : (d > 0 ? 1 : 0);
+        }
+    }
+
+    private final long pollInterval;
+    private final DelayQueue<Scheduled> queue = new DelayQueue<Scheduled>();
+    // Poller -> subscription token, a re-subscribed poller gets a new token so
+    // that the entries of the previous subscription are discarded
+    private final ConcurrentMap<Poller, Object> subscriptions = new ConcurrentHashMap<Poller, Object>();
+    private final Thread[] threads;
+    private volatile boolean shutdown;
+
+    /**
+     * @param threads
+     *            The number of threads polling the feeds.
+     * @param pollInterval
+     *            The time in milliseconds after which a feed without changes
+     *            is polled again.
+     */
+    ChangeFeedHub(int threads, long pollInterval) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads has to be greater than 0 but was " + threads);
+        }
+        this.pollInterval = pollInterval;
+        this.threads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            this.threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "couch4j-changes-hub-" + i);
+            this.threads[i].setDaemon(true);
+            this.threads[i].start();
+        }
+    }
+
+    void subscribe(Poller poller) {
+        Object subscription = new Object();
+        subscriptions.put(poller, subscription);
+        queue.add(new Scheduled(poller, subscription, 0, 0));
+    }
+
+    void unsubscribe(Poller poller) {
+        subscriptions.remove(poller);
+    }
+
+    /**
+     * @return the number of subscribed feeds.
+     */
+    int size() {
+        return subscriptions.size();
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * Stops polling. The subscribed feeds are discarded.
+     */
+    void shutdown() {
+        shutdown = true;
+        subscriptions.clear();
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+    }
+
+    private void work() {
+        while (!shutdown) {
+            Scheduled s;
+            try {
+                s = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (subscriptions.get(s.poller) != s.subscription) {
+                // unsubscribed
+                continue;
+            }
+            long delay;
+            int failures = 0;
+            try {
+                delay = s.poller.poll() ? 0 : pollInterval;
+            } catch (Exception e) {
+                failures = s.failures + 1;
+                delay = Math.min(pollInterval << Math.min(failures, 16), MAX_BACKOFF);
+                logger.log(Level.WARNING, "Polling the _changes feed failed, retrying in " + delay + "ms", e);
+            }
+            if (subscriptions.get(s.poller) == s.subscription) {
+                queue.add(new Scheduled(s.poller, s.subscription, delay, failures));
+            }
+        }
+    }
+}
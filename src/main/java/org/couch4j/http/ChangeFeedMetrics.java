@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.ChangeFeedStatistics;
+
+/**
+ * Records the {@link ChangeFeedStatistics} of a change feed.
+ * <p>
+ * The event rate is counted in one second buckets over the last
+ * {@link #RATE_SECONDS} seconds, the latency percentiles are computed from
+ * the latest {@link #LATENCY_SAMPLES} events.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class ChangeFeedMetrics implements ChangeFeedStatistics {
+
+    static final int RATE_SECONDS = 10;
+    static final int LATENCY_SAMPLES = 1024;
+    static final long UPDATE_SEQ_TTL = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The state of the feed that is not recorded by the metrics.
+     */
+    interface Source {
+        /**
+         * @return the low-watermark of the processed events or null.
+         */
+        String processedSeq();
+
+        /**
+         * @return the server's {@code update_seq}.
+         */
+        long updateSeq();
+
+        int backlog();
+    }
+
+    private final Source source;
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private volatile String receivedSeq;
+
+    // Guarded by this
+    private final long[] buckets = new long[RATE_SECONDS + 1];
+    private long bucketSecond;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyIndex;
+    private int latencyCount;
+
+    // The update_seq is requested outside of the monitor that is shared with
+    // the dispatch path: only the thread that advances the time refreshes it,
+    // the other threads use the previous value in the meantime.
+    private volatile long updateSeq = -1;
+    private final AtomicLong updateSeqTime = new AtomicLong(System.nanoTime() - UPDATE_SEQ_TTL - 1);
+
+    ChangeFeedMetrics(Source source) {
+        this.source = source;
+        this.bucketSecond = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+
+    void received(String seq) {
+        receivedSeq = seq;
+    }
+
+    /**
+     * @param latency
+     *            The dispatch latency in nanoseconds.
+     */
+    void delivered(long latency) {
+        events.incrementAndGet();
+        long now = System.nanoTime();
+        synchronized (this) {
+            advance(TimeUnit.NANOSECONDS.toSeconds(now));
+            buckets[bucket(bucketSecond)]++;
+            latencies[latencyIndex] = latency;
+            latencyIndex = (latencyIndex + 1) % LATENCY_SAMPLES;
+            if (latencyCount < LATENCY_SAMPLES) {
+                latencyCount++;
+            }
+        }
+    }
+
+    void reconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    public long getEventCount() {
+        return events.get();
+    }
+
+    public synchronized double getEventRate() {
+        advance(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime()));
+        long n = 0;
+        for (int i = 1; i <= RATE_SECONDS; i++) {
+            // The complete seconds before the current one
+            n += buckets[bucket(bucketSecond - i)];
+        }
+        return n / (double) RATE_SECONDS;
+    }
+
+    /**
+     * Moves the current bucket to {@code second}, clearing the skipped
+     * buckets.
+     */
+    private void advance(long second) {
+        if (second <= bucketSecond) {
+            return;
+        }
+        long skipped = Math.min(second - bucketSecond, buckets.length);
+        for (long s = second - skipped + 1; s <= second; s++) {
+            buckets[bucket(s)] = 0;
+        }
+        bucketSecond = second;
+    }
+
+    private int bucket(long second) {
+        int i = (int) (second % buckets.length);
+        return i < 0 ? i + buckets.length : i;
+    }
+
+    public String getLastReceivedSeq() {
+        return receivedSeq;
+    }
+
+    public String getLastProcessedSeq() {
+        return source.processedSeq();
+    }
+
+    public long getLag() {
+        long processed = sequenceNumber(getLastProcessedSeq());
+        if (processed < 0) {
+            processed = sequenceNumber(receivedSeq);
+        }
+        long current = currentUpdateSeq();
+        if (processed < 0 || current < 0) {
+            return -1;
+        }
+        return Math.max(0, current - processed);
+    }
+
+    private long currentUpdateSeq() {
+        long now = System.nanoTime();
+        long time = updateSeqTime.get();
+        if (now - time > UPDATE_SEQ_TTL && updateSeqTime.compareAndSet(time, now)) {
+            updateSeq = source.updateSeq();
+        }
+        return updateSeq;
+    }
+
+    /**
+     * @return the number of a sequence (e.g. {@code 12} or the prefix of
+     *         {@code 12-g1AAAA}) or -1.
+     */
+    static long sequenceNumber(String seq) {
+        if (null == seq) {
+            return -1;
+        }
+        int end = 0;
+        while (end < seq.length() && Character.isDigit(seq.charAt(end))) {
+            end++;
+        }
+        if (end == 0 || end > 18) {
+            return -1;
+        }
+        return Long.parseLong(seq.substring(0, end));
+    }
+
+    public long getDispatchLatency(double percentile, TimeUnit unit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile has to be between 0 and 100 but was " + percentile);
+        }
+        long[] samples;
+        synchronized (this) {
+            samples = Arrays.copyOf(latencies, latencyCount);
+        }
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+        return unit.convert(samples[Math.max(0, index)], TimeUnit.NANOSECONDS);
+    }
+
+    public int getDispatchBacklog() {
+        return source.backlog();
+    }
+
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeFeedMetrics [events=" + events + ", reconnects=" + reconnects + ", receivedSeq="
+                + receivedSeq + "]";
+    }
+}
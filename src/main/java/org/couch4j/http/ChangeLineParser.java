@@ -0,0 +1,407 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+/**
+ * Minimal parser for a single line of the {@code _changes} feed, e.g.
+ * 
+ * <pre>
+ * {&quot;seq&quot;:12,&quot;id&quot;:&quot;doc&quot;,&quot;changes&quot;:[{&quot;rev&quot;:&quot;2-7051cbe5c8faecd085a3fa619e6e6337&quot;}],&quot;deleted&quot;:true}
+ * {&quot;last_seq&quot;:12}
+ * </pre>
+ * 
+ * Only the {@code seq}, {@code id}, {@code changes}, {@code deleted} and
+ * {@code last_seq} members are extracted, all other members are skipped
+ * without creating any objects. Of the {@code doc} member (sent for
+ * {@code include_docs=true}) only the position is recorded, it is parsed on
+ * demand by {@link #doc()}. The parser works on the UTF-8 encoded bytes of
+ * the line.
+ * <p>
+ * This class is not thread safe, an instance is meant to be reused for all
+ * lines of a feed.
+ * 
+ * @author Stefan Saasen
+ */
+final class ChangeLineParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] SEQ = bytes("seq");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] CHANGES = bytes("changes");
+    private static final byte[] DELETED = bytes("deleted");
+    private static final byte[] LAST_SEQ = bytes("last_seq");
+    private static final byte[] REV = bytes("rev");
+    private static final byte[] DOC = bytes("doc");
+
+    private byte[] b;
+    private int start;
+    private int pos;
+    private int end;
+
+    private String seq;
+    private String id;
+    private boolean deleted;
+    private List<String> revs;
+    private String lastSeq;
+    private int docStart;
+    private int docEnd;
+
+    /**
+     * Parses the given line. Empty lines (e.g. heartbeats) are ignored.
+     * 
+     * @return true if the line contained a JSON object.
+     * @throws JSONException
+     *             if the line is not a valid JSON object.
+     */
+    boolean parse(byte[] buffer, int offset, int length) {
+        this.b = buffer;
+        this.start = offset;
+        this.pos = offset;
+        this.end = offset + length;
+        seq = null;
+        id = null;
+        deleted = false;
+        revs = null;
+        lastSeq = null;
+        docStart = -1;
+        docEnd = -1;
+
+        skipWhitespace();
+        if (pos == end) {
+            return false;
+        }
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return true;
+        }
+        for (;;) {
+            skipWhitespace();
+            int keyStart = pos + 1;
+            skipString();
+            int keyLength = pos - 1 - keyStart;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (is(keyStart, keyLength, SEQ)) {
+                seq = readScalar();
+            } else if (is(keyStart, keyLength, ID)) {
+                id = readString();
+            } else if (is(keyStart, keyLength, DELETED)) {
+                deleted = readBoolean();
+            } else if (is(keyStart, keyLength, CHANGES)) {
+                revs = readRevs();
+            } else if (is(keyStart, keyLength, LAST_SEQ)) {
+                lastSeq = readScalar();
+            } else if (is(keyStart, keyLength, DOC)) {
+                docStart = pos;
+                skipValue();
+                docEnd = pos;
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            int c = next();
+            if (c == '}') {
+                return true;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * @return true if the line was a change (i.e. it had a {@code seq}).
+     */
+    boolean isChange() {
+        return null != seq;
+    }
+
+    String seq() {
+        return seq;
+    }
+
+    String id() {
+        return id;
+    }
+
+    boolean deleted() {
+        return deleted;
+    }
+
+    /**
+     * @return the revisions of the {@code changes} member (never null).
+     */
+    List<String> revs() {
+        return null == revs ? new ArrayList<String>(0) : revs;
+    }
+
+    /**
+     * @return the {@code last_seq} (sent when the server closes the feed) or
+     *         null.
+     */
+    String lastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Has to be called before the next line is parsed.
+     * 
+     * @return the {@code doc} member or null if the line did not contain a
+     *         document.
+     * @throws JSONException
+     *             if the document is not a valid JSON object.
+     */
+    JSONObject doc() {
+        if (docStart < 0 || b[docStart] != '{') {
+            return null;
+        }
+        return JSONObject.fromObject(new String(b, docStart, docEnd - docStart, UTF_8));
+    }
+
+    private List<String> readRevs() {
+        List<String> result = new ArrayList<String>(1);
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return result;
+        }
+        for (;;) {
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() != '}') {
+                for (;;) {
+                    skipWhitespace();
+                    int keyStart = pos + 1;
+                    skipString();
+                    int keyLength = pos - 1 - keyStart;
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                    if (is(keyStart, keyLength, REV)) {
+                        result.add(readString());
+                    } else {
+                        skipValue();
+                    }
+                    skipWhitespace();
+                    if (peek() != ',') {
+                        break;
+                    }
+                    pos++;
+                }
+            }
+            expect('}');
+            skipWhitespace();
+            int c = next();
+            if (c == ']') {
+                return result;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * @return a string or the text of a number.
+     */
+    private String readScalar() {
+        if (peek() == '"') {
+            return readString();
+        }
+        int start = pos;
+        skipValue();
+        return new String(b, start, pos - start, UTF_8);
+    }
+
+    private boolean readBoolean() {
+        int start = pos;
+        skipValue();
+        return pos - start == 4 && b[start] == 't';
+    }
+
+    private String readString() {
+        int start = pos + 1;
+        boolean escaped = skipString();
+        String s = new String(b, start, pos - 1 - start, UTF_8);
+        return escaped ? unescape(s) : s;
+    }
+
+    /**
+     * Skips a string including the quotes.
+     * 
+     * @return true if the string contains escape sequences.
+     */
+    private boolean skipString() {
+        expect('"');
+        boolean escaped = false;
+        while (pos < end) {
+            byte c = b[pos++];
+            if (c == '"') {
+                return escaped;
+            }
+            if (c == '\\') {
+                escaped = true;
+                pos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipValue() {
+        int c = peek();
+        if (c == '"') {
+            skipString();
+            return;
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (pos < end) {
+                c = b[pos];
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                pos++;
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw syntaxError("Unbalanced value");
+        }
+        // number, true, false, null
+        int start = pos;
+        while (pos < end) {
+            c = b[pos];
+            if (c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw syntaxError("Expected a value");
+        }
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+            c = s.charAt(++i);
+            switch (c) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'u':
+                if (i + 4 >= s.length()) {
+                    throw new JSONException("Invalid unicode escape in " + s);
+                }
+                sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                i += 4;
+                break;
+            default:
+                // '"', '\\' and '/'
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean is(int start, int length, byte[] key) {
+        if (length != key.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (b[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(b[pos])) {
+            pos++;
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private int peek() {
+        return pos < end ? b[pos] : -1;
+    }
+
+    private int next() {
+        return pos < end ? b[pos++] : -1;
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at position " + (pos - start) + " in "
+                + new String(b, start, end - start, UTF_8));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.SequenceCheckpointStore;
+
+/**
+ * Writes the latest processed sequence to a {@link SequenceCheckpointStore}
+ * on a background thread, every {@code maxEvents} processed events and every
+ * {@code interval}. Only the latest sequence is written if the store falls
+ * behind.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class Checkpointer implements SequenceTracker.Listener {
+
+    private final static Logger logger = Logger.getLogger(Checkpointer.class.getName());
+
+    private final SequenceCheckpointStore store;
+    private final int maxEvents;
+    private final ScheduledExecutorService executor;
+
+    // Guarded by this
+    private String latest;
+    private int unsaved;
+    private boolean flushScheduled;
+
+    // Only accessed by the executor thread
+    private String stored;
+
+    private final Runnable flush = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    Checkpointer(SequenceCheckpointStore store, int maxEvents, long interval, TimeUnit unit) {
+        if (maxEvents < 1) {
+            throw new IllegalArgumentException("maxEvents has to be greater than 0 but was " + maxEvents);
+        }
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval has to be greater than 0 but was " + interval);
+        }
+        this.store = store;
+        this.maxEvents = maxEvents;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "couch4j-checkpoint");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(flush, interval, interval, unit);
+    }
+
+    /**
+     * @return the stored sequence the change feed should resume from or null.
+     */
+    String load() {
+        return store.load();
+    }
+
+    public void processed(String seq, int events) {
+        synchronized (this) {
+            latest = seq;
+            unsaved += events;
+            if (unsaved < maxEvents || flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        try {
+            executor.execute(flush);
+        } catch (RejectedExecutionException e) {
+            // closed, the final flush stores the latest sequence
+        }
+    }
+
+    private void flush() {
+        String seq;
+        synchronized (this) {
+            seq = latest;
+            unsaved = 0;
+            flushScheduled = false;
+        }
+        if (null == seq || seq.equals(stored)) {
+            return;
+        }
+        try {
+            store.store(seq);
+            stored = seq;
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Failed to store checkpoint " + seq + " in " + store, e);
+        }
+    }
+
+    /**
+     * Stores the latest sequence and stops the background thread.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}
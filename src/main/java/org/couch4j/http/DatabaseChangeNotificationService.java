@@ -23,182 +23,674 @@
  */
 package org.couch4j.http;
 
-import static org.couch4j.util.CollectionUtils.map;
-
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
-import net.sf.json.util.JSONUtils;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.util.EntityUtils;
+import org.couch4j.api.ChangeFeedStatistics;
+import org.couch4j.api.ChangeSubscription;
 import org.couch4j.api.Database;
+import org.couch4j.api.Document;
+import org.couch4j.api.Database.BatchChangeListener;
 import org.couch4j.api.Database.ChangeEvent;
 import org.couch4j.api.Database.ChangeListener;
+import org.couch4j.api.SequenceCheckpointStore;
 import org.couch4j.annotations.Immutable;
 import org.couch4j.exceptions.Couch4JException;
 
 /**
+ * Reads the continuous {@code _changes} feed of a database and dispatches the
+ * changes to the registered {@link ChangeListener}s.
+ * <p>
+ * The feed is read on a single thread. When the server closes the feed (or
+ * the connection fails) the service reconnects with the last received
+ * sequence. If the client uses a {@link ChangeFeedHub} the feed is polled by
+ * the hub instead, i.e. the service neither owns a thread nor a long-lived
+ * connection.
+ * 
  * @author Stefan Saasen
  */
 final class DatabaseChangeNotificationService {
 
     private final static Logger logger = Logger.getLogger(DatabaseChangeNotificationService.class.getName());
 
+    private static final long MIN_RECONNECT_DELAY = 500;
+    private static final long MAX_RECONNECT_DELAY = 30000;
+
+    /**
+     * The maximum number of changes requested by a single poll of the hub.
+     */
+    static final int POLL_LIMIT = 500;
+
     private ExecutorService executor;
-    private volatile boolean receivingChangeNotifications;
+    // Guarded by this
+    private FeedReader reader;
+    // Guarded by this
+    private HubPoller poller;
     private final CopyOnWriteArrayList<ChangeListener> listener = new CopyOnWriteArrayList<ChangeListener>();
+    private final ConcurrentMap<BatchChangeListener, BatchingChangeListener> batchListener =
+            new ConcurrentHashMap<BatchChangeListener, BatchingChangeListener>();
+
+    private volatile Checkpointer checkpointer;
+    private volatile DispatchLanes lanes;
+    private volatile ChangeCoalescer coalescer;
+    private final SequenceTracker tracker = new SequenceTracker(new SequenceTracker.Listener() {
+        public void processed(String seq, int events) {
+            Checkpointer c = checkpointer;
+            if (null != c) {
+                c.processed(seq, events);
+            }
+        }
+    });
+
+    private final ChangeFeedMetrics metrics = new ChangeFeedMetrics(new ChangeFeedMetrics.Source() {
+        public String processedSeq() {
+            return tracker.watermark();
+        }
+
+        public long updateSeq() {
+            return database.getDatabaseInfo().getUpdateSeq();
+        }
+
+        public int backlog() {
+            DispatchLanes l = lanes;
+            return null == l ? 0 : l.backlog();
+        }
+    });
 
     private final HttpClient client;
     private final UrlBuilder urlResolver;
     private final Database database;
+    private final ChangeFeedHub hub;
+    private final ChangeSubscription subscription;
 
     DatabaseChangeNotificationService(final HttpClient c, final UrlBuilder urlResolver, Database database) {
-        // HttpClientParams params = new HttpClientParams();
-        // params.setConnectionManagerClass(org.apache.commons.httpclient.MultiThreadedHttpConnectionManager.class);
+        this(c, urlResolver, database, null, ChangeSubscription.ALL);
+    }
+
+    /**
+     * @param hub
+     *            The hub polling the feed or null to read the continuous feed
+     *            on a dedicated thread.
+     * @param subscription
+     *            The changes to request.
+     */
+    DatabaseChangeNotificationService(final HttpClient c, final UrlBuilder urlResolver, Database database,
+            ChangeFeedHub hub, ChangeSubscription subscription) {
         this.client = c;
         this.urlResolver = urlResolver;
         this.database = database;
+        this.hub = hub;
+        this.subscription = subscription;
     }
 
+    /**
+     * @return the query parameters of the {@code _changes} request.
+     */
+    Map<String, String> feedParameters(String feed, String since) {
+        return feedParameters(subscription, feed, since);
+    }
+
+    /**
+     * @return the query parameters of a {@code _changes} request for the
+     *         given subscription.
+     */
+    static Map<String, String> feedParameters(ChangeSubscription subscription, String feed, String since) {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("feed", feed);
+        params.put("style", "all_docs");
+        params.put("since", since);
+        if (null != subscription.getFilter()) {
+            params.putAll(subscription.getFilterParameters());
+            params.put("filter", subscription.getFilter());
+        } else if (!subscription.getDocIds().isEmpty()) {
+            params.put("filter", "_doc_ids");
+            params.put("doc_ids", JSONArray.fromObject(subscription.getDocIds()).toString());
+        }
+        if (subscription.isIncludeDocs()) {
+            params.put("include_docs", "true");
+        }
+        return params;
+    }
+
+    /**
+     * @return true if there are listeners (i.e. the feed is read).
+     */
+    boolean hasListeners() {
+        return !listener.isEmpty();
+    }
+
+    ChangeFeedStatistics statistics() {
+        return metrics;
+    }
+
+    /**
+     * Every change after this method returned is delivered to the listener.
+     * 
+     * @throws Couch4JException
+     *             if the feed is not running yet and its start sequence
+     *             cannot be requested.
+     */
     void addChangeListener(ChangeListener l) {
-        receiveChangeNotifications();
         listener.add(l);
+        try {
+            receiveChangeNotifications();
+        } catch (RuntimeException e) {
+            listener.remove(l);
+            throw e;
+        }
     }
 
-    private void dispatchEvent(ChangeEvent e) {
-        for (ChangeListener l : listener) {
-            l.onChange(e);
+    private void dispatchEvent(String id, String seq, boolean deleted, List<String> revs, JSONObject doc) {
+        metrics.received(seq);
+        ChangeListener[] listeners = listener.toArray(new ChangeListener[listener.size()]);
+        // Batch listeners report the event as processed once they delivered it
+        int consumers = 1;
+        for (ChangeListener l : listeners) {
+            if (l instanceof BatchingChangeListener) {
+                consumers++;
+            }
+        }
+        ResponseDocument document = null;
+        if (null != doc && !doc.isNullObject()) {
+            document = new ResponseDocument(doc);
+            document.setDatabase(database);
+        }
+        DatabaseChangeEvent e = new DatabaseChangeEvent(id, seq, deleted, revs, document, tracker, tracker.begin(
+                seq, consumers), consumers);
+        ChangeCoalescer c = coalescer;
+        if (null != c) {
+            c.offer(e, listeners);
+        } else {
+            dispatch(e, listeners);
         }
     }
 
-    private void receiveChangeNotifications() {
-        if (receivingChangeNotifications) {
+    private void dispatch(final DatabaseChangeEvent e, final ChangeListener[] listeners) {
+        DispatchLanes l = lanes;
+        if (null == l) {
+            deliver(e, listeners);
+            return;
+        }
+        try {
+            l.execute(e.getId(), new Runnable() {
+                public void run() {
+                    deliver(e, listeners);
+                }
+            });
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliver(DatabaseChangeEvent e, ChangeListener[] listeners) {
+        for (ChangeListener l : listeners) {
+            try {
+                l.onChange(e);
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "ChangeListener " + l + " failed to process " + e, ex);
+            }
+        }
+        metrics.delivered(System.nanoTime() - e.received);
+        e.processed();
+    }
+
+    /**
+     * Dispatch the events on {@code lanes} threads. Events for the same
+     * document are dispatched in order by the same thread.
+     */
+    void enableParallelDispatch(int lanes, int queueCapacity) {
+        DispatchLanes previous;
+        synchronized (this) {
+            previous = this.lanes;
+            this.lanes = new DispatchLanes(lanes, queueCapacity);
+        }
+        if (null != previous) {
+            previous.close();
+        }
+    }
+
+    void disableParallelDispatch() {
+        DispatchLanes previous;
+        synchronized (this) {
+            previous = lanes;
+            lanes = null;
+        }
+        // Not holding the lock, the listeners that are still running might
+        // call back into this service
+        if (null != previous) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Hold back the events for {@code window} and only dispatch the latest
+     * event per document.
+     */
+    void enableCoalescing(long window, TimeUnit unit) {
+        ChangeCoalescer next = new ChangeCoalescer(new ChangeCoalescer.Sink() {
+            public void dispatch(DatabaseChangeEvent event, ChangeListener[] listeners) {
+                DatabaseChangeNotificationService.this.dispatch(event, listeners);
+            }
+        }, window, unit);
+        if (!replaceCoalescer(next)) {
+            next.close();
+        }
+    }
+
+    void disableCoalescing() {
+        replaceCoalescer(null);
+    }
+
+    /**
+     * Flushes the current coalescer before it is replaced. Until it is closed
+     * the feed keeps offering the events to it, an event can therefore not
+     * overtake an older held back event for the same document.
+     * 
+     * @return false if the coalescer was replaced concurrently.
+     */
+    private boolean replaceCoalescer(ChangeCoalescer next) {
+        ChangeCoalescer previous = coalescer;
+        // Not holding the lock, the listeners that are still running might
+        // call back into this service
+        if (null != previous) {
+            previous.close();
+        }
+        synchronized (this) {
+            if (coalescer != previous) {
+                return false;
+            }
+            coalescer = next;
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of events that were dropped in favour of a later
+     *         event for the same document since coalescing was enabled.
+     */
+    long collapsedEvents() {
+        ChangeCoalescer c = coalescer;
+        return null == c ? 0 : c.collapsed();
+    }
+
+    /**
+     * Resume the feed from the sequence stored in {@code store} and store the
+     * processed sequence.
+     */
+    synchronized void enableCheckpointing(SequenceCheckpointStore store, int maxEvents, long interval, TimeUnit unit) {
+        // Validates the arguments before the current checkpointer is dropped
+        Checkpointer next = new Checkpointer(store, maxEvents, interval, unit);
+        disableCheckpointing();
+        checkpointer = next;
+    }
+
+    synchronized void disableCheckpointing() {
+        Checkpointer c = checkpointer;
+        checkpointer = null;
+        if (null != c) {
+            c.close();
+        }
+    }
+
+    private synchronized void receiveChangeNotifications() {
+        if (null != reader || null != poller) {
             return;
         }
         logger.info("[" + Thread.currentThread().getName() + "] Start receiveChangeNotifications()...");
 
-        receivingChangeNotifications = true;
+        // Requested before returning to the caller: a change made right after
+        // the listener has been added must not be missed, e.g. by a cache that
+        // is kept consistent by the listener.
+        String since = initialSeq();
+        if (null != hub) {
+            poller = new HubPoller(since);
+            hub.subscribe(poller);
+            return;
+        }
+        reader = new FeedReader(since);
         executor = Executors.newSingleThreadExecutor();
-        Runnable r = new Runnable() {
-            private void streamChanges(int updateSeq) {
-                if (!receivingChangeNotifications) {
-                    return;
+        executor.submit(reader);
+    }
+
+    void removeChangeListener(ChangeListener l) {
+        listener.remove(l);
+        if (listener.isEmpty()) {
+            stop();
+        }
+    }
+
+    void addChangeListener(BatchChangeListener l, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        BatchingChangeListener batching = new BatchingChangeListener(l, maxBatchSize, maxDelay, unit);
+        try {
+            addChangeListener(batching);
+        } catch (RuntimeException e) {
+            batching.close();
+            throw e;
+        }
+        // The replaced listener is removed after the new one has been added,
+        // the feed must not stop in between
+        BatchingChangeListener previous = batchListener.put(l, batching);
+        if (null != previous) {
+            removeChangeListener(previous);
+            previous.close();
+        }
+    }
+
+    void removeChangeListener(BatchChangeListener l) {
+        BatchingChangeListener batching = batchListener.remove(l);
+        if (null != batching) {
+            removeChangeListener(batching);
+            batching.close();
+        }
+    }
+
+    private synchronized void stop() {
+        if (!listener.isEmpty()) {
+            return;
+        }
+        if (null != poller) {
+            poller.running = false;
+            hub.unsubscribe(poller);
+            poller = null;
+        }
+        if (null == reader) {
+            return;
+        }
+        // unsubscribe
+        reader.stop();
+        reader = null;
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Shutdown executor service...");
+        }
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    /**
+     * @return the checkpoint (if checkpointing is enabled) or the current
+     *         update seq.
+     */
+    private String initialSeq() {
+        Checkpointer c = checkpointer;
+        if (null != c) {
+            String seq = c.load();
+            if (null != seq) {
+                logger.info("Resuming _changes feed from checkpoint " + seq);
+                return seq;
+            }
+        }
+        return String.valueOf(database.getDatabaseInfo().getUpdateSeq());
+    }
+
+    /**
+     * Polls the feed ({@code feed=normal}) on behalf of the {@link ChangeFeedHub}.
+     */
+    private final class HubPoller implements ChangeFeedHub.Poller {
+        private volatile boolean running = true;
+        // Only accessed by the hub, which never polls concurrently
+        private String since;
+
+        HubPoller(String since) {
+            this.since = since;
+        }
+
+        public boolean poll() throws IOException {
+            boolean polled = false;
+            try {
+                boolean changes = pollChanges();
+                polled = true;
+                return changes;
+            } finally {
+                if (!polled && running) {
+                    // The hub polls again after a backoff
+                    metrics.reconnected();
                 }
-                // Do we need the "heartbeat" param?
-                HttpGet method = new HttpGet(urlResolver.urlForPath("_changes", map("feed", "continuous", "style",
-                        "all_docs", "since", String.valueOf(updateSeq), "heartbeat", "5000")));
+            }
+        }
 
-                HttpResponse response = null;
-                HttpEntity entity = null;
-                try {
-                    // int statusCode = client.executeMethod(method);
-                    response = client.execute(method);
-                    entity = response.getEntity();
-                    // Read the response body.
-                    Reader in = new InputStreamReader(entity.getContent(), EntityUtils.getContentCharSet(entity));
-
-                    Scanner s = new Scanner(in).useDelimiter("\n");
-                    String line;
-                    while (s.hasNext() && null != (line = s.next())) {
-                        // dispatch change event
-                        if (line.length() > 1 && JSONUtils.mayBeJSON(line)) {
-                            JSONObject json = JSONObject.fromObject(line);
-                            if (json.has("seq")) {
-                                if (logger.isLoggable(Level.FINE)) {
-                                    logger.fine("Dispatch new change event: " + line);
-                                }
-                                dispatchEvent(new DatabaseChangeEvent(json));
-                            } else if (json.has("last_seq")) {
-                                if (logger.isLoggable(Level.FINE)) {
-                                    logger.fine("CouchDB server closed _changes connection. Reconnecting...");
-                                }
-                                streamChanges(json.getInt("last_seq"));
-                            }
-                        }
+        private boolean pollChanges() throws IOException {
+            Map<String, String> params = feedParameters("normal", since);
+            params.put("limit", String.valueOf(POLL_LIMIT));
+            HttpGet method = new HttpGet(urlResolver.urlForPath("_changes", params));
+            HttpEntity entity = null;
+            try {
+                HttpResponse response = client.execute(method);
+                entity = response.getEntity();
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode != HttpStatus.SC_OK) {
+                    throw new Couch4JException(JSONObject.fromObject(EntityUtils.toString(entity)), statusCode);
+                }
+                String charset = EntityUtils.getContentCharSet(entity);
+                JsonRowReader rows = new JsonRowReader(new InputStreamReader(entity.getContent(),
+                        null == charset ? "UTF-8" : charset), "results");
+                rows.readHeader();
+                int count = 0;
+                JSONObject row;
+                while (running && null != (row = rows.nextRow())) {
+                    count++;
+                    String seq = row.getString("seq");
+                    dispatchEvent(row.getString("id"), seq, row.optBoolean("deleted"), revs(row), row.optJSONObject("doc"));
+                    since = seq;
+                }
+                if (running && null != rows.trailer() && rows.trailer().has("last_seq")) {
+                    since = rows.trailer().getString("last_seq");
+                }
+                return running && count > 0;
+            } catch (JSONException e) {
+                throw new Couch4JException(e);
+            } finally {
+                if (!running) {
+                    method.abort();
+                } else if (null != entity) {
+                    try {
+                        entity.consumeContent();
+                    } catch (IOException e) {
+                        // swallow
                     }
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("[" + Thread.currentThread().getName() + "] Stop receiving changes...");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the revisions of a row of the {@code _changes} response.
+     */
+    static List<String> revs(JSONObject row) {
+        JSONArray changes = row.optJSONArray("changes");
+        if (null == changes) {
+            return Collections.emptyList();
+        }
+        List<String> revs = new ArrayList<String>(changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            revs.add(changes.getJSONObject(i).getString("rev"));
+        }
+        return revs;
+    }
+
+    /**
+     * Reads the continuous feed and reconnects (using a loop rather than
+     * recursion) until it is stopped.
+     */
+    private final class FeedReader implements Runnable {
+        private volatile boolean running = true;
+        private volatile HttpGet currentRequest;
+        private final String initialSeq;
+
+        FeedReader(String initialSeq) {
+            this.initialSeq = initialSeq;
+        }
+
+        public void run() {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("[" + Thread.currentThread().getName() + "] Start receiving changes... ");
+            }
+            long delay = MIN_RECONNECT_DELAY;
+            String since = initialSeq;
+            while (running) {
+                try {
+                    since = streamChanges(since);
+                    delay = MIN_RECONNECT_DELAY;
+                } catch (Exception e) {
+                    if (!running) {
+                        break;
                     }
-                } catch (IOException e) {
-                    throw new Couch4JException(e);
-                } finally {
-                    if (null != entity) {
-                        try {
-                            entity.consumeContent();
-                        } catch (IOException e) {
-                            // swallow
-                        }
+                    metrics.reconnected();
+                    logger.log(Level.WARNING, "Reading the _changes feed failed, reconnecting in " + delay + "ms", e);
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie) {
+                        break;
                     }
+                    delay = Math.min(delay * 2, MAX_RECONNECT_DELAY);
                 }
             }
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("[" + Thread.currentThread().getName() + "] Stop receiving changes...");
+            }
+        }
 
-            public void run() {
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine("[" + Thread.currentThread().getName() + "] Start receiving changes... ");
+        /**
+         * Reads the feed until the server closes it.
+         * 
+         * @return the last received sequence.
+         */
+        private String streamChanges(String since) throws IOException {
+            Map<String, String> params = feedParameters("continuous", since);
+            params.put("heartbeat", "5000");
+            HttpGet method = new HttpGet(urlResolver.urlForPath("_changes", params));
+            currentRequest = method;
+            HttpEntity entity = null;
+            try {
+                HttpResponse response = client.execute(method);
+                entity = response.getEntity();
+                int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode != HttpStatus.SC_OK) {
+                    throw new Couch4JException(JSONObject.fromObject(EntityUtils.toString(entity)), statusCode);
                 }
-                // Start with current udpate seq
-                int updateSeq = database.getDatabaseInfo().getUpdateSeq();
-                streamChanges(updateSeq);
-            }
-        };
-        executor.submit(r);
-    }
 
-    void removeChangeListener(ChangeListener l) {
-        listener.remove(l);
-        if (listener.isEmpty()) {
-            // unsubscribe
-            receivingChangeNotifications = false;
-            if (null != executor) {
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine("Shutdown executor service...");
+                LineFramer lines = new LineFramer(entity.getContent());
+                ChangeLineParser parser = new ChangeLineParser();
+                while (running && lines.next()) {
+                    try {
+                        if (!parser.parse(lines.buffer(), lines.lineStart(), lines.lineLength())) {
+                            continue; // heartbeat
+                        }
+                    } catch (JSONException e) {
+                        logger.log(Level.WARNING, "Skipping invalid _changes line", e);
+                        continue;
+                    }
+                    if (parser.isChange()) {
+                        since = parser.seq();
+                        dispatchEvent(parser.id(), parser.seq(), parser.deleted(), parser.revs(), parser.doc());
+                    } else if (null != parser.lastSeq()) {
+                        if (logger.isLoggable(Level.FINE)) {
+                            logger.fine("CouchDB server closed _changes connection. Reconnecting...");
+                        }
+                        return parser.lastSeq();
+                    }
+                }
+                return since;
+            } finally {
+                currentRequest = null;
+                if (!running) {
+                    method.abort();
+                } else if (null != entity) {
+                    try {
+                        entity.consumeContent();
+                    } catch (IOException e) {
+                        // swallow
+                    }
                 }
-                executor.shutdown();
+            }
+        }
+
+        void stop() {
+            running = false;
+            HttpGet request = currentRequest;
+            if (null != request) {
+                // Unblock the reading thread
+                request.abort();
             }
         }
     }
 
     @Immutable
-    private static class DatabaseChangeEvent implements ChangeEvent {
+    static final class DatabaseChangeEvent implements ChangeEvent {
 
         private final String id;
         private final String seq;
         private final List<String> changeRevs;
         private final boolean deleted;
+        private final Document document;
+        private final SequenceTracker tracker;
+        private final SequenceTracker.Entry entry;
+        private final int consumers;
+        // System.nanoTime() when the event was received
+        final long received = System.nanoTime();
 
-        @SuppressWarnings("unchecked")
-        DatabaseChangeEvent(JSONObject json) {
-            this.id = json.has("id") ? json.getString("id") : null;
-            this.seq = json.has("seq") ? json.getString("seq") : null;
-            this.deleted = json.has("deleted") ? json.getBoolean("deleted") : false;
-            changeRevs = new ArrayList<String>();
-
-            if (json.containsKey("changes")) {
-                for (Iterator<JSONObject> iterator = json.getJSONArray("changes").iterator(); iterator.hasNext();) {
-                    JSONObject rev = iterator.next();
-                    changeRevs.add(rev.getString("rev"));
-                }
+        /**
+         * An event that is not tracked for checkpointing.
+         */
+        DatabaseChangeEvent(String id, String seq, boolean deleted, List<String> changeRevs, Document document) {
+            this(id, seq, deleted, changeRevs, document, null, null, 0);
+        }
+
+        DatabaseChangeEvent(String id, String seq, boolean deleted, List<String> changeRevs, Document document,
+                SequenceTracker tracker, SequenceTracker.Entry entry, int consumers) {
+            this.id = id;
+            this.seq = seq;
+            this.deleted = deleted;
+            this.changeRevs = Collections.unmodifiableList(changeRevs);
+            this.document = document;
+            this.tracker = tracker;
+            this.entry = entry;
+            this.consumers = consumers;
+        }
+
+        /**
+         * Called by every consumer of the event once it has been processed.
+         */
+        void processed() {
+            if (null != tracker) {
+                tracker.done(entry);
+            }
+        }
+
+        /**
+         * Marks the event as processed by all consumers without delivering
+         * it.
+         */
+        void discard() {
+            for (int i = 0; i < consumers; i++) {
+                tracker.done(entry);
             }
         }
 
         public List<String> changeRevs() {
-            return Collections.unmodifiableList(changeRevs);
+            return changeRevs;
         }
 
         public String getId() {
@@ -213,6 +705,10 @@ final class DatabaseChangeNotificationService {
             return deleted;
         }
 
+        public Document getDocument() {
+            return document;
+        }
+
         @Override
         public String toString() {
             return "DatabaseChangeEvent [changeRevs=" + changeRevs + ", deleted=" + deleted + ", id=" + id + ", seq="
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.AsynchronousDatabase.AsyncToken;
+import org.couch4j.api.AsynchronousDatabase.ResponseHandler;
+import org.couch4j.api.DatabaseFuture;
+import org.couch4j.exceptions.Couch4JException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link FutureTask} that notifies {@link ResponseHandler}s once it
+ * completed.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class DatabaseFutureTask<T> extends FutureTask<T> implements DatabaseFuture<T> {
+
+    private final static Logger logger = LoggerFactory.getLogger(DatabaseFutureTask.class);
+
+    // Guarded by this, null once the handlers have been notified
+    private List<ResponseHandler<? super T>> handlers = new ArrayList<ResponseHandler<? super T>>(1);
+
+    DatabaseFutureTask(Callable<T> callable) {
+        super(callable);
+    }
+
+    /**
+     * @return a future that is completed using {@link #complete(Object)} or
+     *         {@link #fail(Throwable)} (and must not be run).
+     */
+    static <T> DatabaseFutureTask<T> create() {
+        return new DatabaseFutureTask<T>(new Callable<T>() {
+            public T call() {
+                throw new IllegalStateException("The future has to be completed explicitly");
+            }
+        });
+    }
+
+    void complete(T result) {
+        set(result);
+    }
+
+    void fail(Throwable t) {
+        setException(t);
+    }
+
+    @Override
+    protected void done() {
+        List<ResponseHandler<? super T>> h;
+        synchronized (this) {
+            h = handlers;
+            handlers = null;
+        }
+        for (ResponseHandler<? super T> handler : h) {
+            notify(handler);
+        }
+    }
+
+    public void addHandler(ResponseHandler<? super T> handler) {
+        if (null == handler) {
+            throw new IllegalArgumentException("handler must not be null");
+        }
+        synchronized (this) {
+            if (null != handlers) {
+                handlers.add(handler);
+                return;
+            }
+        }
+        notify(handler);
+    }
+
+    public <R> DatabaseFuture<R> transform(final Transformer<? super T, ? extends R> transformer) {
+        final DatabaseFutureTask<R> transformed = create();
+        addHandler(new ResponseHandler<T>() {
+            public void completed(T response, AsyncToken token) {
+                try {
+                    transformed.complete(transformer.apply(response));
+                } catch (Exception e) {
+                    transformed.fail(e);
+                }
+            }
+
+            public void failed(Exception e) {
+                transformed.fail(e);
+            }
+        });
+        return transformed;
+    }
+
+    private void notify(ResponseHandler<? super T> handler) {
+        T result;
+        try {
+            result = get();
+        } catch (ExecutionException e) {
+            failed(handler, e.getCause() instanceof Exception ? (Exception) e.getCause() : new Couch4JException(e
+                    .getCause()));
+            return;
+        } catch (CancellationException e) {
+            failed(handler, e);
+            return;
+        } catch (InterruptedException e) {
+            // Not possible, the task is done
+            Thread.currentThread().interrupt();
+            failed(handler, e);
+            return;
+        }
+        try {
+            handler.completed(result, this);
+        } catch (RuntimeException e) {
+            logger.warn("ResponseHandler " + handler + " failed", e);
+        }
+    }
+
+    private static void failed(ResponseHandler<?> handler, Exception e) {
+        try {
+            handler.failed(e);
+        } catch (RuntimeException ex) {
+            logger.warn("ResponseHandler " + handler + " failed", ex);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.couch4j.api.AsynchronousDatabase.AsyncToken;
+import org.couch4j.api.AsynchronousDatabase.ResponseHandler;
+import org.couch4j.api.DatabaseFuture;
+
+/**
+ * Utility methods for {@link DatabaseFuture}s.
+ * 
+ * @author Stefan Saasen
+ */
+public final class DatabaseFutures {
+
+    private DatabaseFutures() {
+        throw new AssertionError("DatabaseFutures should not be instantiated");
+    }
+
+    /**
+     * Joins the given futures without blocking a thread.
+     * 
+     * @return a future for the results of all {@code futures} (in the order
+     *         of the collection). It fails as soon as one of the futures
+     *         fails.
+     */
+    public static <T> DatabaseFuture<List<T>> allOf(Collection<? extends DatabaseFuture<? extends T>> futures) {
+        final DatabaseFutureTask<List<T>> all = DatabaseFutureTask.create();
+        if (futures.isEmpty()) {
+            all.complete(Collections.<T> emptyList());
+            return all;
+        }
+        final Object[] results = new Object[futures.size()];
+        final AtomicInteger remaining = new AtomicInteger(results.length);
+        int i = 0;
+        for (DatabaseFuture<? extends T> future : new ArrayList<DatabaseFuture<? extends T>>(futures)) {
+            final int index = i++;
+            future.addHandler(new ResponseHandler<T>() {
+                @SuppressWarnings("unchecked")
+                public void completed(T response, AsyncToken token) {
+                    results[index] = response;
+                    if (remaining.decrementAndGet() == 0) {
+                        all.complete((List<T>) Arrays.asList(results));
+                    }
+                }
+
+                public void failed(Exception e) {
+                    // Only the first failure completes the future
+                    all.fail(e);
+                }
+            });
+        }
+        return all;
+    }
+}
@@ -24,35 +24,55 @@
 package org.couch4j.http;
 
 import static org.couch4j.util.CollectionUtils.map;
+import static org.couch4j.util.CollectionUtils.partition;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import net.sf.json.JSONArray;
 import net.sf.json.JSONException;
 import net.sf.json.JSONObject;
 import net.sf.json.JsonConfig;
 import net.sf.json.util.PropertySetStrategy;
 
 import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.StringEntity;
-import org.couch4j.api.AsynchronousDatabase;
 import org.couch4j.api.Attachment;
+import org.couch4j.api.CacheStatistics;
+import org.couch4j.api.ChangeFeedStatistics;
+import org.couch4j.api.ChangeSubscription;
 import org.couch4j.api.CouchDbClient;
 import org.couch4j.api.Database;
 import org.couch4j.api.DatabaseInfo;
 import org.couch4j.api.Document;
+import org.couch4j.api.FutureDatabase;
 import org.couch4j.api.JsonExportable;
+import org.couch4j.api.Publisher;
+import org.couch4j.api.SequenceCheckpointStore;
 import org.couch4j.api.ServerResponse;
+import org.couch4j.api.StreamingViewResult;
 import org.couch4j.api.ViewQuery;
 import org.couch4j.api.ViewResult;
+import org.couch4j.api.ViewResultRow;
 import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.exceptions.Couch4JException;
 import org.couch4j.exceptions.DocumentNotFoundException;
+import org.couch4j.exceptions.DocumentUpdateConflictException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,26 +84,74 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
 
     private static final String UTF_8 = "UTF-8";
 
+    /**
+     * Default number of documents per {@code _bulk_docs} request.
+     */
+    static final int DEFAULT_BULK_CHUNK_SIZE = 1000;
+
+    /**
+     * Maximum number of keys per {@code _all_docs} request.
+     */
+    static final int FETCH_CHUNK_SIZE = 500;
+
+    /**
+     * Maximum time in milliseconds to wait for the connection of a view
+     * partition (unless a shorter connection lease timeout is configured).
+     */
+    static final long PARTITION_LEASE_TIMEOUT = 5000;
+
     private final static Logger logger = LoggerFactory.getLogger(Database.class);
 
     private final HttpConnectionManager client;
     private final String name;
 
     private DatabaseChangeNotificationService changesService;
+    private final ChangeFeedHub changeFeedHub;
+    // The feeds of the filtered subscriptions, guarded by itself
+    private final Map<ChangeSubscription, DatabaseChangeNotificationService> filteredChanges =
+            new HashMap<ChangeSubscription, DatabaseChangeNotificationService>();
     private final UrlBuilder urlResolver;
     private final CouchDbClient couchDb;
 
-    private AsynchronousDatabase asyncDatabase;
+    private AsyncDatabaseImpl asyncDatabase;
+
+    private volatile WriteBatcher writeBatcher;
+
+    private volatile DocumentCache documentCache;
+    private ChangeListener documentCacheInvalidator;
+
+    private final InFlightRequests inFlight = new InFlightRequests();
+
+    private volatile ViewResultCache viewCache;
+    private ChangeListener viewCacheListener;
 
     private final JsonConfig config;
 
     public DatabaseImpl(CouchDbClient couchDb, HttpConnectionManager ht, String databaseName) {
+        this(couchDb, ht, databaseName, null, null, null);
+    }
+
+    /**
+     * @param hub
+     *            The hub polling the {@code _changes} feed or null to read the
+     *            feed on a dedicated thread.
+     * @param transport
+     *            The non-blocking transport for the asynchronous requests or
+     *            null to execute them on a thread pool.
+     * @param executor
+     *            The (shared) executor for the asynchronous operations or null
+     *            to use a small pool owned by this database.
+     */
+    DatabaseImpl(CouchDbClient couchDb, HttpConnectionManager ht, String databaseName, ChangeFeedHub hub,
+            NioHttpTransport transport, Executor executor) {
         this.couchDb = couchDb;
         this.client = ht;
         this.name = databaseName;
 
         this.urlResolver = new UrlBuilder(couchDb, databaseName);
-        changesService = new DatabaseChangeNotificationService(ht.getHttpClient(), urlResolver, this);
+        this.changeFeedHub = hub;
+        changesService = new DatabaseChangeNotificationService(ht.getHttpClient(), urlResolver, this, hub,
+                ChangeSubscription.ALL);
 
         // Check if the database exists, create if not
         try {
@@ -118,29 +186,173 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
             }
         });
 
-        this.asyncDatabase = new AsyncDatabaseImpl(this);
+        this.asyncDatabase = new AsyncDatabaseImpl(this, transport, executor);
     }
 
     public void addChangeListener(ChangeListener listener) {
         changesService.addChangeListener(listener);
     }
 
+    public void addChangeListener(ChangeListener listener, ChangeSubscription subscription) {
+        synchronized (filteredChanges) {
+            changesFor(subscription).addChangeListener(listener);
+        }
+    }
+
+    public void addChangeListener(BatchChangeListener listener, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        changesService.addChangeListener(listener, maxBatchSize, maxDelay, unit);
+    }
+
+    public void addChangeListener(BatchChangeListener listener, ChangeSubscription subscription, int maxBatchSize,
+            long maxDelay, TimeUnit unit) {
+        synchronized (filteredChanges) {
+            changesFor(subscription).addChangeListener(listener, maxBatchSize, maxDelay, unit);
+        }
+    }
+
+    public void removeChangeListener(BatchChangeListener listener) {
+        changesService.removeChangeListener(listener);
+        synchronized (filteredChanges) {
+            for (DatabaseChangeNotificationService service : filteredChanges.values()) {
+                service.removeChangeListener(listener);
+            }
+            removeUnusedFeeds();
+        }
+    }
+
+    /**
+     * @return the (shared) feed for the subscription. Has to be called while
+     *         holding the lock on {@link #filteredChanges}.
+     */
+    private DatabaseChangeNotificationService changesFor(ChangeSubscription subscription) {
+        if (null == subscription) {
+            throw new IllegalArgumentException("subscription must not be null");
+        }
+        if (ChangeSubscription.ALL.equals(subscription)) {
+            return changesService;
+        }
+        DatabaseChangeNotificationService service = filteredChanges.get(subscription);
+        if (null == service) {
+            service = new DatabaseChangeNotificationService(client.getHttpClient(), urlResolver, this,
+                    changeFeedHub, subscription);
+            filteredChanges.put(subscription, service);
+        }
+        return service;
+    }
+
+    private void removeUnusedFeeds() {
+        for (Iterator<DatabaseChangeNotificationService> it = filteredChanges.values().iterator(); it.hasNext();) {
+            if (!it.next().hasListeners()) {
+                it.remove();
+            }
+        }
+    }
+
+    public void enableCheckpointing(SequenceCheckpointStore store, int maxEvents, long interval, TimeUnit unit) {
+        changesService.enableCheckpointing(store, maxEvents, interval, unit);
+    }
+
+    public void disableCheckpointing() {
+        changesService.disableCheckpointing();
+    }
+
+    public void enableParallelDispatch(int lanes, int queueCapacity) {
+        changesService.enableParallelDispatch(lanes, queueCapacity);
+    }
+
+    public void disableParallelDispatch() {
+        changesService.disableParallelDispatch();
+    }
+
+    public void enableChangeCoalescing(long window, TimeUnit unit) {
+        changesService.enableCoalescing(window, unit);
+    }
+
+    public void disableChangeCoalescing() {
+        changesService.disableCoalescing();
+    }
+
+    public long getCollapsedChangeCount() {
+        return changesService.collapsedEvents();
+    }
+
+    public ChangeFeedStatistics getChangeFeedStatistics() {
+        return changesService.statistics();
+    }
+
+    public Publisher<ViewResultRow> publishView(ViewQuery v) {
+        return new ViewRowPublisher(this, v, asyncDatabase.executor());
+    }
+
+    public Publisher<ChangeEvent> publishChanges(ChangeSubscription subscription, String since) {
+        if (null == subscription) {
+            throw new IllegalArgumentException("subscription must not be null");
+        }
+        return new ChangeEventPublisher(client.getHttpClient(), this, subscription, since);
+    }
+
     /*
      * (non-Javadoc)
      * @see org.couch4j.api.Database#bulkSave(java.util.Collection)
      */
-    public ServerResponse bulkSave(Collection<Document> docs) {
-        throw new UnsupportedOperationException("Implement!");
+    public List<ServerResponse> bulkSave(Collection<Document> docs) {
+        return this.bulkSave(docs, DEFAULT_BULK_CHUNK_SIZE);
+    }
+
+    public List<ServerResponse> bulkSave(Collection<Document> docs, int chunkSize) {
+        List<Callable<List<ServerResponse>>> requests = new ArrayList<Callable<List<ServerResponse>>>();
+        for (final List<Document> chunk : partition(new ArrayList<Document>(docs), chunkSize)) {
+            requests.add(new Callable<List<ServerResponse>>() {
+                public List<ServerResponse> call() {
+                    return bulkSaveChunk(chunk);
+                }
+            });
+        }
+        // The chunks are sent in parallel using the connection pool
+        List<ServerResponse> responses = new ArrayList<ServerResponse>(docs.size());
+        for (List<ServerResponse> chunkResponses : ParallelTasks.invokeAll(asyncDatabase.executor(), requests)) {
+            responses.addAll(chunkResponses);
+        }
+        return responses;
+    }
+
+    private List<ServerResponse> bulkSaveChunk(List<Document> docs) {
+        JSONArray json = new JSONArray();
+        for (Document doc : docs) {
+            json.add(doc.toJSONObject());
+        }
+        JSONArray results = bulkDocs(json);
+        List<ServerResponse> responses = new ArrayList<ServerResponse>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ServerResponse response = JsonServerResponse.fromJson(results.getJSONObject(i));
+            if (response.isOk()) {
+                Document doc = docs.get(i);
+                doc.put("_id", response.getId());
+                doc.put("_rev", response.getRev());
+            }
+            responses.add(response);
+        }
+        return responses;
     }
 
     public ServerResponse delete() {
-        return client.delete(urlResolver.baseUrl());
+        ServerResponse response = client.delete(urlResolver.baseUrl());
+        inFlight.clear();
+        DocumentCache cache = this.documentCache;
+        if (null != cache) {
+            cache.clear();
+        }
+        ViewResultCache views = this.viewCache;
+        if (null != views) {
+            views.written();
+        }
+        return response;
     }
 
     public ServerResponse deleteDocument(Document doc) {
         final String id = doc.getId();
         final String rev = doc.getRev();
-        ServerResponse response = client.delete(urlResolver.urlForPath(id, map("rev", rev)));
+        ServerResponse response = written(client.delete(urlResolver.urlForPath(id, map("rev", rev))));
         doc.put("_id", id);
         doc.put("_rev", response.getRev());
         return response;
@@ -159,7 +371,7 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
     }
 
     public ViewResult fetchAllDocuments(boolean includeDocs) {
-        return new JsonViewResult(jsonForPath(ViewQuery.builder("_all_docs").includeDocs(true).build().toString()), this);
+        return fetchView(ViewQuery.builder("_all_docs").includeDocs(includeDocs).build());
     }
 
     /*
@@ -167,37 +379,208 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
      * @see org.couch4j.api.Database#fetchDocument(java.lang.String)
      */
     public Document fetchDocument(String docId) {
-        String url = urlForPath(docId);
-        ResponseDocument d = new ResponseDocument(this.client.jsonGet(url));
+        ResponseDocument d = new ResponseDocument(jsonForDocument(docId));
         d.setDatabase(this);
         return d;
     }
 
     public Document fetchDocument(String docId, String rev) {
         String url = urlForPath(docId, map("rev", rev));
-        ResponseDocument d = new ResponseDocument(this.client.jsonGet(url));
+        ResponseDocument d = new ResponseDocument(jsonGet(url));
         d.setDatabase(this);
         return d;
     }
 
+    public List<Document> fetchDocuments(Collection<String> docIds) {
+        List<Callable<List<Document>>> requests = new ArrayList<Callable<List<Document>>>();
+        for (final List<String> chunk : partition(new ArrayList<String>(docIds), FETCH_CHUNK_SIZE)) {
+            requests.add(new Callable<List<Document>>() {
+                public List<Document> call() {
+                    return fetchDocumentsChunk(chunk);
+                }
+            });
+        }
+        List<Document> documents = new ArrayList<Document>(docIds.size());
+        for (List<Document> chunkDocuments : ParallelTasks.invokeAll(asyncDatabase.executor(), requests)) {
+            documents.addAll(chunkDocuments);
+        }
+        return documents;
+    }
+
+    private List<Document> fetchDocumentsChunk(List<String> docIds) {
+        JSONObject body = new JSONObject();
+        body.put("keys", JSONArray.fromObject(docIds));
+        JSONObject json = client.jsonPost(urlForPath("_all_docs", map("include_docs", "true")),
+                jsonEntity(body.toString()));
+
+        // CouchDB returns one row per key in the order of the request
+        JSONArray rows = json.getJSONArray("rows");
+        List<Document> documents = new ArrayList<Document>(docIds.size());
+        for (int i = 0; i < rows.size(); i++) {
+            Object doc = rows.getJSONObject(i).get("doc");
+            if (doc instanceof JSONObject && !((JSONObject) doc).isNullObject()) {
+                ResponseDocument d = new ResponseDocument((JSONObject) doc);
+                d.setDatabase(this);
+                documents.add(d);
+            } else {
+                // Missing ("error": "not_found") or deleted document
+                documents.add(null);
+            }
+        }
+        return documents;
+    }
+
     @SuppressWarnings("unchecked")
     public <T> T fetchObject(String docId, Class<T> clazz) {
+        return (T) JSONObject.toBean(jsonForDocument(docId), clazz);
+    }
+
+    /**
+     * @return the latest revision of the document, either from the document
+     *         cache (if enabled) or the server.
+     */
+    private JSONObject jsonForDocument(String docId) {
         String url = urlForPath(docId);
-        return (T) JSONObject.toBean(this.client.jsonGet(url), clazz);
+        DocumentCache cache = this.documentCache;
+        if (null == cache) {
+            return jsonGet(url);
+        }
+        String cached = cache.get(docId);
+        if (null != cached) {
+            return JSONObject.fromObject(cached);
+        }
+        long generation = cache.generation();
+        JSONObject json = jsonGet(url);
+        cache.put(docId, json.toString(), generation);
+        return json;
+    }
+
+    /**
+     * Drops the document of a successful write operation from the document
+     * cache and marks cached view results for revalidation.
+     */
+    ServerResponse written(ServerResponse response) {
+        inFlight.clear();
+        DocumentCache cache = this.documentCache;
+        if (null != cache && null != response.getId()) {
+            cache.invalidate(response.getId());
+        }
+        ViewResultCache views = this.viewCache;
+        if (null != views) {
+            views.written();
+        }
+        return response;
     }
 
     @SuppressWarnings("unchecked")
     public <T> T fetchObject(String docId, String rev, Class<T> clazz) {
         String url = urlForPath(docId, map("rev", rev));
-        return (T) JSONObject.toBean(this.client.jsonGet(url), clazz);
+        return (T) JSONObject.toBean(jsonGet(url), clazz);
     }
 
     public ViewResult fetchView(ViewQuery v) {
-        return new JsonViewResult(jsonForPath(v.queryString()), this);
+        ViewResultCache cache = this.viewCache;
+        if (null == cache) {
+            return new JsonViewResult(jsonForPath(v.queryString()), this);
+        }
+        return new JsonViewResult(cachedView(cache, v), this);
+    }
+
+    private JSONObject cachedView(final ViewResultCache cache, final ViewQuery v) {
+        final String query = v.queryString();
+        long seq = cache.updateSeq();
+        if (seq < 0) {
+            long writes = cache.writes();
+            seq = getDatabaseInfo().getUpdateSeq();
+            cache.refreshUpdateSeq(seq, writes);
+        }
+
+        ViewResultCache.Entry cached = cache.get(query);
+        if (null != cached) {
+            if (cached.getSeq() >= seq) {
+                cache.hit();
+                return JSONObject.fromObject(cached.getJson());
+            }
+            if (v.isStale()) {
+                // The caller accepts stale results anyway
+                cache.hit();
+                refreshView(cache, query, seq);
+                return JSONObject.fromObject(cached.getJson());
+            }
+        }
+        cache.miss();
+        JSONObject json = jsonForPath(query);
+        cache.put(query, seq, json.toString());
+        return json;
+    }
+
+    private void refreshView(final ViewResultCache cache, final String query, final long seq) {
+        if (!cache.startRefresh(query)) {
+            return;
+        }
+        try {
+            asyncDatabase.executor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        cache.put(query, seq, jsonForPath(query).toString());
+                    } catch (Couch4JException e) {
+                        logger.warn("Failed to refresh view " + query, e);
+                    } finally {
+                        cache.refreshed(query);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Saturated - the next request revalidates the view
+            cache.refreshed(query);
+        }
+    }
+
+    public Iterator<ViewResultRow> scanView(ViewQuery v, int pageSize) {
+        return new ViewScanIterator(asyncDatabase.futures(), v, pageSize);
+    }
+
+    public List<Object> sampleSplitKeys(ViewQuery v, int partitions) {
+        return PartitionedViewScan.sampleSplitKeys(asyncDatabase.futures(), v, partitions);
+    }
+
+    public List<StreamingViewResult> streamPartitions(ViewQuery v, List<?> splitKeys) {
+        List<HttpGet> methods = new ArrayList<HttpGet>();
+        for (ViewQuery partition : PartitionedViewScan.partitions(v, splitKeys)) {
+            methods.add(new HttpGet(urlForPath(partition.queryString())));
+        }
+        int max = client.maxConnections(methods.get(0));
+        if (methods.size() > max) {
+            throw new IllegalArgumentException("Reading " + methods.size()
+                    + " partitions requires as many pooled connections but only " + max + " are allowed");
+        }
+        List<StreamingViewResult> partitions = new ArrayList<StreamingViewResult>();
+        try {
+            for (HttpGet method : methods) {
+                // Connections held by other streams may still exhaust the pool
+                partitions.add(new JsonStreamingViewResult(method, client.executeForStream(method,
+                        PARTITION_LEASE_TIMEOUT), this));
+            }
+        } catch (RuntimeException e) {
+            for (StreamingViewResult partition : partitions) {
+                partition.close();
+            }
+            throw e;
+        }
+        return partitions;
+    }
+
+    public StreamingViewResult streamPartitionsMerged(ViewQuery v, List<?> splitKeys) {
+        return new MergedViewResult(streamPartitions(v, splitKeys));
+    }
+
+    public StreamingViewResult streamView(ViewQuery v) {
+        HttpGet method = new HttpGet(urlForPath(v.queryString()));
+        return new JsonStreamingViewResult(method, client.executeForStream(method), this);
     }
 
     public DatabaseInfo getDatabaseInfo() {
-        final JSONObject json = client.jsonGet(urlResolver.baseUrl());
+        final JSONObject json = jsonGet(urlResolver.baseUrl());
 
         /*
          * {"db_name":"couch4j","doc_count":9,"doc_del_count":7,"update_seq":65,
@@ -250,8 +633,18 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
         return name;
     }
 
+    public FutureDatabase async() {
+        return asyncDatabase.futures();
+    }
+
     public void removeChangeListener(ChangeListener listener) {
         changesService.removeChangeListener(listener);
+        synchronized (filteredChanges) {
+            for (DatabaseChangeNotificationService service : filteredChanges.values()) {
+                service.removeChangeListener(listener);
+            }
+            removeUnusedFeeds();
+        }
     }
 
     private ServerResponse saveDocument(Document doc) {
@@ -270,9 +663,9 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
 
         ServerResponse response;
         if (null == doc.getId()) {
-            response = client.post(urlResolver.baseUrl(), entity);
+            response = written(client.post(urlResolver.baseUrl(), entity));
         } else {
-            response = client.put(urlForPath(doc.getId()), entity);
+            response = written(client.put(urlForPath(doc.getId()), entity));
         }
 
         doc.put("_id", response.getId());
@@ -282,6 +675,11 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
 
     public ServerResponse saveDocument(Object obj) {
 
+        WriteBatcher batcher = this.writeBatcher;
+        if (null != batcher) {
+            return saveDocument(batcher, obj);
+        }
+
         if (obj instanceof Document) {
             return this.saveDocument((Document) obj);
         }
@@ -290,13 +688,114 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
         try {
             StringEntity e = new StringEntity(json.toString(), UTF_8);
             e.setContentType("application/json");
-            return client.post(urlResolver.baseUrl(), e);
+            return written(client.post(urlResolver.baseUrl(), e));
         } catch (UnsupportedEncodingException e) {
             throw new AssertionError(e); // Should not happen as UTF-8 is
             // supported on every JVM
         }
     }
 
+    private ServerResponse saveDocument(WriteBatcher batcher, Object obj) {
+        JSONObject json;
+        if (obj instanceof JsonExportable) {
+            json = ((JsonExportable) obj).toJSONObject();
+        } else {
+            json = JSONObject.fromObject(obj);
+        }
+
+        JSONObject result = batcher.save(json);
+        ServerResponse response = JsonServerResponse.fromJson(result);
+        if (!response.isOk()) {
+            if ("conflict".equals(response.getError())) {
+                throw new DocumentUpdateConflictException(result);
+            }
+            throw new Couch4JException(result);
+        }
+        if (obj instanceof Document) {
+            Document doc = (Document) obj;
+            doc.put("_id", response.getId());
+            doc.put("_rev", response.getRev());
+        }
+        return response;
+    }
+
+    public void enableWriteBatching(int maxBatchSize, long maxDelay, TimeUnit unit) {
+        this.writeBatcher = new WriteBatcher(this, maxBatchSize, maxDelay, unit);
+    }
+
+    public void disableWriteBatching() {
+        this.writeBatcher = null;
+    }
+
+    boolean writeBatchingEnabled() {
+        return null != writeBatcher;
+    }
+
+    public synchronized void enableDocumentCache(long maxSize) {
+        disableDocumentCache();
+        final DocumentCache cache = new DocumentCache(maxSize);
+        documentCacheInvalidator = new ChangeListener() {
+            public void onChange(ChangeEvent event) {
+                cache.invalidate(event.getId());
+            }
+        };
+        changesService.addChangeListener(documentCacheInvalidator);
+        this.documentCache = cache;
+    }
+
+    public synchronized void disableDocumentCache() {
+        if (null != documentCacheInvalidator) {
+            changesService.removeChangeListener(documentCacheInvalidator);
+            documentCacheInvalidator = null;
+        }
+        this.documentCache = null;
+    }
+
+    public CacheStatistics getDocumentCacheStatistics() {
+        return documentCache;
+    }
+
+    /**
+     * @return the document cache or null if it is disabled.
+     */
+    DocumentCache documentCache() {
+        return documentCache;
+    }
+
+    public synchronized void enableViewCache(long maxSize) {
+        disableViewCache();
+        final ViewResultCache cache = new ViewResultCache(maxSize);
+        viewCacheListener = new ChangeListener() {
+            public void onChange(ChangeEvent event) {
+                try {
+                    cache.updateSeq(Long.parseLong(event.getSeq()));
+                } catch (NumberFormatException e) {
+                    // Unknown sequence format, revalidate using the database
+                    // info
+                    cache.written();
+                }
+            }
+        };
+        changesService.addChangeListener(viewCacheListener);
+        this.viewCache = cache;
+    }
+
+    public synchronized void disableViewCache() {
+        if (null != viewCacheListener) {
+            changesService.removeChangeListener(viewCacheListener);
+            viewCacheListener = null;
+        }
+        this.viewCache = null;
+    }
+
+    public CacheStatistics getViewCacheStatistics() {
+        return viewCache;
+    }
+
+    boolean viewCacheEnabled() {
+        return null != viewCache;
+    }
+
     @Override
     public ServerResponse saveDocument(String documentId, Object obj) {
         StringEntity entity;
@@ -312,7 +811,7 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
         } catch (UnsupportedEncodingException e) {
             throw new AssertionError(e);
         }
-        return client.put(urlForPath(documentId), entity);
+        return written(client.put(urlForPath(documentId), entity));
     }
 
     @Override
@@ -324,16 +823,88 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
         this.client.withAttachmentAsStream(urlResolver.urlForPath("/" + a.getDocumentId() + "/" + a.getName()), ctx);
     }
 
-    private String jsonForPath(final String path) {
-        return client.jsonGet(urlForPath(path)).toString();
+    /**
+     * POST the given documents to {@code _bulk_docs}.
+     * 
+     * @return the results in the order of the given documents.
+     */
+    JSONArray bulkDocs(JSONArray docs) {
+        JSONObject body = new JSONObject();
+        body.put("docs", docs);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("_bulk_docs request with {} documents", docs.size());
+        }
+        JSONArray results = client.jsonArrayPost(urlForPath("_bulk_docs"), jsonEntity(body.toString()));
+        inFlight.clear();
+        ViewResultCache views = this.viewCache;
+        if (null != views) {
+            views.written();
+        }
+        DocumentCache cache = this.documentCache;
+        if (null != cache) {
+            for (int i = 0; i < results.size(); i++) {
+                JSONObject result = results.getJSONObject(i);
+                if (result.has("id")) {
+                    cache.invalidate(result.getString("id"));
+                }
+            }
+        }
+        return results;
+    }
+
+    private static StringEntity jsonEntity(String json) {
+        try {
+            StringEntity entity = new StringEntity(json, UTF_8);
+            entity.setContentType("application/json");
+            return entity;
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); // UTF-8 is supported on every JVM
+        }
+    }
+
+    private JSONObject jsonForPath(final String path) {
+        return jsonGet(urlForPath(path));
+    }
+
+    /**
+     * GET request that shares the response with identical concurrent
+     * requests.
+     */
+    private JSONObject jsonGet(final String url) {
+        return inFlight.get(url, new Callable<JSONObject>() {
+            public JSONObject call() {
+                return client.jsonGet(url);
+            }
+        });
+    }
+
+    /**
+     * @return the {@code GET} requests in flight, shared by the blocking and
+     *         the non-blocking requests.
+     */
+    InFlightRequests inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return true if {@code GET} requests are revalidated using the
+     *         {@code ETag} cache of the client.
+     */
+    boolean conditionalRequestsEnabled() {
+        return null != client.etagCacheStatistics();
+    }
+
+    String baseUrl() {
+        return urlResolver.baseUrl();
     }
 
-    private String urlForPath(final String path) {
+    String urlForPath(final String path) {
         Map<String, String> p = Collections.emptyMap();
         return urlResolver.urlForPath(path, p);
     }
 
-    private String urlForPath(final String path, Map<String, String> params) {
+    String urlForPath(final String path, Map<String, String> params) {
         return urlResolver.urlForPath(path, params);
     }
 
@@ -343,7 +914,7 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
 
     // ~~ ======================== AsyncDatabase ========================
 
-    public void bulkSave(Collection<Document> docs, ResponseHandler<ServerResponse> response) {
+    public void bulkSave(Collection<Document> docs, ResponseHandler<List<ServerResponse>> response) {
         asyncDatabase.bulkSave(docs, response);
     }
 
@@ -375,6 +946,10 @@ final class DatabaseImpl implements Database, JsonAwareDatabase {
         asyncDatabase.fetchDocument(docId, rev, response);
     }
 
+    public void fetchDocuments(Collection<String> docIds, ResponseHandler<List<Document>> response) {
+        asyncDatabase.fetchDocuments(docIds, response);
+    }
+
     public void storeAttachment(String documentId, String attachmentName, InputStream is,
             ResponseHandler<ServerResponse> response) {
         asyncDatabase.storeAttachment(documentId, attachmentName, is, response);
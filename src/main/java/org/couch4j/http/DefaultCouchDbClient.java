@@ -27,10 +27,12 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import net.sf.json.JSONArray;
 
 import org.couch4j.api.ViewQuery;
+import org.couch4j.api.CacheStatistics;
 import org.couch4j.api.CouchDbClient;
 import org.couch4j.api.Database;
 import org.couch4j.annotations.ThreadSafe;
@@ -39,21 +41,428 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Main entry point for clients...
+ * <p>
+ * Use the {@link CouchDbClientBuilder} to configure the connection pool that
+ * is shared by all {@link Database} instances of a client:
+ * 
+ * <pre>
+ * CouchDbClient couch = DefaultCouchDbClient.builder().host(&quot;abc.example.com&quot;).maxConnectionsPerRoute(64)
+ *         .socketTimeout(30000).build();
+ * </pre>
  * 
  * @author Stefan Saasen
  */
 @ThreadSafe
 public final class DefaultCouchDbClient implements CouchDbClient {
 
+    /**
+     * What happens to an asynchronous request if all threads are busy and the
+     * queue of the executor is full.
+     */
+    public static enum RejectionPolicy {
+        /**
+         * The future of the request fails with a
+         * {@link java.util.concurrent.RejectedExecutionException}.
+         */
+        FAIL,
+        /**
+         * The request is executed by the calling thread, which slows the
+         * caller down.
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * Builder for {@link DefaultCouchDbClient} instances.
+     * <p>
+     * All timeouts are in milliseconds. A timeout of 0 means no timeout.
+     */
+    public static final class CouchDbClientBuilder {
+        private String host = DEFAULT_HOST;
+        private int port = DEFAULT_PORT;
+        private int maxTotalConnections = HttpConnectionManager.DEFAULT_MAX_TOTAL_CONNECTIONS;
+        private int maxConnectionsPerRoute = HttpConnectionManager.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private int connectTimeout;
+        private int socketTimeout;
+        private long connectionLeaseTimeout;
+        private boolean tcpNoDelay = true;
+        private long keepAlive = -1;
+        private long evictionInterval = HttpConnectionManager.DEFAULT_EVICTION_INTERVAL;
+        private long maxIdleTime = HttpConnectionManager.DEFAULT_MAX_IDLE_TIME;
+        private int warmUpConnections;
+        private long etagCacheSize;
+        private int changeFeedThreads;
+        private long changeFeedPollInterval = DEFAULT_CHANGE_FEED_POLL_INTERVAL;
+        private int ioThreads;
+        private int ioConnections = DEFAULT_IO_CONNECTIONS;
+        private int asyncThreads = DEFAULT_ASYNC_THREADS;
+        private int asyncQueueCapacity = DEFAULT_ASYNC_QUEUE_CAPACITY;
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+        private boolean virtualThreads;
+        private ExecutorService asyncExecutor;
+
+        CouchDbClientBuilder() {
+        }
+
+        private CouchDbClientBuilder(CouchDbClientBuilder other) {
+            this.host = other.host;
+            this.port = other.port;
+            this.maxTotalConnections = other.maxTotalConnections;
+            this.maxConnectionsPerRoute = other.maxConnectionsPerRoute;
+            this.connectTimeout = other.connectTimeout;
+            this.socketTimeout = other.socketTimeout;
+            this.connectionLeaseTimeout = other.connectionLeaseTimeout;
+            this.tcpNoDelay = other.tcpNoDelay;
+            this.keepAlive = other.keepAlive;
+            this.evictionInterval = other.evictionInterval;
+            this.maxIdleTime = other.maxIdleTime;
+            this.warmUpConnections = other.warmUpConnections;
+            this.etagCacheSize = other.etagCacheSize;
+            this.changeFeedThreads = other.changeFeedThreads;
+            this.changeFeedPollInterval = other.changeFeedPollInterval;
+            this.ioThreads = other.ioThreads;
+            this.ioConnections = other.ioConnections;
+            this.asyncThreads = other.asyncThreads;
+            this.asyncQueueCapacity = other.asyncQueueCapacity;
+            this.rejectionPolicy = other.rejectionPolicy;
+            this.virtualThreads = other.virtualThreads;
+            this.asyncExecutor = other.asyncExecutor;
+        }
+
+        public CouchDbClientBuilder host(final String host) {
+            this.host = host;
+            return this;
+        }
+
+        public CouchDbClientBuilder port(final int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param max
+         *            The maximum number of pooled connections (for all hosts).
+         */
+        public CouchDbClientBuilder maxTotalConnections(final int max) {
+            this.maxTotalConnections = positive("maxTotalConnections", max);
+            return this;
+        }
+
+        /**
+         * @param max
+         *            The maximum number of pooled connections per host.
+         */
+        public CouchDbClientBuilder maxConnectionsPerRoute(final int max) {
+            this.maxConnectionsPerRoute = positive("maxConnectionsPerRoute", max);
+            return this;
+        }
+
+        /**
+         * @param millis
+         *            Timeout until a connection is established.
+         */
+        public CouchDbClientBuilder connectTimeout(final int millis) {
+            this.connectTimeout = notNegative("connectTimeout", millis);
+            return this;
+        }
+
+        /**
+         * The socket timeout should be greater than the heartbeat of the
+         * {@code _changes} feed (5 seconds) if change listeners are used.
+         * 
+         * @param millis
+         *            Timeout while waiting for data.
+         */
+        public CouchDbClientBuilder socketTimeout(final int millis) {
+            this.socketTimeout = notNegative("socketTimeout", millis);
+            return this;
+        }
+
+        /**
+         * @param millis
+         *            Timeout while waiting for a connection from the pool.
+         */
+        public CouchDbClientBuilder connectionLeaseTimeout(final long millis) {
+            this.connectionLeaseTimeout = notNegative("connectionLeaseTimeout", millis);
+            return this;
+        }
+
+        public CouchDbClientBuilder tcpNoDelay(final boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * @param millis
+         *            The maximum time an idle connection is kept alive, has
+         *            to be positive. The server provided keep-alive timeout is
+         *            used if it is shorter.
+         */
+        public CouchDbClientBuilder keepAlive(final long millis) {
+            this.keepAlive = positive("keepAlive", millis);
+            return this;
+        }
+
+        /**
+         * Expired and idle connections are closed by a background thread.
+         * 
+         * @param interval
+         *            The time between two eviction runs in milliseconds or 0
+         *            to disable the background eviction.
+         * @param maxIdleTime
+         *            Connections that have been idle for longer than
+         *            {@code maxIdleTime} milliseconds are closed.
+         */
+        public CouchDbClientBuilder evictIdleConnections(final long interval, final long maxIdleTime) {
+            this.evictionInterval = notNegative("interval", interval);
+            this.maxIdleTime = notNegative("maxIdleTime", maxIdleTime);
+            return this;
+        }
+
+        /**
+         * @param count
+         *            The number of connections that are opened when the client
+         *            is created (or the connection pool re-initialized),
+         *            limited to {@link #maxConnectionsPerRoute(int)} and
+         *            {@link #maxTotalConnections(int)}.
+         */
+        public CouchDbClientBuilder warmUpConnections(final int count) {
+            this.warmUpConnections = notNegative("warmUpConnections", count);
+            return this;
+        }
+
+        /**
+         * Remember the {@code ETag} and the body of document and view
+         * responses and revalidate them using {@code If-None-Match}.
+         * Unchanged responses are then not transferred again. The least
+         * recently used responses are evicted first.
+         * 
+         * @param maxSize
+         *            The maximum size (in characters) of all cached responses
+         *            or 0 to disable conditional requests.
+         */
+        public CouchDbClientBuilder etagCacheSize(final long maxSize) {
+            this.etagCacheSize = notNegative("etagCacheSize", maxSize);
+            return this;
+        }
+
+        /**
+         * Poll the {@code _changes} feeds of all databases from {@code threads}
+         * shared threads instead of reading a continuous feed (which holds a
+         * thread and a pooled connection) per database.
+         * 
+         * @param threads
+         *            The number of threads polling the feeds or 0 to use a
+         *            continuous feed per database.
+         * @param pollInterval
+         *            The time in milliseconds after which a feed without
+         *            changes is polled again.
+         */
+        public CouchDbClientBuilder changeFeedHub(final int threads, final long pollInterval) {
+            this.changeFeedThreads = notNegative("threads", threads);
+            this.changeFeedPollInterval = positive("pollInterval", pollInterval);
+            return this;
+        }
+
+        /**
+         * Send the document and view requests of the asynchronous API
+         * ({@link Database#async()} and the {@code ResponseHandler} based
+         * operations) over non-blocking connections instead of occupying a
+         * pooled thread per request. The {@code socketTimeout} limits the
+         * time a request may take.
+         * 
+         * @param ioThreads
+         *            The number of I/O threads or 0 to execute the
+         *            asynchronous requests on a thread pool.
+         * @param connectionsPerThread
+         *            The maximum number of connections per I/O thread.
+         *            Further requests are queued until a connection becomes
+         *            available.
+         */
+        public CouchDbClientBuilder nonBlockingTransport(final int ioThreads, final int connectionsPerThread) {
+            this.ioThreads = notNegative("ioThreads", ioThreads);
+            this.ioConnections = positive("connectionsPerThread", connectionsPerThread);
+            return this;
+        }
+
+        /**
+         * The asynchronous operations of all databases of the client share one
+         * executor, which is shut down by {@link CouchDbClient#disconnect()}.
+         * 
+         * @param threads
+         *            The number of threads executing asynchronous requests.
+         * @param queueCapacity
+         *            The number of requests that may wait for a thread before
+         *            the {@link #asyncRejectionPolicy(RejectionPolicy)
+         *            rejection policy} applies.
+         */
+        public CouchDbClientBuilder asyncThreads(final int threads, final int queueCapacity) {
+            this.asyncThreads = positive("threads", threads);
+            this.asyncQueueCapacity = positive("queueCapacity", queueCapacity);
+            return this;
+        }
+
+        /**
+         * @param policy
+         *            What happens to an asynchronous request that exceeds the
+         *            queue capacity (default: {@link RejectionPolicy#CALLER_RUNS}).
+         */
+        public CouchDbClientBuilder asyncRejectionPolicy(final RejectionPolicy policy) {
+            if (null == policy) {
+                throw new IllegalArgumentException("policy must not be null");
+            }
+            this.rejectionPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Run every asynchronous request on a new virtual thread (if supported
+         * by the JVM, otherwise the thread pool is used). At most
+         * {@code threads + queueCapacity} requests run concurrently.
+         */
+        public CouchDbClientBuilder virtualThreads(final boolean enabled) {
+            this.virtualThreads = enabled;
+            return this;
+        }
+
+        /**
+         * Use the given executor for the asynchronous operations. The executor
+         * is owned by the caller, i.e. it is not shut down by
+         * {@link CouchDbClient#disconnect()}, and the
+         * {@link #asyncThreads(int, int) thread} settings are ignored.
+         * 
+         * @param executor
+         *            The executor or null to use an executor created by the
+         *            client.
+         */
+        public CouchDbClientBuilder asyncExecutor(final ExecutorService executor) {
+            this.asyncExecutor = executor;
+            return this;
+        }
+
+        public DefaultCouchDbClient build() {
+            return new DefaultCouchDbClient(new CouchDbClientBuilder(this));
+        }
+
+        int getMaxTotalConnections() {
+            return maxTotalConnections;
+        }
+
+        int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        int getSocketTimeout() {
+            return socketTimeout;
+        }
+
+        long getConnectionLeaseTimeout() {
+            return connectionLeaseTimeout;
+        }
+
+        boolean isTcpNoDelay() {
+            return tcpNoDelay;
+        }
+
+        /**
+         * @return the keep-alive duration in milliseconds or -1 if the
+         *         connections should be kept alive as long as the server allows.
+         */
+        long getKeepAlive() {
+            return keepAlive;
+        }
+
+        long getEvictionInterval() {
+            return evictionInterval;
+        }
+
+        long getMaxIdleTime() {
+            return maxIdleTime;
+        }
+
+        int getWarmUpConnections() {
+            return warmUpConnections;
+        }
+
+        long getETagCacheSize() {
+            return etagCacheSize;
+        }
+
+        int getChangeFeedThreads() {
+            return changeFeedThreads;
+        }
+
+        long getChangeFeedPollInterval() {
+            return changeFeedPollInterval;
+        }
+
+        int getIoThreads() {
+            return ioThreads;
+        }
+
+        int getIoConnections() {
+            return ioConnections;
+        }
+
+        int getAsyncThreads() {
+            return asyncThreads;
+        }
+
+        int getAsyncQueueCapacity() {
+            return asyncQueueCapacity;
+        }
+
+        RejectionPolicy getRejectionPolicy() {
+            return rejectionPolicy;
+        }
+
+        boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        ExecutorService getAsyncExecutor() {
+            return asyncExecutor;
+        }
+
+        private static <T extends Number> T positive(String name, T value) {
+            if (value.longValue() < 1) {
+                throw new IllegalArgumentException(name + " has to be greater than 0 but was " + value);
+            }
+            return value;
+        }
+
+        private static <T extends Number> T notNegative(String name, T value) {
+            if (value.longValue() < 0) {
+                throw new IllegalArgumentException(name + " must not be negative but was " + value);
+            }
+            return value;
+        }
+    }
+
     private final static Logger logger = LoggerFactory.getLogger(Database.class);
 
     final static String DEFAULT_HOST = "localhost";
     final static int DEFAULT_PORT = 5984;
+    final static long DEFAULT_CHANGE_FEED_POLL_INTERVAL = 1000;
+    final static int DEFAULT_IO_CONNECTIONS = 8;
+    final static int DEFAULT_ASYNC_THREADS = 10;
+    final static int DEFAULT_ASYNC_QUEUE_CAPACITY = 1000;
 
     private HttpConnectionManager connections;
+    // Guarded by instances
+    private ChangeFeedHub changeFeedHub;
+    // Guarded by instances
+    private NioHttpTransport transport;
+    // Guarded by instances
+    private ExecutorService asyncExecutor;
 
     private final String host;
     private final int port;
+    private final CouchDbClientBuilder config;
 
     // public CouchDbClient(URL url) {
     // }
@@ -67,9 +476,84 @@ public final class DefaultCouchDbClient implements CouchDbClient {
     }
 
     public DefaultCouchDbClient(final String host, final int port) {
-        this.host = host;
-        this.port = port;
-        connections = new HttpConnectionManager();
+        this(builder().host(host).port(port));
+    }
+
+    private DefaultCouchDbClient(final CouchDbClientBuilder config) {
+        this.config = config;
+        this.host = config.host;
+        this.port = config.port;
+        connections = connect();
+    }
+
+    private HttpConnectionManager connect() {
+        HttpConnectionManager cm = new HttpConnectionManager(config);
+        cm.warmUp(host, port, config.getWarmUpConnections());
+        return cm;
+    }
+
+    /**
+     * @return the connection pool, a new pool is created if the client was
+     *         disconnected.
+     */
+    private HttpConnectionManager connections() {
+        synchronized (instances) {
+            if (connections.isShutdown()) {
+                connections = connect();
+            }
+            return connections;
+        }
+    }
+
+    /**
+     * @return the shared change feed hub or null if every database reads its
+     *         own continuous feed.
+     */
+    private ChangeFeedHub changeFeedHub() {
+        synchronized (instances) {
+            if (config.getChangeFeedThreads() > 0 && (null == changeFeedHub || changeFeedHub.isShutdown())) {
+                changeFeedHub = new ChangeFeedHub(config.getChangeFeedThreads(), config.getChangeFeedPollInterval());
+            }
+            return changeFeedHub;
+        }
+    }
+
+    /**
+     * @return the shared non-blocking transport or null if the asynchronous
+     *         requests are executed on a thread pool.
+     */
+    private NioHttpTransport transport() {
+        synchronized (instances) {
+            if (config.getIoThreads() > 0 && (null == transport || transport.isShutdown())) {
+                transport = new NioHttpTransport(host, port, config.getIoThreads(), config.getIoConnections(),
+                        config.getSocketTimeout());
+            }
+            return transport;
+        }
+    }
+
+    /**
+     * @return the executor for the asynchronous operations of all databases.
+     *         A new executor is created if the client was disconnected.
+     */
+    private ExecutorService asyncExecutor() {
+        if (null != config.getAsyncExecutor()) {
+            return config.getAsyncExecutor();
+        }
+        synchronized (instances) {
+            if (null == asyncExecutor || asyncExecutor.isShutdown()) {
+                asyncExecutor = AsyncExecutors.newExecutor(config.getAsyncThreads(), config.getAsyncQueueCapacity(),
+                        config.getRejectionPolicy(), config.isVirtualThreads());
+            }
+            return asyncExecutor;
+        }
+    }
+
+    /**
+     * @return a builder for a (configurable) {@link DefaultCouchDbClient}.
+     */
+    public static CouchDbClientBuilder builder() {
+        return new CouchDbClientBuilder();
     }
 
     public String getRemoteHost() {
@@ -80,7 +564,7 @@ public final class DefaultCouchDbClient implements CouchDbClient {
         return port;
     }
 
-    private Map<String, Database> instances = new HashMap<String, Database>();
+    private final Map<String, Database> instances = new HashMap<String, Database>();
 
     public Database getDatabase(final String databaseName) {
         synchronized (instances) {
@@ -92,7 +576,8 @@ public final class DefaultCouchDbClient implements CouchDbClient {
             }
         }
 
-        Database d = new DatabaseImpl(this, connections, databaseName);
+        Database d = new DatabaseImpl(this, connections(), databaseName, changeFeedHub(), transport(),
+                asyncExecutor());
         if (logger.isDebugEnabled()) {
             logger.debug("Create new database instance for {}", databaseName);
         }
@@ -108,23 +593,42 @@ public final class DefaultCouchDbClient implements CouchDbClient {
                 instances.remove(d.getName());
             }
             if (instances.size() < 1) {
-                connections.shutdown();
+                shutdown();
             }
         }
     }
 
     public List<String> databaseNames() {
-        JSONArray allDbs = connections.jsonArrayGet(toString() + "/" + ViewQuery.builder("_all_dbs").includeDocs(true).build().toString());
+        JSONArray allDbs = connections().jsonArrayGet(toString() + "/" + ViewQuery.builder("_all_dbs").includeDocs(true).build().toString());
         return Arrays.asList((String[]) allDbs.toArray(new String[allDbs.size()]));
     }
 
+    public CacheStatistics getETagCacheStatistics() {
+        return connections().etagCacheStatistics();
+    }
+
     public void disconnect() {
         // for (Map.Entry<String, Database> e : this.instances.entrySet()) {
         // e.getValue().disconnect();
         // }
         synchronized (instances) {
             instances.clear();
+            shutdown();
+        }
+    }
+
+    // Guarded by instances
+    private void shutdown() {
+        if (null != changeFeedHub) {
+            changeFeedHub.shutdown();
+        }
+        if (null != transport) {
+            transport.shutdown();
+        }
+        if (null != asyncExecutor) {
+            asyncExecutor.shutdown();
         }
+        connections.shutdown();
     }
 
     @Override
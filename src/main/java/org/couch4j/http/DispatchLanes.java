@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.couch4j.annotations.ThreadSafe;
+
+/**
+ * Runs tasks on a fixed number of worker threads ("lanes"). Tasks with the
+ * same key (e.g. the id of a changed document) always run on the same lane
+ * and therefore in the order they were submitted, tasks with different keys
+ * run in parallel.
+ * <p>
+ * Every lane has a bounded queue, {@link #execute(String, Runnable)} blocks
+ * while the queue of the task's lane is full.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class DispatchLanes {
+
+    private final static Logger logger = Logger.getLogger(DispatchLanes.class.getName());
+
+    private static final Runnable STOP = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private final BlockingQueue<Runnable>[] queues;
+    private final Thread[] workers;
+    // Written while holding this
+    private volatile boolean closed;
+
+    @SuppressWarnings("unchecked")
+    DispatchLanes(int lanes, int queueCapacity) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("lanes has to be greater than 0 but was " + lanes);
+        }
+        queues = new BlockingQueue[lanes];
+        workers = new Thread[lanes];
+        for (int i = 0; i < lanes; i++) {
+            final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+            queues[i] = queue;
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    work(queue);
+                }
+            }, "couch4j-dispatch-lane-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues the task on the lane of the given key. If the lanes have been
+     * closed the task is run by the calling thread.
+     */
+    void execute(String key, Runnable task) throws InterruptedException {
+        if (closed) {
+            task.run();
+            return;
+        }
+        BlockingQueue<Runnable> queue = queues[lane(key)];
+        // Not holding a lock while the queue is full, close() must not wait
+        // for a producer.
+        queue.put(task);
+        if (closed && queue.remove(task)) {
+            // Closed in the meantime: the worker might have stopped already
+            task.run();
+        }
+    }
+
+    private int lane(String key) {
+        int h = null == key ? 0 : key.hashCode();
+        // Spread the hash, String.hashCode() is weak in the low bits for
+        // similar ids
+        h ^= (h >>> 16);
+        return (h & Integer.MAX_VALUE) % queues.length;
+    }
+
+    /**
+     * @return the number of queued tasks.
+     */
+    int backlog() {
+        int n = 0;
+        for (BlockingQueue<Runnable> queue : queues) {
+            n += queue.size();
+        }
+        return n;
+    }
+
+    /**
+     * Runs all queued tasks and stops the worker threads. If called by a
+     * worker (i.e. by a task) the worker stops once its queue is empty.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < queues.length; i++) {
+            if (workers[i] == Thread.currentThread()) {
+                continue;
+            }
+            // Every worker has to be stopped, even if the caller is
+            // interrupted
+            for (;;) {
+                try {
+                    queues[i].put(STOP);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Thread worker : workers) {
+            if (worker == Thread.currentThread()) {
+                continue;
+            }
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void work(BlockingQueue<Runnable> queue) {
+        while (!closed || !queue.isEmpty()) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (task == STOP) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Dispatching a change event failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.CacheStatistics;
+
+/**
+ * LRU cache for the JSON representation of documents.
+ * <p>
+ * The cache is bounded by the total length of the cached JSON strings rather
+ * than the number of entries, a few large documents can therefore not push
+ * the heap usage beyond the configured limit. Strings are cached (instead of
+ * the parsed objects) because they are immutable and compact; every hit
+ * creates a fresh {@code JSONObject} the caller is free to modify.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class DocumentCache implements CacheStatistics {
+
+    private final long maxWeight;
+
+    // Guarded by this
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<String, String>(64, 0.75f, true);
+    private long weight;
+    private long generation;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param maxWeight
+     *            The maximum number of characters of all cached documents.
+     */
+    DocumentCache(long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight has to be greater than 0 but was " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the cached JSON of the document or null.
+     */
+    synchronized String get(String docId) {
+        String json = entries.get(docId);
+        if (null == json) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return json;
+    }
+
+    /**
+     * Returns a token that has to be passed to
+     * {@link #put(String, String, long)}. It has to be obtained <em>before</em>
+     * the document is requested from the server.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Adds the document to the cache unless the cache was invalidated since
+     * the given generation was obtained (the response might be outdated).
+     */
+    synchronized void put(String docId, String json, long generation) {
+        if (this.generation != generation || json.length() > maxWeight) {
+            return;
+        }
+        String previous = entries.put(docId, json);
+        if (null != previous) {
+            weight -= previous.length();
+        }
+        weight += json.length();
+        evict();
+    }
+
+    synchronized void invalidate(String docId) {
+        generation++;
+        String previous = entries.remove(docId);
+        if (null != previous) {
+            weight -= previous.length();
+            invalidations++;
+        }
+    }
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+        weight = 0;
+    }
+
+    private void evict() {
+        for (Iterator<Map.Entry<String, String>> it = entries.entrySet().iterator(); weight > maxWeight
+                && it.hasNext();) {
+            weight -= it.next().getValue().length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DocumentCache [size=" + entries.size() + ", weight=" + weight + ", hits=" + hits + ", misses="
+                + misses + ", evictions=" + evictions + ", invalidations=" + invalidations + "]";
+    }
+}
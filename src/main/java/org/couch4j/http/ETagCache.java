@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.json.JSONObject;
+
+import org.couch4j.annotations.Immutable;
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.CacheStatistics;
+
+/**
+ * Remembers the {@code ETag} and the body of the response of {@code GET}
+ * requests so that they can be revalidated using {@code If-None-Match}.
+ * <p>
+ * The cache is bounded by the total length of the cached bodies (view results
+ * may be large), the least recently used entries are evicted first. The body
+ * is cached as a string, every
+ * {@link Entry#getJson()} creates a fresh {@code JSONObject} the caller is
+ * free to modify.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class ETagCache implements CacheStatistics {
+
+    @Immutable
+    static final class Entry {
+        private final String etag;
+        private final String body;
+
+        Entry(String etag, String body) {
+            this.etag = etag;
+            this.body = body;
+        }
+
+        String getETag() {
+            return etag;
+        }
+
+        JSONObject getJson() {
+            return JSONObject.fromObject(body);
+        }
+    }
+
+    private final long maxWeight;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param maxWeight
+     *            The maximum number of characters of all cached bodies.
+     */
+    ETagCache(final long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight has to be greater than 0 but was " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    synchronized Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Caches the response body, replacing a previous (outdated) response.
+     */
+    synchronized void put(String url, String etag, String body) {
+        if (body.length() > maxWeight) {
+            remove(url);
+            return;
+        }
+        Entry previous = entries.put(url, new Entry(etag, body));
+        weight += body.length();
+        if (null != previous) {
+            weight -= previous.body.length();
+            invalidations++;
+        }
+        evict();
+    }
+
+    synchronized void remove(String url) {
+        Entry previous = entries.remove(url);
+        if (null != previous) {
+            weight -= previous.body.length();
+            invalidations++;
+        }
+    }
+
+    private void evict() {
+        for (Iterator<Entry> it = entries.values().iterator(); weight > maxWeight && it.hasNext();) {
+            weight -= it.next().body.length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Records whether the server confirmed (304) a cached response or
+     * returned the complete response.
+     */
+    synchronized void revalidated(boolean notModified) {
+        if (notModified) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ETagCache [size=" + entries.size() + ", weight=" + weight + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + ", invalidations=" + invalidations + "]";
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.couch4j.api.SequenceCheckpointStore;
+import org.couch4j.exceptions.Couch4JException;
+import org.couch4j.util.StreamUtils;
+
+/**
+ * Stores the checkpoint in a local file.
+ * <p>
+ * The sequence is written to a temporary file first which is then renamed, a
+ * crash during {@link #store(String)} therefore leaves the previous
+ * checkpoint intact.
+ * 
+ * @author Stefan Saasen
+ */
+public final class FileSequenceCheckpointStore implements SequenceCheckpointStore {
+
+    private static final String UTF_8 = "UTF-8";
+
+    private final File file;
+
+    public FileSequenceCheckpointStore(final File file) {
+        this.file = file;
+    }
+
+    public String load() {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            String seq = new String(StreamUtils.toByteArray(in), UTF_8).trim();
+            return seq.length() == 0 ? null : seq;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            throw new Couch4JException(e);
+        } finally {
+            StreamUtils.closeSilently(in);
+        }
+    }
+
+    public void store(String seq) {
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(seq.getBytes(UTF_8));
+            out.close();
+            out = null;
+            // File.renameTo does not replace an existing file on every
+            // platform
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            throw new Couch4JException(e);
+        } finally {
+            StreamUtils.closeSilently(out);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileSequenceCheckpointStore [file=" + file + "]";
+    }
+}
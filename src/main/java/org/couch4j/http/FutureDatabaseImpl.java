@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.couch4j.api.DatabaseFuture;
+import org.couch4j.api.Document;
+import org.couch4j.api.FutureDatabase;
+import org.couch4j.api.ServerResponse;
+import org.couch4j.api.StreamingViewResult;
+import org.couch4j.api.SynchronousDatabase;
+import org.couch4j.api.ViewQuery;
+import org.couch4j.api.ViewResult;
+
+/**
+ * Runs the operations of a {@link SynchronousDatabase} using an
+ * {@link Executor}.
+ * 
+ * @author Stefan Saasen
+ */
+final class FutureDatabaseImpl implements FutureDatabase {
+
+    private final SynchronousDatabase database;
+    private final Executor executor;
+
+    FutureDatabaseImpl(SynchronousDatabase database, Executor executor) {
+        this.database = database;
+        this.executor = executor;
+    }
+
+    private <T> DatabaseFuture<T> submit(Callable<T> callable) {
+        DatabaseFutureTask<T> task = new DatabaseFutureTask<T>(callable);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.fail(e);
+        }
+        return task;
+    }
+
+    public DatabaseFuture<List<ServerResponse>> bulkSave(final Collection<Document> docs) {
+        return submit(new Callable<List<ServerResponse>>() {
+            public List<ServerResponse> call() {
+                return database.bulkSave(docs);
+            }
+        });
+    }
+
+    public DatabaseFuture<List<ServerResponse>> bulkSave(final Collection<Document> docs, final int chunkSize) {
+        return submit(new Callable<List<ServerResponse>>() {
+            public List<ServerResponse> call() {
+                return database.bulkSave(docs, chunkSize);
+            }
+        });
+    }
+
+    public DatabaseFuture<ServerResponse> delete() {
+        return submit(new Callable<ServerResponse>() {
+            public ServerResponse call() {
+                return database.delete();
+            }
+        });
+    }
+
+    public DatabaseFuture<ServerResponse> deleteDocument(final Document doc) {
+        return submit(new Callable<ServerResponse>() {
+            public ServerResponse call() {
+                return database.deleteDocument(doc);
+            }
+        });
+    }
+
+    public DatabaseFuture<ViewResult> fetchAllDocuments() {
+        return submit(new Callable<ViewResult>() {
+            public ViewResult call() {
+                return database.fetchAllDocuments();
+            }
+        });
+    }
+
+    public DatabaseFuture<ViewResult> fetchAllDocuments(final boolean includeDocs) {
+        return submit(new Callable<ViewResult>() {
+            public ViewResult call() {
+                return database.fetchAllDocuments(includeDocs);
+            }
+        });
+    }
+
+    public DatabaseFuture<Document> fetchDocument(final String docId) {
+        return submit(new Callable<Document>() {
+            public Document call() {
+                return database.fetchDocument(docId);
+            }
+        });
+    }
+
+    public DatabaseFuture<Document> fetchDocument(final String docId, final String rev) {
+        return submit(new Callable<Document>() {
+            public Document call() {
+                return database.fetchDocument(docId, rev);
+            }
+        });
+    }
+
+    public DatabaseFuture<List<Document>> fetchDocuments(final Collection<String> docIds) {
+        return submit(new Callable<List<Document>>() {
+            public List<Document> call() {
+                return database.fetchDocuments(docIds);
+            }
+        });
+    }
+
+    public <T> DatabaseFuture<T> fetchObject(final String docId, final Class<T> clazz) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return database.fetchObject(docId, clazz);
+            }
+        });
+    }
+
+    public <T> DatabaseFuture<T> fetchObject(final String docId, final String rev, final Class<T> clazz) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return database.fetchObject(docId, rev, clazz);
+            }
+        });
+    }
+
+    public DatabaseFuture<ViewResult> fetchView(final ViewQuery v) {
+        return submit(new Callable<ViewResult>() {
+            public ViewResult call() {
+                return database.fetchView(v);
+            }
+        });
+    }
+
+    public DatabaseFuture<StreamingViewResult> streamView(final ViewQuery v) {
+        return submit(new Callable<StreamingViewResult>() {
+            public StreamingViewResult call() {
+                return database.streamView(v);
+            }
+        });
+    }
+
+    public DatabaseFuture<ServerResponse> saveDocument(final Object object) {
+        return submit(new Callable<ServerResponse>() {
+            public ServerResponse call() {
+                return database.saveDocument(object);
+            }
+        });
+    }
+
+    public DatabaseFuture<ServerResponse> saveDocument(final String documentId, final Object object) {
+        return submit(new Callable<ServerResponse>() {
+            public ServerResponse call() {
+                return database.saveDocument(documentId, object);
+            }
+        });
+    }
+
+    public DatabaseFuture<ServerResponse> storeAttachment(final String documentId, final String attachmentName,
+            final InputStream is) {
+        return submit(new Callable<ServerResponse>() {
+            public ServerResponse call() {
+                return database.storeAttachment(documentId, attachmentName, is);
+            }
+        });
+    }
+}
@@ -29,12 +29,18 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.ConnectException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import net.sf.json.JSONObject;
 import net.sf.json.JSONArray;
 import net.sf.json.JsonConfig;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.HttpVersion;
@@ -45,20 +51,30 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ManagedClientConnection;
 import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.couch4j.api.ServerResponse;
 import org.couch4j.api.Database.StreamContext;
+import org.couch4j.api.CacheStatistics;
 import org.couch4j.exceptions.Couch4JException;
+import org.couch4j.http.DefaultCouchDbClient.CouchDbClientBuilder;
 import org.couch4j.exceptions.DocumentNotFoundException;
 import org.couch4j.exceptions.DocumentUpdateConflictException;
 import org.couch4j.util.StreamUtils;
@@ -75,14 +91,39 @@ class HttpConnectionManager {
         GET, POST, PUT, DELETE
     }
 
-    private static final int MAX_TOTAL_CONNECTIONS = 100;
+    static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 100;
+    static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+    static final long DEFAULT_EVICTION_INTERVAL = 5000;
+    static final long DEFAULT_MAX_IDLE_TIME = 30000;
+
+    /**
+     * The maximum time to wait for a pooled connection while warming up the
+     * pool.
+     */
+    static final long WARM_UP_LEASE_TIMEOUT = 1000;
 
     private final HttpClient client;
+    private final HttpParams params;
+    private final IdleConnectionEvictor evictor;
+    private final ETagCache etagCache;
+    private volatile boolean shutdown;
 
     public HttpConnectionManager() {
+        this(DefaultCouchDbClient.builder());
+    }
+
+    HttpConnectionManager(final CouchDbClientBuilder config) {
         // Create and initialize HTTP parameters
-        HttpParams params = new BasicHttpParams();
-        ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+        params = new BasicHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, config.getMaxTotalConnections());
+        // Without an explicit limit the connection manager only allows 2
+        // connections per host
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(config.getMaxConnectionsPerRoute()));
+        ConnManagerParams.setTimeout(params, config.getConnectionLeaseTimeout());
+        HttpConnectionParams.setConnectionTimeout(params, config.getConnectTimeout());
+        HttpConnectionParams.setSoTimeout(params, config.getSocketTimeout());
+        HttpConnectionParams.setTcpNoDelay(params, config.isTcpNoDelay());
         HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
 
         Scheme http = new Scheme("http", PlainSocketFactory.getSocketFactory(), 80);
@@ -95,7 +136,88 @@ class HttpConnectionManager {
         // This connection manager must be used if more than one thread will
         // be using the HttpClient.
         ClientConnectionManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
-        this.client = new DefaultHttpClient(cm, params);
+        DefaultHttpClient httpClient = new DefaultHttpClient(cm, params);
+        httpClient.setKeepAliveStrategy(new KeepAliveStrategy(config.getKeepAlive()));
+        this.client = httpClient;
+
+        if (config.getEvictionInterval() > 0) {
+            evictor = new IdleConnectionEvictor(cm, config.getEvictionInterval(), config.getMaxIdleTime());
+            evictor.start();
+        } else {
+            evictor = null;
+        }
+        etagCache = config.getETagCacheSize() > 0 ? new ETagCache(config.getETagCacheSize()) : null;
+    }
+
+    /**
+     * Opens {@code count} connections to the given host and puts them into
+     * the pool, so that the first requests do not have to pay the connection
+     * setup cost.
+     * <p>
+     * At most as many connections as the pool allows for the host are
+     * opened. Failures are logged and otherwise ignored, the pool is then
+     * filled on demand.
+     * 
+     * @return the number of connections that were opened.
+     */
+    int warmUp(final String host, final int port, final int requested) {
+        HttpRoute route = new HttpRoute(new HttpHost(host, port));
+        final int count = Math.min(requested, Math.min(ConnManagerParams.getMaxConnectionsPerRoute(params)
+                .getMaxForRoute(route), ConnManagerParams.getMaxTotalConnections(params)));
+        if (count < 1) {
+            return 0;
+        }
+        ClientConnectionManager cm = client.getConnectionManager();
+        long leaseTimeout = ConnManagerParams.getTimeout(params);
+        if (leaseTimeout <= 0 || leaseTimeout > WARM_UP_LEASE_TIMEOUT) {
+            // Never block the construction of the client on a full pool
+            leaseTimeout = WARM_UP_LEASE_TIMEOUT;
+        }
+        List<ManagedClientConnection> opened = new ArrayList<ManagedClientConnection>(count);
+        int open = 0;
+        try {
+            // All connections have to be leased at the same time, otherwise
+            // the pool hands out the same connection again.
+            for (int i = 0; i < count; i++) {
+                ManagedClientConnection conn = cm.requestConnection(route, null).getConnection(leaseTimeout,
+                        TimeUnit.MILLISECONDS);
+                opened.add(conn);
+                conn.open(route, new BasicHttpContext(), params);
+                conn.markReusable();
+                open++;
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to pre-open connections to {}: {}", route, e.toString());
+        } finally {
+            for (ManagedClientConnection conn : opened) {
+                cm.releaseConnection(conn, -1, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Opened {} connection(s) to {}", open, route);
+        }
+        return open;
+    }
+
+    /**
+     * Uses the keep-alive timeout announced by the server, limited to the
+     * configured maximum duration.
+     */
+    private static final class KeepAliveStrategy extends DefaultConnectionKeepAliveStrategy {
+        private final long maxKeepAlive;
+
+        KeepAliveStrategy(long maxKeepAlive) {
+            this.maxKeepAlive = maxKeepAlive;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = super.getKeepAliveDuration(response, context);
+            if (maxKeepAlive < 0) {
+                return duration;
+            }
+            return duration < 0 ? maxKeepAlive : Math.min(duration, maxKeepAlive);
+        }
     }
 
     HttpClient getHttpClient() {
@@ -113,17 +235,7 @@ class HttpConnectionManager {
             // Read the response body.
             HttpEntity entity = response.getEntity();
             JSONObject jsonObject = fromResponseStream(entity);
-            switch (statusCode) {
-            case HttpStatus.SC_NOT_FOUND:
-                throw new DocumentNotFoundException(jsonObject);
-            case HttpStatus.SC_CONFLICT:
-                throw new DocumentUpdateConflictException(jsonObject);
-            case HttpStatus.SC_OK:
-            case HttpStatus.SC_CREATED:
-                break;
-            default:
-                throw new Couch4JException(jsonObject);
-            }
+            checkUpdateStatus(statusCode, jsonObject);
             return JsonServerResponse.fromJson(jsonObject);
         } catch (IOException e) {
             throw new Couch4JException(e);
@@ -142,16 +254,7 @@ class HttpConnectionManager {
             // Read the response body.
             HttpEntity entity = response.getEntity();
             JSONObject jsonObject = fromResponseStream(entity);
-            switch (statusCode) {
-            case HttpStatus.SC_CONFLICT:
-                throw new DocumentUpdateConflictException(jsonObject);
-            case HttpStatus.SC_OK:
-            case HttpStatus.SC_CREATED:
-                break;
-            case HttpStatus.SC_NOT_FOUND:
-            default:
-                throw new DocumentNotFoundException(jsonObject);
-            }
+            checkStatus(statusCode, jsonObject);
             return jsonObject;
         } catch (ConnectException re) {
             throw new Couch4JException(re);
@@ -161,23 +264,56 @@ class HttpConnectionManager {
             // method.releaseConnection();
         }
     }
+
+    /**
+     * Maps the status of a request that modifies the database to the
+     * corresponding exception.
+     */
+    static void checkUpdateStatus(int statusCode, JSONObject jsonObject) {
+        switch (statusCode) {
+        case HttpStatus.SC_NOT_FOUND:
+            throw new DocumentNotFoundException(jsonObject);
+        case HttpStatus.SC_CONFLICT:
+            throw new DocumentUpdateConflictException(jsonObject);
+        case HttpStatus.SC_OK:
+        case HttpStatus.SC_CREATED:
+            break;
+        default:
+            throw new Couch4JException(jsonObject);
+        }
+    }
+
+    /**
+     * Maps the status of a read request to the corresponding exception.
+     */
+    static void checkStatus(int statusCode, JSONObject jsonObject) {
+        switch (statusCode) {
+        case HttpStatus.SC_CONFLICT:
+            throw new DocumentUpdateConflictException(jsonObject);
+        case HttpStatus.SC_OK:
+        case HttpStatus.SC_CREATED:
+            break;
+        case HttpStatus.SC_NOT_FOUND:
+        default:
+            throw new DocumentNotFoundException(jsonObject);
+        }
+    }
+
     private JSONArray jsonArrayExecute(HttpRequestBase method) {
         try {
             HttpResponse response = client.execute(method);
             int statusCode = response.getStatusLine().getStatusCode();
             HttpEntity entity = response.getEntity();
-            JSONArray jsonArray = arrayFromResponseStream(entity);
             switch (statusCode) {
-            case HttpStatus.SC_CONFLICT:
-                throw new DocumentUpdateConflictException(new JSONObject());
             case HttpStatus.SC_OK:
             case HttpStatus.SC_CREATED:
-                break;
-            case HttpStatus.SC_NOT_FOUND:
+                return arrayFromResponseStream(entity);
             default:
-                throw new DocumentNotFoundException(new JSONObject());
+                // Errors are reported as a JSON object
+                JSONObject jsonObject = fromResponseStream(entity);
+                checkStatus(statusCode, jsonObject);
+                throw new Couch4JException(jsonObject, statusCode);
             }
-            return jsonArray;
         }
         catch (ConnectException re) {
             throw new Couch4JException(re);
@@ -190,14 +326,76 @@ class HttpConnectionManager {
         }
     }
 
+    /**
+     * @return the statistics of the ETag cache or null if conditional
+     *         requests are disabled.
+     */
+    CacheStatistics etagCacheStatistics() {
+        return etagCache;
+    }
+
     JSONObject jsonGet(String url) {
+        if (null != etagCache) {
+            return conditionalGet(url);
+        }
         return jsonExecute(new HttpGet(url));
     }
 
+    /**
+     * GET request that revalidates a previous response using its
+     * {@code ETag}. If the server responds with 304 (Not Modified) a copy of
+     * the previous response is returned.
+     */
+    private JSONObject conditionalGet(String url) {
+        HttpGet method = new HttpGet(url);
+        ETagCache.Entry cached = etagCache.get(url);
+        if (null != cached) {
+            method.addHeader("If-None-Match", cached.getETag());
+        }
+        try {
+            HttpResponse response = client.execute(method);
+            int statusCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && null != cached) {
+                if (null != entity) {
+                    entity.consumeContent();
+                }
+                etagCache.revalidated(true);
+                return cached.getJson();
+            }
+            String body = bodyFromResponseStream(entity);
+            JSONObject jsonObject = JSONObject.fromObject(body);
+            Header etag = response.getFirstHeader("ETag");
+            if (statusCode == HttpStatus.SC_OK && null != etag) {
+                etagCache.put(url, etag.getValue(), body);
+            } else {
+                etagCache.remove(url);
+            }
+            etagCache.revalidated(false);
+            checkStatus(statusCode, jsonObject);
+            return jsonObject;
+        } catch (IOException e) {
+            method.abort();
+            throw new Couch4JException(e);
+        }
+    }
+
+    JSONObject jsonPost(String url, HttpEntity entity) {
+        HttpPost method = new HttpPost(url);
+        method.setEntity(entity);
+        return jsonExecute(method);
+    }
+
     JSONArray jsonArrayGet(String url) {
         return jsonArrayExecute(new HttpGet(url));
     }
 
+    JSONArray jsonArrayPost(String url, HttpEntity entity) {
+        HttpPost method = new HttpPost(url);
+        method.setEntity(entity);
+        return jsonArrayExecute(method);
+    }
+
 
     ServerResponse post(final String url) {
         return executeMethod(new HttpPost(url));
@@ -256,6 +454,52 @@ class HttpConnectionManager {
         return executeMethod(m);
     }
 
+    /**
+     * Executes the request and returns the response entity without reading it.
+     * <p>
+     * The caller is responsible for releasing the connection by either
+     * consuming the entity or by aborting the request.
+     */
+    HttpEntity executeForStream(HttpUriRequest request) {
+        try {
+            HttpResponse response = client.execute(request);
+            int statusCode = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+            if (statusCode != HttpStatus.SC_OK) {
+                JSONObject jsonObject = fromResponseStream(entity);
+                checkStatus(statusCode, jsonObject);
+                throw new Couch4JException(jsonObject, statusCode);
+            }
+            return entity;
+        } catch (IOException e) {
+            request.abort();
+            throw new Couch4JException(e);
+        }
+    }
+
+    /**
+     * Like {@link #executeForStream(HttpUriRequest)} but waits at most
+     * {@code maxLeaseTimeout} milliseconds for a pooled connection.
+     */
+    HttpEntity executeForStream(HttpUriRequest request, long maxLeaseTimeout) {
+        long timeout = ConnManagerParams.getTimeout(params);
+        if (timeout <= 0 || timeout > maxLeaseTimeout) {
+            ConnManagerParams.setTimeout(request.getParams(), maxLeaseTimeout);
+        }
+        return executeForStream(request);
+    }
+
+    /**
+     * @return the maximum number of pooled connections to the host of the
+     *         given request.
+     */
+    int maxConnections(HttpUriRequest request) {
+        URI uri = request.getURI();
+        HttpRoute route = new HttpRoute(new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()));
+        return Math.min(ConnManagerParams.getMaxConnectionsPerRoute(params).getMaxForRoute(route),
+                ConnManagerParams.getMaxTotalConnections(params));
+    }
+
     void withAttachmentAsStream(final String url, final StreamContext ctx) throws IOException {
         HttpGet method = new HttpGet(url);
 
@@ -269,15 +513,19 @@ class HttpConnectionManager {
     }
 
     private JSONObject fromResponseStream(HttpEntity entity) throws IOException {
+        return JSONObject.fromObject(bodyFromResponseStream(entity));
+    }
+
+    private String bodyFromResponseStream(HttpEntity entity) throws IOException {
         InputStream is = entity.getContent();
         Reader reader = new InputStreamReader(is, EntityUtils.getContentCharSet(entity));
         CharArrayWriter w = new CharArrayWriter();
         StreamUtils.copy(reader, w);
-        JSONObject json = JSONObject.fromObject(w.toString());
+        String body = w.toString();
         StreamUtils.closeSilently(reader);
         StreamUtils.closeSilently(w);
         entity.consumeContent(); // finish
-        return json;
+        return body;
     }
 
     private JSONArray arrayFromResponseStream(HttpEntity entity) throws IOException {
@@ -292,8 +540,23 @@ class HttpConnectionManager {
         return json;
     }
 
+    /**
+     * Stops the idle connection eviction and closes all pooled connections.
+     * The connection manager cannot be used afterwards.
+     */
     public void shutdown() {
-        // TODO Auto-generated method stub
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        if (null != evictor) {
+            evictor.shutdown();
+        }
+        client.getConnectionManager().shutdown();
+    }
+
+    boolean isShutdown() {
+        return shutdown;
     }
 
 }
@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Incrementally parses a HTTP/1.1 response from the bytes read by the
+ * {@link NioHttpTransport}. The body may be delimited by
+ * {@code Content-Length}, by the chunked transfer encoding or by the end of
+ * the connection.
+ * 
+ * @author Stefan Saasen
+ */
+final class HttpResponseParser {
+
+    private enum State {
+        STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER, UNTIL_CLOSE, COMPLETE
+    }
+
+    private final boolean head;
+    private final StringBuilder line = new StringBuilder(64);
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private State state = State.STATUS_LINE;
+    private boolean started;
+    private boolean http10;
+    private int status;
+    private long contentLength = -1;
+    private long remaining;
+    private boolean chunked;
+    private Boolean connectionKeepAlive;
+
+    /**
+     * @param head
+     *            true if the response belongs to a HEAD request, i.e. has no
+     *            body.
+     */
+    HttpResponseParser(boolean head) {
+        this.head = head;
+    }
+
+    /**
+     * Consumes the available bytes of the buffer.
+     * 
+     * @throws IOException
+     *             if the response is malformed.
+     */
+    void feed(ByteBuffer in) throws IOException {
+        if (in.hasRemaining()) {
+            started = true;
+        }
+        while (in.hasRemaining() && state != State.COMPLETE) {
+            switch (state) {
+            case BODY:
+            case CHUNK_DATA:
+                int n = (int) Math.min(remaining, in.remaining());
+                body.write(in.array(), in.arrayOffset() + in.position(), n);
+                in.position(in.position() + n);
+                remaining -= n;
+                if (remaining == 0) {
+                    state = state == State.BODY ? State.COMPLETE : State.CHUNK_END;
+                }
+                break;
+            case UNTIL_CLOSE:
+                body.write(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                in.position(in.limit());
+                break;
+            default:
+                if (readLine(in)) {
+                    String l = line.toString();
+                    line.setLength(0);
+                    onLine(l);
+                }
+            }
+        }
+    }
+
+    /**
+     * Signals the end of the connection.
+     * 
+     * @return true if the response is complete.
+     */
+    boolean endOfStream() {
+        if (state == State.UNTIL_CLOSE) {
+            state = State.COMPLETE;
+        }
+        return state == State.COMPLETE;
+    }
+
+    boolean isComplete() {
+        return state == State.COMPLETE;
+    }
+
+    /**
+     * @return true if any bytes of the response have been received.
+     */
+    boolean started() {
+        return started;
+    }
+
+    /**
+     * @return true if the connection can be reused for another request.
+     */
+    boolean keepAlive() {
+        if (state != State.COMPLETE || (!chunked && contentLength < 0 && hasBody())) {
+            return false;
+        }
+        if (null != connectionKeepAlive) {
+            return connectionKeepAlive;
+        }
+        return !http10;
+    }
+
+    NioHttpTransport.Response response() {
+        return new NioHttpTransport.Response(status, body.toByteArray());
+    }
+
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            char c = (char) (in.get() & 0xff);
+            if (c == '\n') {
+                int len = line.length();
+                if (len > 0 && line.charAt(len - 1) == '\r') {
+                    line.setLength(len - 1);
+                }
+                return true;
+            }
+            if (line.length() > 8192) {
+                throw new IOException("Response line too long");
+            }
+            line.append(c);
+        }
+        return false;
+    }
+
+    private void onLine(String l) throws IOException {
+        switch (state) {
+        case STATUS_LINE:
+            if (l.length() == 0) {
+                return;
+            }
+            String[] parts = l.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Malformed status line: " + l);
+            }
+            http10 = "HTTP/1.0".equals(parts[0]);
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed status line: " + l);
+            }
+            state = State.HEADERS;
+            return;
+        case HEADERS:
+            if (l.length() > 0) {
+                header(l);
+            } else if (status >= 100 && status < 200) {
+                // interim response
+                state = State.STATUS_LINE;
+                contentLength = -1;
+                chunked = false;
+                connectionKeepAlive = null;
+            } else if (!hasBody()) {
+                state = State.COMPLETE;
+            } else if (chunked) {
+                state = State.CHUNK_SIZE;
+            } else if (contentLength >= 0) {
+                remaining = contentLength;
+                state = contentLength == 0 ? State.COMPLETE : State.BODY;
+            } else {
+                state = State.UNTIL_CLOSE;
+            }
+            return;
+        case CHUNK_SIZE:
+            int ext = l.indexOf(';');
+            String size = (ext < 0 ? l : l.substring(0, ext)).trim();
+            try {
+                remaining = Long.parseLong(size, 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk size: " + l);
+            }
+            state = remaining == 0 ? State.TRAILER : State.CHUNK_DATA;
+            return;
+        case CHUNK_END:
+            state = State.CHUNK_SIZE;
+            return;
+        case TRAILER:
+            if (l.length() == 0) {
+                state = State.COMPLETE;
+            }
+            return;
+        default:
+            throw new IllegalStateException(state.toString());
+        }
+    }
+
+    private void header(String l) throws IOException {
+        int colon = l.indexOf(':');
+        if (colon < 0) {
+            throw new IOException("Malformed header: " + l);
+        }
+        String name = l.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+        String value = l.substring(colon + 1).trim();
+        if ("content-length".equals(name)) {
+            try {
+                contentLength = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed Content-Length: " + value);
+            }
+        } else if ("transfer-encoding".equals(name)) {
+            chunked = value.toLowerCase(Locale.ENGLISH).contains("chunked");
+        } else if ("connection".equals(name)) {
+            String v = value.toLowerCase(Locale.ENGLISH);
+            if (v.contains("close")) {
+                connectionKeepAlive = Boolean.FALSE;
+            } else if (v.contains("keep-alive")) {
+                connectionKeepAlive = Boolean.TRUE;
+            }
+        }
+    }
+
+    private boolean hasBody() {
+        return !head && status != 204 && status != 304;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background thread that periodically closes expired connections (keep-alive
+ * timeout exceeded) and connections that have been idle for too long.
+ * <p>
+ * Without eviction pooled connections to a restarted CouchDB server are only
+ * detected as dead when they are used for the next request.
+ * 
+ * @author Stefan Saasen
+ */
+final class IdleConnectionEvictor extends Thread {
+
+    private final static Logger logger = LoggerFactory.getLogger(IdleConnectionEvictor.class);
+
+    private final ClientConnectionManager connectionManager;
+    private final long interval;
+    private final long maxIdleTime;
+    private volatile boolean shutdown;
+
+    /**
+     * @param connectionManager
+     *            The connection manager whose connections should be evicted.
+     * @param interval
+     *            The time between two eviction runs in milliseconds.
+     * @param maxIdleTime
+     *            The maximum time in milliseconds a connection may stay idle
+     *            in the pool.
+     */
+    IdleConnectionEvictor(ClientConnectionManager connectionManager, long interval, long maxIdleTime) {
+        super("couch4j-connection-evictor");
+        this.connectionManager = connectionManager;
+        this.interval = interval;
+        this.maxIdleTime = maxIdleTime;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!shutdown) {
+                synchronized (this) {
+                    wait(interval);
+                }
+                if (shutdown) {
+                    break;
+                }
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(maxIdleTime, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Stopped idle connection eviction");
+        }
+    }
+
+    void shutdown() {
+        shutdown = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.json.JSONObject;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.AsynchronousDatabase.AsyncToken;
+import org.couch4j.api.AsynchronousDatabase.ResponseHandler;
+import org.couch4j.api.DatabaseFuture;
+import org.couch4j.exceptions.Couch4JException;
+
+/**
+ * Coalesces identical concurrent {@code GET} requests (single-flight).
+ * <p>
+ * The first caller for a URL executes the request, callers that arrive while
+ * the request is in flight wait for its result instead of sending a duplicate
+ * request. Every caller receives its own {@code JSONObject} as the result is
+ * mutable: if other callers joined the request, everybody (including the
+ * first caller) gets a copy of the shared response. Blocking and asynchronous
+ * callers share their requests.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class InFlightRequests {
+
+    private static final class Request {
+        private final DatabaseFutureTask<JSONObject> future = DatabaseFutureTask.create();
+        // The number of callers sharing the result, -1 once the first caller
+        // took the result for itself
+        private final AtomicInteger followers = new AtomicInteger();
+
+        boolean join() {
+            for (;;) {
+                int n = followers.get();
+                if (n < 0) {
+                    return false;
+                }
+                if (followers.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean close() {
+            return followers.compareAndSet(0, -1);
+        }
+    }
+
+    private final ConcurrentMap<String, Request> requests = new ConcurrentHashMap<String, Request>();
+
+    JSONObject get(final String url, final Callable<JSONObject> loader) {
+        for (;;) {
+            Request request = new Request();
+            Request inFlight = requests.putIfAbsent(url, request);
+            if (null == inFlight) {
+                try {
+                    request.future.complete(loader.call());
+                } catch (Throwable t) {
+                    request.future.fail(t);
+                } finally {
+                    requests.remove(url, request);
+                }
+                JSONObject json = result(request);
+                return request.close() ? json : JSONObject.fromObject(json);
+            }
+            if (inFlight.join()) {
+                return JSONObject.fromObject(result(inFlight));
+            }
+            // Too late, the result has already been handed out
+        }
+    }
+
+    /**
+     * Like {@link #get(String, Callable)} for a request that is sent
+     * asynchronously. The returned future completes on the thread that
+     * completes the shared request.
+     * 
+     * @param loader
+     *            Sends the request (without blocking).
+     */
+    DatabaseFuture<JSONObject> getAsync(final String url, final Callable<DatabaseFuture<JSONObject>> loader) {
+        for (;;) {
+            final Request request = new Request();
+            Request inFlight = requests.putIfAbsent(url, request);
+            if (null == inFlight) {
+                DatabaseFuture<JSONObject> response;
+                try {
+                    response = loader.call();
+                } catch (Exception e) {
+                    requests.remove(url, request);
+                    request.future.fail(e);
+                    return request.future;
+                }
+                response.addHandler(new ResponseHandler<JSONObject>() {
+                    public void completed(JSONObject json, AsyncToken token) {
+                        requests.remove(url, request);
+                        request.future.complete(json);
+                    }
+
+                    public void failed(Exception e) {
+                        requests.remove(url, request);
+                        request.future.fail(e);
+                    }
+                });
+                return request.future.transform(new DatabaseFuture.Transformer<JSONObject, JSONObject>() {
+                    public JSONObject apply(JSONObject json) {
+                        return request.close() ? json : JSONObject.fromObject(json);
+                    }
+                });
+            }
+            if (inFlight.join()) {
+                return inFlight.future.transform(new DatabaseFuture.Transformer<JSONObject, JSONObject>() {
+                    public JSONObject apply(JSONObject json) {
+                        return JSONObject.fromObject(json);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Requests that are in flight are not shared with later callers, e.g.
+     * because they might have been sent before a write operation completed.
+     */
+    void clear() {
+        requests.clear();
+    }
+
+    private static JSONObject result(Request request) {
+        try {
+            return request.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Couch4JException(e);
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            }
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new Couch4JException(t);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+
+/**
+ * Incremental reader for CouchDB responses that contain a (potentially very
+ * large) array of JSON objects, e.g. the {@code rows} of a view result.
+ * <p>
+ * The members in front of the array are collected by {@link #readHeader()},
+ * afterwards {@link #nextRow()} returns one array element at a time. Only the
+ * text of the current element is buffered, so the memory footprint does not
+ * depend on the size of the response.
+ * <p>
+ * This class is not thread safe.
+ * 
+ * @author Stefan Saasen
+ */
+final class JsonRowReader {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int NONE = -2;
+
+    private final Reader in;
+    private final String arrayName;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private int pushback = NONE;
+
+    private final StringBuilder value = new StringBuilder(256);
+    private final StringBuilder members = new StringBuilder();
+
+    private boolean inArray;
+    private JSONObject trailer;
+
+    /**
+     * @param in
+     *            The response body. The reader will not be closed.
+     * @param arrayName
+     *            The name of the top level member that holds the array (e.g.
+     *            "rows").
+     */
+    JsonRowReader(final Reader in, final String arrayName) {
+        this.in = in;
+        this.arrayName = arrayName;
+    }
+
+    /**
+     * Reads the opening of the response up to (and including) the start of the
+     * array.
+     * 
+     * @return JSONObject with all members in front of the array. If the
+     *         response does not contain the array at all the returned object
+     *         contains all top level members.
+     */
+    JSONObject readHeader() throws IOException {
+        expect('{');
+        return readMembers(true);
+    }
+
+    /**
+     * @return the next element of the array or null if the end of the array
+     *         has been reached.
+     */
+    JSONObject nextRow() throws IOException {
+        if (!inArray) {
+            return null;
+        }
+        int c = nextNonWhitespace();
+        if (c == ',') {
+            c = nextNonWhitespace();
+        }
+        if (c == ']') {
+            inArray = false;
+            trailer = readMembers(false);
+            return null;
+        }
+        if (c != '{') {
+            throw syntaxError("Expected '{' but was", c);
+        }
+        value.setLength(0);
+        value.append('{');
+        readComposite('}');
+        return JSONObject.fromObject(value.toString());
+    }
+
+    /**
+     * @return the members that follow the array (e.g. {@code last_seq} in a
+     *         {@code _changes} response) or null if the array has not been
+     *         read completely.
+     */
+    JSONObject trailer() {
+        return trailer;
+    }
+
+    private JSONObject readMembers(boolean stopAtArray) throws IOException {
+        members.setLength(0);
+        members.append('{');
+        while (true) {
+            int c = nextNonWhitespace();
+            if (c == '}' || c == -1) {
+                break;
+            }
+            if (c == ',') {
+                c = nextNonWhitespace();
+            }
+            if (c != '"') {
+                throw syntaxError("Expected a member name but was", c);
+            }
+            value.setLength(0);
+            readString();
+            String name = JSONUtils.stripQuotes(value.toString());
+            expect(':');
+            if (stopAtArray && arrayName.equals(name)) {
+                expect('[');
+                inArray = true;
+                break;
+            }
+            value.setLength(0);
+            readValue();
+            if (members.length() > 1) {
+                members.append(',');
+            }
+            members.append(JSONUtils.quote(name)).append(':').append(value);
+        }
+        members.append('}');
+        return JSONObject.fromObject(members.toString());
+    }
+
+    private void readValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+        case '{':
+            value.append('{');
+            readComposite('}');
+            break;
+        case '[':
+            value.append('[');
+            readComposite(']');
+            break;
+        case '"':
+            readString();
+            break;
+        case -1:
+            throw syntaxError("Unexpected end of input", c);
+        default:
+            // number, true, false or null
+            while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+                value.append((char) c);
+                c = read();
+            }
+            pushback = c;
+        }
+    }
+
+    /**
+     * Reads a JSON object or array (the opening char has already been
+     * consumed) into {@link #value}.
+     */
+    private void readComposite(char close) throws IOException {
+        int depth = 1;
+        while (depth > 0) {
+            int c = read();
+            switch (c) {
+            case -1:
+                throw syntaxError("Unexpected end of input", c);
+            case '"':
+                readString();
+                continue;
+            case '{':
+            case '[':
+                depth++;
+                break;
+            case '}':
+            case ']':
+                depth--;
+                break;
+            default:
+                break;
+            }
+            value.append((char) c);
+        }
+        if (value.charAt(value.length() - 1) != close) {
+            throw new JSONException("Unbalanced JSON value: " + value);
+        }
+    }
+
+    /**
+     * Reads a JSON string (the opening quote has already been consumed) into
+     * {@link #value}, including both quotes.
+     */
+    private void readString() throws IOException {
+        value.append('"');
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string", c);
+            }
+            value.append((char) c);
+            if (c == '\\') {
+                int escaped = read();
+                if (escaped == -1) {
+                    throw syntaxError("Unterminated string", escaped);
+                }
+                value.append((char) escaped);
+            } else if (c == '"') {
+                return;
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = nextNonWhitespace();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "' but was", c);
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && Character.isWhitespace(c));
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pushback != NONE) {
+            int c = pushback;
+            pushback = NONE;
+            return c;
+        }
+        if (pos == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    private static JSONException syntaxError(String message, int c) {
+        return new JSONException(message + " " + (c == -1 ? "<EOF>" : "'" + (char) c + "'"));
+    }
+}
@@ -40,13 +40,18 @@ final class JsonServerResponse implements ServerResponse {
     JsonServerResponse(JSONObject json) {
         this.id = json.containsKey("id") ? json.getString("id") : null;
         this.rev = json.containsKey("rev") ? json.getString("rev") : null;
-        this.ok = json.getBoolean("ok");
+        this.error = json.containsKey("error") ? json.getString("error") : null;
+        this.reason = json.containsKey("reason") ? json.getString("reason") : null;
+        // _bulk_docs results do not carry an "ok" attribute
+        this.ok = json.containsKey("ok") ? json.getBoolean("ok") : null == error;
         this.json = json;
     }
 
     private final String id;
     private final String rev;
     private final boolean ok;
+    private final String error;
+    private final String reason;
     private final JSONObject json;
 
     public String getId() {
@@ -61,6 +66,14 @@ final class JsonServerResponse implements ServerResponse {
         return ok;
     }
 
+    public String getError() {
+        return error;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
     public String toJson() {
         return json.toString();
     }
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+import org.couch4j.api.StreamingViewResult;
+import org.couch4j.api.ViewResultRow;
+import org.couch4j.exceptions.Couch4JException;
+
+/**
+ * {@link StreamingViewResult} that reads the rows directly from the HTTP
+ * response entity.
+ * 
+ * @author Stefan Saasen
+ */
+final class JsonStreamingViewResult implements StreamingViewResult {
+
+    private static final String UTF_8 = "UTF-8";
+
+    private final HttpUriRequest request;
+    private final HttpEntity entity;
+    private final JsonRowReader reader;
+    private final JsonAwareDatabase database;
+
+    private final int totalRows;
+    private final int offset;
+
+    private boolean iterated;
+    private boolean finished;
+
+    JsonStreamingViewResult(HttpUriRequest request, HttpEntity entity, JsonAwareDatabase database) {
+        this.request = request;
+        this.entity = entity;
+        this.database = database;
+        try {
+            String charset = EntityUtils.getContentCharSet(entity);
+            Reader in = new InputStreamReader(entity.getContent(), null == charset ? UTF_8 : charset);
+            this.reader = new JsonRowReader(in, "rows");
+            JSONObject header = reader.readHeader();
+            this.totalRows = header.has("total_rows") ? header.getInt("total_rows") : 0;
+            this.offset = header.has("offset") ? header.getInt("offset") : 0;
+        } catch (IOException e) {
+            close();
+            throw new Couch4JException(e);
+        } catch (JSONException e) {
+            close();
+            throw new Couch4JException(e);
+        }
+    }
+
+    public int getTotalRows() {
+        return totalRows;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public synchronized Iterator<ViewResultRow> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("A StreamingViewResult can only be iterated once.");
+        }
+        iterated = true;
+        return new Iterator<ViewResultRow>() {
+            private ViewResultRow next;
+
+            public boolean hasNext() {
+                if (null == next) {
+                    next = readRow();
+                }
+                return null != next;
+            }
+
+            public ViewResultRow next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ViewResultRow row = next;
+                next = null;
+                return row;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("A StreamingViewResult is read-only.");
+            }
+        };
+    }
+
+    private ViewResultRow readRow() {
+        if (finished) {
+            return null;
+        }
+        try {
+            JSONObject json = reader.nextRow();
+            if (null == json) {
+                finished = true;
+                entity.consumeContent(); // release the connection
+                return null;
+            }
+            return new JsonViewResultRow(json, database);
+        } catch (IOException e) {
+            close();
+            throw new Couch4JException(e);
+        } catch (JSONException e) {
+            close();
+            throw new Couch4JException(e);
+        }
+    }
+
+    public synchronized void close() {
+        if (!finished) {
+            finished = true;
+            // Aborting is cheaper than reading the remaining rows just to be
+            // able to reuse the connection.
+            request.abort();
+        }
+    }
+}
@@ -29,15 +29,23 @@ import java.util.List;
 
 import net.sf.json.JSONObject;
 
+import org.couch4j.api.Document;
 import org.couch4j.api.ViewResult;
 import org.couch4j.api.ViewResultRow;
-import org.couch4j.annotations.Immutable;
+import org.couch4j.annotations.ThreadSafe;
 
 /**
  * @author Stefan Saasen
  */
-@Immutable
-final class JsonViewResult implements ViewResult {
+@ThreadSafe
+final class JsonViewResult implements ViewResult, DocumentLoader {
+
+    /**
+     * Number of lazily loaded documents after which all remaining document
+     * stubs of this result are loaded at once.
+     */
+    static final int AUTO_HYDRATE_THRESHOLD = 3;
+
     private final int total_rows;
     private final int offset;
     private final List<ViewResultRow> rows;
@@ -45,8 +53,10 @@ final class JsonViewResult implements ViewResult {
 
     private final JSONObject json;
 
-    JsonViewResult(final String jsonString, JsonAwareDatabase database) {
-        this.json = JSONObject.fromObject(jsonString);
+    private int lazilyLoaded;
+
+    JsonViewResult(final JSONObject json, JsonAwareDatabase database) {
+        this.json = json;
         rows = new ArrayList<ViewResultRow>();
         this.database = database;
         this.total_rows = json.getInt("total_rows");
@@ -75,12 +85,55 @@ final class JsonViewResult implements ViewResult {
         return json.toString();
     }
 
+    public void hydrate() {
+        List<ResponseDocument> stubs = new ArrayList<ResponseDocument>();
+        List<String> ids = new ArrayList<String>();
+        for (ViewResultRow row : getRows()) {
+            // Create the (cached) document stub of each row
+            row.getDocument();
+            ResponseDocument stub = ((JsonViewResultRow) row).unloadedDocument();
+            if (null != stub) {
+                stubs.add(stub);
+                ids.add(stub.getId());
+            }
+        }
+        if (stubs.isEmpty()) {
+            return;
+        }
+        List<Document> docs = database.fetchDocuments(ids);
+        for (int i = 0; i < stubs.size(); i++) {
+            Document d = docs.get(i);
+            // Documents that are missing are left as stubs
+            if (null != d) {
+                stubs.get(i).load(d.toJSONObject());
+            }
+        }
+    }
+
+    /*
+     * Called by a document stub of this view result that is about to be
+     * fetched. If a few stubs have been loaded one by one the remaining stubs
+     * are loaded with a single _all_docs request.
+     */
+    public void load(ResponseDocument stub) {
+        boolean hydrate;
+        synchronized (this) {
+            hydrate = ++lazilyLoaded == AUTO_HYDRATE_THRESHOLD;
+        }
+        if (hydrate) {
+            hydrate();
+        }
+        if (!stub.isLoaded()) {
+            stub.load(database.fetchDocument(stub.getId()).toJSONObject());
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    private void loadRowsIfNecessary() {
+    private synchronized void loadRowsIfNecessary() {
         if (rows.isEmpty() && total_rows > 0) {
             for (Iterator<JSONObject> iterator = json.getJSONArray("rows").iterator(); iterator.hasNext();) {
                 JSONObject viewResultRow = iterator.next();
-                rows.add(new JsonViewResultRow(viewResultRow, this.database));
+                rows.add(new JsonViewResultRow(viewResultRow, this.database, this));
             }
         }
     }
@@ -29,29 +29,37 @@ import net.sf.json.JSONObject;
 
 import org.couch4j.api.Document;
 import org.couch4j.api.ViewResultRow;
-import org.couch4j.annotations.Immutable;
+import org.couch4j.annotations.ThreadSafe;
 import org.couch4j.exceptions.Couch4JException;
 
 /**
  * @author Stefan Saasen
  */
-@Immutable
+@ThreadSafe
 final class JsonViewResultRow implements ViewResultRow {
     private final String id;
     private final String key;
     private final JSONObject json;
     private final JsonAwareDatabase database;
+    private final DocumentLoader loader;
 
-    // private final JSONObject json;
+    private ResponseDocument document;
+
+    JsonViewResultRow(JSONObject json, JsonAwareDatabase database) {
+        this(json, database, null);
+    }
 
     /**
-     * @param next
+     * @param loader
+     *            Used to load the document if the row only references the
+     *            document, may be null.
      */
-    JsonViewResultRow(JSONObject json, JsonAwareDatabase database) {
+    JsonViewResultRow(JSONObject json, JsonAwareDatabase database, DocumentLoader loader) {
         this.json = json;
         this.key = json.getString("key");
         this.id = json.getString("id");
         this.database = database;
+        this.loader = loader;
     }
 
     public String getId() {
@@ -62,8 +70,8 @@ final class JsonViewResultRow implements ViewResultRow {
         return key;
     }
 
-    public Document getDocument() {
-        if (json != null) {
+    public synchronized Document getDocument() {
+        if (null == document) {
             try {
                 ResponseDocument d;
                 // If the value includes the document (include_docs = true)
@@ -71,24 +79,34 @@ final class JsonViewResultRow implements ViewResultRow {
                 if (json.containsKey("doc")) {
                     d = new ResponseDocument(json.getJSONObject("doc"));
                 } else {
-
-                    // Create a document stub that is able to lazily fetch the
-                    // document
-                    // content
-                    if (json.containsKey("value")) {
-                        JSONObject value = json.getJSONObject("value");
-                        d = new ResponseDocument(value);
+                    Object value = json.get("value");
+                    if (value instanceof JSONObject && ((JSONObject) value).has("_id")) {
+                        d = new ResponseDocument((JSONObject) value);
                     } else {
+                        // Create a document stub that is able to lazily fetch
+                        // the document content
                         d = new ResponseDocument(this.id);
+                        d.setLoader(this.loader);
                     }
                 }
                 d.setDatabase(this.database);
-                return d;
+                document = d;
             } catch (net.sf.json.JSONException e) {
                 throw new Couch4JException(e);
             }
         }
-        return null; // TODO Fetch from database
+        return document;
+    }
+
+    /**
+     * @return the document stub of this row if the document has been requested
+     *         but not been loaded yet, null otherwise.
+     */
+    synchronized ResponseDocument unloadedDocument() {
+        if (null != document && !document.isLoaded()) {
+            return document;
+        }
+        return null;
     }
 
     public JSONObject getValueAsObject() {
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits a byte stream into newline terminated lines without decoding or
+ * copying them.
+ * <p>
+ * After {@link #next()} returned true the current line is available as the
+ * region {@link #lineStart()} to {@code lineStart() + lineLength()} of
+ * {@link #buffer()}. The region is only valid until the next call to
+ * {@link #next()}. A trailing {@code '\r'} is not part of the line.
+ * <p>
+ * This class is not thread safe.
+ * 
+ * @author Stefan Saasen
+ */
+final class LineFramer {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    // Start of the unconsumed data
+    private int pos;
+    // End of the valid data
+    private int limit;
+    // Position up to which the unconsumed data was searched for a newline
+    private int scanned;
+    private int lineStart;
+    private int lineLength;
+    private boolean eof;
+
+    LineFramer(final InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Advances to the next line.
+     * 
+     * @return false if the end of the stream was reached.
+     */
+    boolean next() throws IOException {
+        for (;;) {
+            for (int i = scanned; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    int end = i > pos && buffer[i - 1] == '\r' ? i - 1 : i;
+                    setLine(pos, end - pos);
+                    pos = i + 1;
+                    scanned = pos;
+                    return true;
+                }
+            }
+            scanned = limit;
+            if (eof) {
+                if (pos < limit) {
+                    // Last line without a newline
+                    setLine(pos, limit - pos);
+                    pos = limit;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    private void setLine(int start, int length) {
+        this.lineStart = start;
+        this.lineLength = length;
+    }
+
+    private void fill() throws IOException {
+        if (pos > 0) {
+            // Move the incomplete line to the start of the buffer
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            scanned -= pos;
+            pos = 0;
+        }
+        if (limit == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+        }
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int lineStart() {
+        return lineStart;
+    }
+
+    int lineLength() {
+        return lineLength;
+    }
+}
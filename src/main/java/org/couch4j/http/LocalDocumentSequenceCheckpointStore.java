@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import net.sf.json.JSONObject;
+
+import org.couch4j.api.Database;
+import org.couch4j.api.Document;
+import org.couch4j.api.SequenceCheckpointStore;
+import org.couch4j.api.ServerResponse;
+import org.couch4j.exceptions.DocumentNotFoundException;
+import org.couch4j.exceptions.DocumentUpdateConflictException;
+
+/**
+ * Stores the checkpoint in a {@code _local} document of a CouchDB database.
+ * Local documents are not replicated, the checkpoint therefore belongs to
+ * the database it is stored in.
+ * 
+ * @couchdbApi http://wiki.apache.org/couchdb/HTTP_Document_API
+ * @author Stefan Saasen
+ */
+public final class LocalDocumentSequenceCheckpointStore implements SequenceCheckpointStore {
+
+    private static final String SEQ = "seq";
+
+    private final Database database;
+    private final String documentId;
+    private volatile String rev;
+
+    /**
+     * @param database
+     *            The database that stores the checkpoint (usually the
+     *            database whose changes are processed).
+     * @param name
+     *            The name of the checkpoint, i.e. the document
+     *            {@code _local/<name>}.
+     */
+    public LocalDocumentSequenceCheckpointStore(final Database database, final String name) {
+        this.database = database;
+        this.documentId = "_local/" + name;
+    }
+
+    public String load() {
+        try {
+            Document d = database.fetchDocument(documentId);
+            rev = d.getRev();
+            Object seq = d.get(SEQ);
+            return null == seq ? null : seq.toString();
+        } catch (DocumentNotFoundException e) {
+            return null;
+        }
+    }
+
+    public void store(String seq) {
+        try {
+            save(seq);
+        } catch (DocumentUpdateConflictException e) {
+            // The document was changed elsewhere, retry with its current
+            // revision
+            load();
+            save(seq);
+        }
+    }
+
+    private void save(String seq) {
+        JSONObject json = new JSONObject();
+        json.put(SEQ, seq);
+        if (null != rev) {
+            json.put("_rev", rev);
+        }
+        ServerResponse response = database.saveDocument(documentId, json);
+        rev = response.getRev();
+    }
+
+    @Override
+    public String toString() {
+        return "LocalDocumentSequenceCheckpointStore [database=" + database.getName() + ", documentId=" + documentId
+                + "]";
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.StreamingViewResult;
+import org.couch4j.api.ViewResultRow;
+import org.couch4j.exceptions.Couch4JException;
+
+/**
+ * Reads a number of {@link StreamingViewResult}s (e.g. the partitions of a
+ * view) concurrently and returns their rows as a single result. The rows of
+ * the different results are interleaved in the order they are read, the rows
+ * of a single result keep their order.
+ * <p>
+ * Every result is read by its own daemon thread: the readers block on the
+ * bounded row buffer for as long as the result is iterated and would
+ * otherwise occupy the threads of the shared asynchronous executor.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class MergedViewResult implements StreamingViewResult {
+
+    static final int BUFFER_SIZE = 1000;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    /**
+     * Marks the end of one of the results.
+     */
+    private static final Object END = new Object();
+
+    private final List<StreamingViewResult> results;
+    private final BlockingQueue<Object> rows;
+    private final List<Thread> readers = new ArrayList<Thread>();
+
+    private boolean iterated;
+    private volatile boolean closed;
+
+    MergedViewResult(List<StreamingViewResult> results) {
+        this(results, BUFFER_SIZE);
+    }
+
+    MergedViewResult(List<StreamingViewResult> results, int bufferSize) {
+        if (results.isEmpty()) {
+            throw new IllegalArgumentException("results must not be empty");
+        }
+        this.results = new ArrayList<StreamingViewResult>(results);
+        this.rows = new ArrayBlockingQueue<Object>(bufferSize);
+    }
+
+    public int getTotalRows() {
+        return results.get(0).getTotalRows();
+    }
+
+    public int getOffset() {
+        return results.get(0).getOffset();
+    }
+
+    public synchronized Iterator<ViewResultRow> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("A StreamingViewResult can only be iterated once.");
+        }
+        iterated = true;
+        if (!closed) {
+            for (StreamingViewResult result : results) {
+                Thread reader = new Thread(new Reader(result), "couch4j-partition-" + THREADS.incrementAndGet());
+                reader.setDaemon(true);
+                readers.add(reader);
+                reader.start();
+            }
+        }
+        return new Iterator<ViewResultRow>() {
+            private int running = closed ? 0 : results.size();
+            private ViewResultRow next;
+
+            public boolean hasNext() {
+                while (null == next && running > 0 && !closed) {
+                    Object o = take();
+                    if (END == o) {
+                        running--;
+                    } else if (o instanceof RuntimeException) {
+                        close();
+                        throw (RuntimeException) o;
+                    } else {
+                        next = (ViewResultRow) o;
+                    }
+                }
+                return null != next;
+            }
+
+            public ViewResultRow next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ViewResultRow row = next;
+                next = null;
+                return row;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("A StreamingViewResult is read-only.");
+            }
+        };
+    }
+
+    private Object take() {
+        try {
+            return rows.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new Couch4JException(e);
+        }
+    }
+
+    /**
+     * Closes all results and stops the readers.
+     */
+    public void close() {
+        closed = true;
+        for (StreamingViewResult result : results) {
+            result.close();
+        }
+        synchronized (this) {
+            for (Thread reader : readers) {
+                reader.interrupt();
+            }
+        }
+    }
+
+    private final class Reader implements Runnable {
+        private final StreamingViewResult result;
+
+        Reader(StreamingViewResult result) {
+            this.result = result;
+        }
+
+        public void run() {
+            try {
+                try {
+                    for (ViewResultRow row : result) {
+                        if (closed) {
+                            return;
+                        }
+                        rows.put(row);
+                    }
+                    rows.put(END);
+                } catch (RuntimeException e) {
+                    if (!closed) {
+                        rows.put(e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closed
+            } finally {
+                result.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.exceptions.Couch4JException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal, non-blocking HTTP/1.1 client for the requests of the
+ * asynchronous database API.
+ * <p>
+ * Each I/O thread runs a {@link Selector} and owns up to
+ * {@code maxConnectionsPerThread} persistent connections. Requests are
+ * assigned to the I/O threads round robin and are queued while all
+ * connections of the thread are busy, i.e. an arbitrary number of requests
+ * can be in flight without blocking a thread per request. Responses are
+ * read completely (using {@code Content-Length}, chunked transfer encoding
+ * or the end of the connection) before the future is completed on the I/O
+ * thread.
+ * <p>
+ * A request that fails on a reused connection before any response bytes
+ * were received (e.g. because the server closed the idle connection) is
+ * retried once on a new connection.
+ * <p>
+ * Work that must not run on an I/O thread but cannot be handed to its
+ * regular executor (e.g. because the executor is saturated) can be passed to
+ * the {@link #completions() completion executor}.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class NioHttpTransport {
+
+    private final static Logger logger = LoggerFactory.getLogger(NioHttpTransport.class);
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private static final ThreadLocal<Boolean> IO_THREAD = new ThreadLocal<Boolean>();
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * A complete HTTP response.
+     */
+    static final class Response {
+        private final int status;
+        private final byte[] body;
+
+        Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String text() {
+            return new String(body, UTF_8);
+        }
+    }
+
+    private final String host;
+    private final InetSocketAddress address;
+    private final int maxConnectionsPerThread;
+    private final long timeout;
+    private final IoThread[] ioThreads;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean shutdown;
+    private final ThreadPoolExecutor completions;
+
+    /**
+     * @param ioThreads
+     *            The number of I/O threads.
+     * @param maxConnectionsPerThread
+     *            The maximum number of connections per I/O thread.
+     * @param timeout
+     *            The time in milliseconds a request may take (0 for no
+     *            timeout).
+     */
+    NioHttpTransport(String host, int port, int ioThreads, int maxConnectionsPerThread, long timeout) {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("ioThreads has to be greater than 0 but was " + ioThreads);
+        }
+        if (maxConnectionsPerThread < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerThread has to be greater than 0 but was "
+                    + maxConnectionsPerThread);
+        }
+        this.host = host + ":" + port;
+        this.address = new InetSocketAddress(host, port);
+        this.maxConnectionsPerThread = maxConnectionsPerThread;
+        this.timeout = timeout;
+        this.ioThreads = new IoThread[ioThreads];
+        this.completions = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger thread = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "couch4j-nio-completion-" + thread.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            for (int i = 0; i < ioThreads; i++) {
+                this.ioThreads[i] = new IoThread(Selector.open());
+                Thread t = new Thread(this.ioThreads[i], "couch4j-nio-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw new Couch4JException(e);
+        }
+    }
+
+    /**
+     * @param url
+     *            The absolute URL of the resource.
+     * @param body
+     *            The JSON request body or null.
+     * @return the future response. Responses with an error status complete
+     *         the future normally, only I/O errors fail the future.
+     */
+    DatabaseFutureTask<Response> execute(String method, String url, String body) {
+        Exchange exchange = new Exchange(method, path(url), null == body ? null : body.getBytes(UTF_8));
+        if (shutdown) {
+            exchange.future.fail(new Couch4JException(new IllegalStateException("The transport has been shut down")));
+            return exchange.future;
+        }
+        IoThread t = ioThreads[(next.getAndIncrement() & Integer.MAX_VALUE) % ioThreads.length];
+        t.submit(exchange);
+        return exchange.future;
+    }
+
+    /**
+     * @return the path and query of the absolute URL.
+     */
+    static String path(String url) {
+        int scheme = url.indexOf("://");
+        int slash = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        return slash < 0 ? "/" : url.substring(slash);
+    }
+
+    /**
+     * Closes all connections, pending requests fail.
+     */
+    void shutdown() {
+        shutdown = true;
+        completions.shutdown();
+        for (IoThread t : ioThreads) {
+            if (null != t) {
+                t.selector.wakeup();
+            }
+        }
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    /**
+     * @return true if the current thread is an I/O thread of a transport.
+     */
+    static boolean isIoThread() {
+        return null != IO_THREAD.get();
+    }
+
+    /**
+     * @return an executor for completions that could not be handed off
+     *         otherwise. It starts a (daemon) thread per concurrent task, i.e.
+     *         a task waiting for another completion cannot block it. Idle
+     *         threads terminate after a minute.
+     */
+    Executor completions() {
+        return completions;
+    }
+
+    private final class Exchange {
+        private final String method;
+        private final String path;
+        private final byte[] body;
+        private final DatabaseFutureTask<Response> future = DatabaseFutureTask.create();
+        private boolean retried;
+        private long deadline;
+
+        Exchange(String method, String path, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+
+        ByteBuffer encode() {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+            sb.append("Host: ").append(host).append("\r\n");
+            sb.append("Accept: application/json\r\n");
+            if (null != body) {
+                sb.append("Content-Type: application/json\r\n");
+                sb.append("Content-Length: ").append(body.length).append("\r\n");
+            } else if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                sb.append("Content-Length: 0\r\n");
+            }
+            sb.append("\r\n");
+            byte[] head = sb.toString().getBytes(ASCII);
+            ByteBuffer buffer = ByteBuffer.allocate(head.length + (null == body ? 0 : body.length));
+            buffer.put(head);
+            if (null != body) {
+                buffer.put(body);
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private static final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private Exchange exchange;
+        private ByteBuffer out;
+        private HttpResponseParser parser;
+        private boolean reused;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final class IoThread implements Runnable {
+        private final Selector selector;
+        private final Queue<Exchange> submitted = new ConcurrentLinkedQueue<Exchange>();
+
+        // Only accessed by the I/O thread
+        private final ArrayDeque<Exchange> waiting = new ArrayDeque<Exchange>();
+        private final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+        private final Set<Connection> busy = new HashSet<Connection>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private int open;
+        private volatile boolean closed;
+
+        IoThread(Selector selector) {
+            this.selector = selector;
+        }
+
+        void submit(Exchange exchange) {
+            submitted.add(exchange);
+            if (closed) {
+                // The thread has drained the queue already (or is draining
+                // it): exchanges submitted in the meantime would never
+                // complete.
+                failSubmitted();
+            } else {
+                selector.wakeup();
+            }
+        }
+
+        private void failSubmitted() {
+            Exchange e;
+            while (null != (e = submitted.poll())) {
+                e.future.fail(new Couch4JException(new IllegalStateException("The transport has been shut down")));
+            }
+        }
+
+        public void run() {
+            IO_THREAD.set(Boolean.TRUE);
+            try {
+                while (!shutdown) {
+                    selector.select(SELECT_TIMEOUT);
+                    Exchange e;
+                    while (null != (e = submitted.poll())) {
+                        dispatch(e);
+                    }
+                    for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        handle((Connection) key.attachment(), key);
+                    }
+                    expire();
+                }
+            } catch (IOException e) {
+                logger.error("I/O thread failed", e);
+            } catch (ClosedSelectorException e) {
+                // shut down
+            } finally {
+                close();
+            }
+        }
+
+        private void dispatch(Exchange exchange) {
+            if (timeout > 0 && exchange.deadline == 0) {
+                exchange.deadline = System.currentTimeMillis() + timeout;
+            }
+            Connection c = idle.pollFirst();
+            if (null != c) {
+                c.reused = true;
+                assign(c, exchange);
+                return;
+            }
+            if (open >= maxConnectionsPerThread) {
+                waiting.addLast(exchange);
+                return;
+            }
+            try {
+                SocketChannel channel = SocketChannel.open();
+                open++;
+                c = new Connection(channel);
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                boolean connected = channel.connect(address);
+                c.key = channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, c);
+                c.exchange = exchange;
+                busy.add(c);
+                if (connected) {
+                    assign(c, exchange);
+                }
+            } catch (IOException e) {
+                if (null != c) {
+                    closeConnection(c);
+                }
+                exchange.future.fail(new Couch4JException(e));
+            }
+        }
+
+        private void assign(Connection c, Exchange exchange) {
+            c.exchange = exchange;
+            c.out = exchange.encode();
+            c.parser = new HttpResponseParser("HEAD".equals(exchange.method));
+            busy.add(c);
+            c.key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void handle(Connection c, SelectionKey key) {
+            try {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isConnectable()) {
+                    c.channel.finishConnect();
+                    assign(c, c.exchange);
+                    return;
+                }
+                if (key.isWritable()) {
+                    c.channel.write(c.out);
+                    if (!c.out.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                    return;
+                }
+                if (key.isReadable()) {
+                    read(c);
+                }
+            } catch (IOException e) {
+                failed(c, e);
+            } catch (RuntimeException e) {
+                failed(c, e);
+            }
+        }
+
+        private void read(Connection c) throws IOException {
+            readBuffer.clear();
+            int n = c.channel.read(readBuffer);
+            if (null == c.exchange) {
+                // Idle connection: closed by the server (or unexpected data)
+                closeConnection(c);
+                return;
+            }
+            if (n < 0) {
+                if (!c.parser.endOfStream()) {
+                    throw new IOException("Connection closed by the server");
+                }
+            } else {
+                readBuffer.flip();
+                c.parser.feed(readBuffer);
+            }
+            if (!c.parser.isComplete()) {
+                return;
+            }
+            Exchange exchange = c.exchange;
+            HttpResponseParser parser = c.parser;
+            c.exchange = null;
+            c.parser = null;
+            busy.remove(c);
+            if (n >= 0 && parser.keepAlive()) {
+                release(c);
+            } else {
+                closeConnection(c);
+                dispatchWaiting();
+            }
+            exchange.future.complete(parser.response());
+        }
+
+        private void release(Connection c) {
+            Exchange next = waiting.pollFirst();
+            if (null != next) {
+                c.reused = true;
+                assign(c, next);
+            } else {
+                idle.addFirst(c);
+                c.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void dispatchWaiting() {
+            while (open < maxConnectionsPerThread && !waiting.isEmpty()) {
+                dispatch(waiting.pollFirst());
+            }
+        }
+
+        private void failed(Connection c, Exception e) {
+            Exchange exchange = c.exchange;
+            boolean started = null != c.parser && c.parser.started();
+            boolean reused = c.reused;
+            closeConnection(c);
+            if (null != exchange) {
+                if (reused && !started && !exchange.retried) {
+                    exchange.retried = true;
+                    dispatch(exchange);
+                } else {
+                    exchange.future.fail(new Couch4JException(e));
+                }
+            }
+            dispatchWaiting();
+        }
+
+        private void expire() {
+            if (timeout <= 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for (Connection c : new ArrayList<Connection>(busy)) {
+                if (null != c.exchange && now > c.exchange.deadline) {
+                    Exchange exchange = c.exchange;
+                    c.exchange = null;
+                    closeConnection(c);
+                    exchange.future.fail(new Couch4JException(new SocketTimeoutException("No response within "
+                            + timeout + "ms")));
+                }
+            }
+            for (Iterator<Exchange> it = waiting.iterator(); it.hasNext();) {
+                Exchange exchange = it.next();
+                if (now > exchange.deadline) {
+                    it.remove();
+                    exchange.future.fail(new Couch4JException(new SocketTimeoutException("No connection within "
+                            + timeout + "ms")));
+                }
+            }
+            dispatchWaiting();
+        }
+
+        private void closeConnection(Connection c) {
+            busy.remove(c);
+            idle.remove(c);
+            open--;
+            if (null != c.key) {
+                c.key.cancel();
+            }
+            try {
+                c.channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        private void close() {
+            this.closed = true;
+            Couch4JException closed = new Couch4JException(new IllegalStateException(
+                    "The transport has been shut down"));
+            for (Connection c : new ArrayList<Connection>(busy)) {
+                if (null != c.exchange) {
+                    c.exchange.future.fail(closed);
+                }
+                closeConnection(c);
+            }
+            for (Connection c : new ArrayList<Connection>(idle)) {
+                closeConnection(c);
+            }
+            Exchange e;
+            while (null != (e = waiting.pollFirst())) {
+                e.future.fail(closed);
+            }
+            failSubmitted();
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+}
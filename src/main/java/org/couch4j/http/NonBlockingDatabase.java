@@ -0,0 +1,383 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.couch4j.util.CollectionUtils.map;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.sf.json.JSONObject;
+
+import org.couch4j.api.AsynchronousDatabase.AsyncToken;
+import org.couch4j.api.AsynchronousDatabase.ResponseHandler;
+import org.couch4j.api.DatabaseFuture;
+import org.couch4j.api.Document;
+import org.couch4j.api.FutureDatabase;
+import org.couch4j.api.JsonExportable;
+import org.couch4j.api.ServerResponse;
+import org.couch4j.api.StreamingViewResult;
+import org.couch4j.api.ViewQuery;
+import org.couch4j.api.ViewResult;
+
+/**
+ * {@link FutureDatabase} that sends the document and view requests using the
+ * {@link NioHttpTransport}, i.e. without occupying a thread while the request
+ * is in flight. The response is converted on the given executor, the
+ * handlers of the returned futures run on the executor as well (and never on
+ * an I/O thread of the transport).
+ * <p>
+ * Operations that stream data (attachments, streaming views), that are split
+ * into several requests (bulk operations) or that would bypass the write
+ * batching, the view cache or the {@code ETag} revalidation are delegated to
+ * the executor based implementation. {@code GET} requests join identical
+ * requests that are in flight, blocking or not.
+ * 
+ * @author Stefan Saasen
+ */
+final class NonBlockingDatabase implements FutureDatabase {
+
+    /**
+     * Converts the JSON response of a request.
+     */
+    private interface Conversion<T> {
+        T convert(int status, JSONObject json);
+    }
+
+    private final DatabaseImpl database;
+    private final NioHttpTransport transport;
+    private final FutureDatabase fallback;
+    private final Executor executor;
+
+    NonBlockingDatabase(DatabaseImpl database, NioHttpTransport transport, FutureDatabase fallback,
+            Executor executor) {
+        this.database = database;
+        this.transport = transport;
+        this.fallback = fallback;
+        this.executor = executor;
+    }
+
+    private <T> DatabaseFuture<T> request(String method, String url, String body, final Conversion<T> conversion) {
+        final DatabaseFutureTask<T> result = DatabaseFutureTask.create();
+        transport.execute(method, url, body).addHandler(new ResponseHandler<NioHttpTransport.Response>() {
+            public void completed(final NioHttpTransport.Response response, AsyncToken token) {
+                handOff(result, new Runnable() {
+                    public void run() {
+                        try {
+                            result.complete(conversion.convert(response.getStatus(), JSONObject.fromObject(response
+                                    .text())));
+                        } catch (Exception e) {
+                            result.fail(e);
+                        }
+                    }
+                });
+            }
+
+            public void failed(final Exception e) {
+                handOff(result, new Runnable() {
+                    public void run() {
+                        result.fail(e);
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs the completion of a request (called on an I/O thread) on the
+     * executor. Neither the conversion nor the handlers of the future may run
+     * on the I/O thread: that would stall all connections of the thread and a
+     * handler waiting for another request of the same thread would never
+     * return. A task that the executor rejects or runs on the calling thread
+     * (e.g. due to a caller-runs policy) is passed to the completion executor
+     * of the transport instead.
+     */
+    private void handOff(final DatabaseFutureTask<?> result, final Runnable task) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (NioHttpTransport.isIoThread()) {
+                        complete(result, task);
+                    } else {
+                        task.run();
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            complete(result, new Runnable() {
+                public void run() {
+                    result.fail(e);
+                }
+            });
+        }
+    }
+
+    private void complete(DatabaseFutureTask<?> result, Runnable task) {
+        try {
+            transport.completions().execute(task);
+        } catch (RejectedExecutionException e) {
+            // The transport has been shut down, nothing else can be blocked
+            result.fail(e);
+        }
+    }
+
+    private static <T> DatabaseFuture<T> failed(Exception e) {
+        DatabaseFutureTask<T> future = DatabaseFutureTask.create();
+        future.fail(e);
+        return future;
+    }
+
+    /**
+     * Joins an identical request that is in flight (blocking or not). The
+     * result is handed off to the executor as the shared request might be
+     * completed by a blocking caller.
+     */
+    private DatabaseFuture<JSONObject> get(final String url) {
+        final DatabaseFutureTask<JSONObject> result = DatabaseFutureTask.create();
+        database.inFlight().getAsync(url, new Callable<DatabaseFuture<JSONObject>>() {
+            public DatabaseFuture<JSONObject> call() {
+                return request("GET", url, null, new Conversion<JSONObject>() {
+                    public JSONObject convert(int status, JSONObject json) {
+                        HttpConnectionManager.checkStatus(status, json);
+                        return json;
+                    }
+                });
+            }
+        }).addHandler(new ResponseHandler<JSONObject>() {
+            public void completed(final JSONObject json, AsyncToken token) {
+                handOff(result, new Runnable() {
+                    public void run() {
+                        result.complete(json);
+                    }
+                });
+            }
+
+            public void failed(final Exception e) {
+                handOff(result, new Runnable() {
+                    public void run() {
+                        result.fail(e);
+                    }
+                });
+            }
+        });
+        return result;
+    }
+
+    private DatabaseFuture<ServerResponse> update(String method, String url, String body) {
+        return request(method, url, body, new Conversion<ServerResponse>() {
+            public ServerResponse convert(int status, JSONObject json) {
+                HttpConnectionManager.checkUpdateStatus(status, json);
+                return database.written(JsonServerResponse.fromJson(json));
+            }
+        });
+    }
+
+    private Document document(JSONObject json) {
+        ResponseDocument d = new ResponseDocument(json);
+        d.setDatabase(database);
+        return d;
+    }
+
+    /**
+     * @return the latest revision of the document, either from the document
+     *         cache (if enabled) or the server.
+     */
+    private DatabaseFuture<JSONObject> jsonForDocument(final String docId) {
+        final DocumentCache cache = database.documentCache();
+        String url = database.urlForPath(docId);
+        if (null == cache) {
+            return get(url);
+        }
+        String cached = cache.get(docId);
+        if (null != cached) {
+            DatabaseFutureTask<JSONObject> future = DatabaseFutureTask.create();
+            future.complete(JSONObject.fromObject(cached));
+            return future;
+        }
+        final long generation = cache.generation();
+        return get(url).transform(new DatabaseFuture.Transformer<JSONObject, JSONObject>() {
+            public JSONObject apply(JSONObject json) {
+                cache.put(docId, json.toString(), generation);
+                return json;
+            }
+        });
+    }
+
+    public DatabaseFuture<List<ServerResponse>> bulkSave(Collection<Document> docs) {
+        return fallback.bulkSave(docs);
+    }
+
+    public DatabaseFuture<List<ServerResponse>> bulkSave(Collection<Document> docs, int chunkSize) {
+        return fallback.bulkSave(docs, chunkSize);
+    }
+
+    public DatabaseFuture<ServerResponse> delete() {
+        return fallback.delete();
+    }
+
+    public DatabaseFuture<ServerResponse> deleteDocument(final Document doc) {
+        final String id = doc.getId();
+        String url = database.urlForPath(id, map("rev", doc.getRev()));
+        return update("DELETE", url, null).transform(new DatabaseFuture.Transformer<ServerResponse, ServerResponse>() {
+            public ServerResponse apply(ServerResponse response) {
+                doc.put("_id", id);
+                doc.put("_rev", response.getRev());
+                return response;
+            }
+        });
+    }
+
+    public DatabaseFuture<ViewResult> fetchAllDocuments() {
+        return fetchAllDocuments(false);
+    }
+
+    public DatabaseFuture<ViewResult> fetchAllDocuments(boolean includeDocs) {
+        return fetchView(ViewQuery.builder("_all_docs").includeDocs(includeDocs).build());
+    }
+
+    public DatabaseFuture<Document> fetchDocument(String docId) {
+        if (database.conditionalRequestsEnabled()) {
+            return fallback.fetchDocument(docId);
+        }
+        return jsonForDocument(docId).transform(new DatabaseFuture.Transformer<JSONObject, Document>() {
+            public Document apply(JSONObject json) {
+                return document(json);
+            }
+        });
+    }
+
+    public DatabaseFuture<Document> fetchDocument(String docId, String rev) {
+        if (database.conditionalRequestsEnabled()) {
+            return fallback.fetchDocument(docId, rev);
+        }
+        return get(database.urlForPath(docId, map("rev", rev))).transform(
+                new DatabaseFuture.Transformer<JSONObject, Document>() {
+                    public Document apply(JSONObject json) {
+                        return document(json);
+                    }
+                });
+    }
+
+    public DatabaseFuture<List<Document>> fetchDocuments(Collection<String> docIds) {
+        return fallback.fetchDocuments(docIds);
+    }
+
+    public <T> DatabaseFuture<T> fetchObject(String docId, Class<T> clazz) {
+        if (database.conditionalRequestsEnabled()) {
+            return fallback.fetchObject(docId, clazz);
+        }
+        return jsonForDocument(docId).transform(new ToBean<T>(clazz));
+    }
+
+    public <T> DatabaseFuture<T> fetchObject(String docId, String rev, Class<T> clazz) {
+        if (database.conditionalRequestsEnabled()) {
+            return fallback.fetchObject(docId, rev, clazz);
+        }
+        return get(database.urlForPath(docId, map("rev", rev))).transform(new ToBean<T>(clazz));
+    }
+
+    private static final class ToBean<T> implements DatabaseFuture.Transformer<JSONObject, T> {
+        private final Class<T> clazz;
+
+        ToBean(Class<T> clazz) {
+            this.clazz = clazz;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T apply(JSONObject json) {
+            return (T) JSONObject.toBean(json, clazz);
+        }
+    }
+
+    public DatabaseFuture<ViewResult> fetchView(ViewQuery v) {
+        if (database.viewCacheEnabled() || database.conditionalRequestsEnabled()) {
+            return fallback.fetchView(v);
+        }
+        return get(database.urlForPath(v.queryString())).transform(
+                new DatabaseFuture.Transformer<JSONObject, ViewResult>() {
+                    public ViewResult apply(JSONObject json) {
+                        return new JsonViewResult(json, database);
+                    }
+                });
+    }
+
+    public DatabaseFuture<StreamingViewResult> streamView(ViewQuery v) {
+        return fallback.streamView(v);
+    }
+
+    public DatabaseFuture<ServerResponse> saveDocument(Object object) {
+        if (database.writeBatchingEnabled()) {
+            return fallback.saveDocument(object);
+        }
+        if (object instanceof Document) {
+            return saveDocument((Document) object);
+        }
+        String json;
+        try {
+            json = JSONObject.fromObject(object).toString();
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        return update("POST", database.baseUrl(), json);
+    }
+
+    private DatabaseFuture<ServerResponse> saveDocument(final Document doc) {
+        DatabaseFuture<ServerResponse> response;
+        if (null == doc.getId()) {
+            response = update("POST", database.baseUrl(), doc.toJson());
+        } else {
+            response = update("PUT", database.urlForPath(doc.getId()), doc.toJson());
+        }
+        return response.transform(new DatabaseFuture.Transformer<ServerResponse, ServerResponse>() {
+            public ServerResponse apply(ServerResponse response) {
+                doc.put("_id", response.getId());
+                doc.put("_rev", response.getRev());
+                return response;
+            }
+        });
+    }
+
+    public DatabaseFuture<ServerResponse> saveDocument(String documentId, Object object) {
+        String json;
+        try {
+            if (object instanceof JsonExportable) {
+                json = ((JsonExportable) object).toJSONObject().toString();
+            } else {
+                json = JSONObject.fromObject(object).toString();
+            }
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        return update("PUT", database.urlForPath(documentId), json);
+    }
+
+    public DatabaseFuture<ServerResponse> storeAttachment(String documentId, String attachmentName, InputStream is) {
+        return fallback.storeAttachment(documentId, attachmentName, is);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.couch4j.exceptions.Couch4JException;
+
+/**
+ * Runs a number of independent tasks (e.g. the chunks of a bulk request) in
+ * parallel.
+ * <p>
+ * The calling thread takes part in the execution: every task that has not
+ * been picked up by the executor yet is run by the caller. This means the
+ * tasks can safely be submitted from a thread of the same (bounded) executor
+ * without risking a deadlock.
+ * 
+ * @author Stefan Saasen
+ */
+final class ParallelTasks {
+
+    private ParallelTasks() {
+        throw new AssertionError("ParallelTasks should not be instantiated");
+    }
+
+    /**
+     * Executes all tasks and returns their results in the order of the given
+     * list. If a task fails the exception of the first failed task is
+     * re-thrown after all tasks completed.
+     */
+    static <T> List<T> invokeAll(final Executor executor, final List<? extends Callable<T>> tasks) {
+        if (tasks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (tasks.size() == 1) {
+            return Collections.singletonList(call(tasks.get(0)));
+        }
+
+        List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(new FutureTask<T>(task));
+        }
+        // The first task is always executed by the caller
+        for (int i = 1; i < futures.size(); i++) {
+            try {
+                executor.execute(futures.get(i));
+            } catch (RejectedExecutionException e) {
+                // ignore - the task will be run by the calling thread
+            }
+        }
+        // FutureTask.run() is a no-op for tasks that have already been
+        // started by the executor.
+        for (FutureTask<T> future : futures) {
+            future.run();
+        }
+
+        List<T> results = new ArrayList<T>(futures.size());
+        RuntimeException failure = null;
+        for (FutureTask<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new Couch4JException(e);
+            } catch (ExecutionException e) {
+                if (null == failure) {
+                    failure = unwrap(e.getCause());
+                }
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new Couch4JException(e);
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new Couch4JException(t);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import net.sf.json.JSONArray;
+import net.sf.json.util.JSONUtils;
+
+import org.couch4j.api.DatabaseFuture;
+import org.couch4j.api.FutureDatabase;
+import org.couch4j.api.ViewQuery;
+import org.couch4j.api.ViewResult;
+import org.couch4j.api.ViewResultRow;
+import org.couch4j.exceptions.Couch4JException;
+
+/**
+ * Splits the key range of a view query into partitions that can be read
+ * concurrently.
+ * <p>
+ * Partition {@code i} starts at split key {@code i - 1} (inclusive) and ends
+ * at split key {@code i} (exclusive). The first and the last partition keep
+ * the start and the end of the original query, rows with the same key always
+ * end up in the same partition.
+ * 
+ * @author Stefan Saasen
+ */
+final class PartitionedViewScan {
+
+    private PartitionedViewScan() {
+        throw new AssertionError("PartitionedViewScan should not be instantiated");
+    }
+
+    /**
+     * @param splitKeys
+     *            The keys (in the order of the view) that separate the
+     *            partitions. Adjacent equal keys are ignored.
+     * @return {@code splitKeys.size() + 1} queries that together return the
+     *         rows of the query.
+     */
+    static List<ViewQuery> partitions(ViewQuery query, List<?> splitKeys) {
+        checkQuery(query);
+        if (null == splitKeys) {
+            throw new IllegalArgumentException("splitKeys must not be null");
+        }
+        List<String> splits = new ArrayList<String>(splitKeys.size());
+        for (Object key : splitKeys) {
+            String json = keyJson(key);
+            if (splits.isEmpty() || !splits.get(splits.size() - 1).equals(json)) {
+                splits.add(json);
+            }
+        }
+        List<ViewQuery> partitions = new ArrayList<ViewQuery>(splits.size() + 1);
+        for (int i = 0; i <= splits.size(); i++) {
+            ViewQuery.ViewQueryBuilder builder = query.toBuilder();
+            if (i > 0) {
+                builder.startkeyJson(splits.get(i - 1)).remove("startkey_docid");
+            }
+            if (i < splits.size()) {
+                builder.endkeyJson(splits.get(i)).remove("endkey_docid").inclusiveEnd(false);
+            }
+            partitions.add(builder.build());
+        }
+        return partitions;
+    }
+
+    /**
+     * Samples split keys that divide the rows of the query into
+     * {@code partitions} partitions of (roughly) the same size.
+     * <p>
+     * The number of rows in the key range is derived from the offsets of its
+     * start and its end. The split keys are then fetched one after the other,
+     * each request starts at the previous split key (and document id) and
+     * skips the rows of one partition. CouchDB skips rows by walking the
+     * index, i.e. sampling reads every row of the index once (without loading
+     * documents) but does not read the rows before a split key again for
+     * every sample as a {@code skip} from the start of the range would.
+     * 
+     * @return at most {@code partitions - 1} split keys.
+     */
+    static List<Object> sampleSplitKeys(FutureDatabase database, ViewQuery query, int partitions) {
+        checkQuery(query);
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions has to be greater than 0 but was " + partitions);
+        }
+        List<Object> keys = new ArrayList<Object>(partitions - 1);
+        if (partitions == 1) {
+            return keys;
+        }
+
+        DatabaseFuture<ViewResult> start = database.fetchView(query.toBuilder().includeDocs(false).limit(0).build());
+        DatabaseFuture<ViewResult> end = null;
+        String endkey = query.getParameter("endkey");
+        if (null != endkey) {
+            ViewQuery.ViewQueryBuilder builder = query.toBuilder().includeDocs(false).limit(0).startkeyJson(endkey)
+                    .remove("startkey_docid");
+            String endkeyDocid = query.getParameter("endkey_docid");
+            if (null != endkeyDocid) {
+                builder.startkeyDocid(endkeyDocid);
+            }
+            end = database.fetchView(builder.build());
+        }
+        ViewResult first = get(start);
+        long rows = (null == end ? first.getTotalRows() : get(end).getOffset()) - first.getOffset();
+
+        String previous = null;
+        long position = 0;
+        ViewResultRow boundary = null;
+        for (int i = 1; i < partitions; i++) {
+            long next = rows * i / partitions;
+            if (next == position) {
+                continue;
+            }
+            ViewQuery.ViewQueryBuilder builder = query.toBuilder().includeDocs(false);
+            if (null != boundary) {
+                builder.startkeyJson(ViewScanIterator.keyJson(boundary)).startkeyDocid(boundary.getId());
+            }
+            List<ViewResultRow> sample = get(database.fetchView(builder.limit(1).skip((int) (next - position))
+                    .build())).getRows();
+            if (sample.isEmpty()) {
+                break; // rows have been deleted in the meantime
+            }
+            boundary = sample.get(0);
+            position = next;
+            Object key = boundary.toJSONObject().get("key");
+            String json = keyJson(key);
+            if (!json.equals(previous)) {
+                keys.add(key);
+                previous = json;
+            }
+        }
+        return keys;
+    }
+
+    private static void checkQuery(ViewQuery query) {
+        for (String name : new String[] { "key", "limit", "skip" }) {
+            if (null != query.getParameter(name)) {
+                throw new IllegalArgumentException("A partitioned query must not use the " + name + " parameter");
+            }
+        }
+    }
+
+    /**
+     * @return the JSON representation of a key. Collections and arrays are
+     *         converted to JSON arrays (i.e. compound keys).
+     */
+    static String keyJson(Object key) {
+        if (key instanceof Collection<?> || (null != key && key.getClass().isArray())) {
+            return JSONArray.fromObject(key).toString();
+        }
+        return JSONUtils.valueToString(key);
+    }
+
+    private static ViewResult get(DatabaseFuture<ViewResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Couch4JException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new Couch4JException(cause);
+        }
+    }
+}
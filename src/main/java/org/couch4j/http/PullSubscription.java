@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.Publisher.Subscriber;
+import org.couch4j.api.Publisher.Subscription;
+
+/**
+ * A {@link Subscription} that pulls the next element from its source only
+ * while the subscriber has outstanding demand.
+ * <p>
+ * The elements are fetched and delivered by a drain loop on the given
+ * executor. The loop never runs concurrently and stops as soon as the demand
+ * is exhausted; requests made from within {@code onNext} are served by the
+ * running loop rather than recursively. A source that has nothing to deliver
+ * yet may call {@link #retryLater()} to return the thread to the executor, the
+ * loop is then resubmitted.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+abstract class PullSubscription<T> implements Subscription, Runnable {
+
+    private final Subscriber<? super T> subscriber;
+    private final Executor executor;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean cancelled;
+    // The invalid number of requested elements (if any)
+    private volatile Long invalidRequest;
+    private volatile boolean done;
+    // Only accessed by the drain loop
+    private boolean retry;
+
+    PullSubscription(Subscriber<? super T> subscriber, Executor executor) {
+        this.subscriber = subscriber;
+        this.executor = executor;
+    }
+
+    /**
+     * Signals {@code onSubscribe}, the subscriber may request elements from
+     * within the callback.
+     */
+    void start() {
+        subscriber.onSubscribe(this);
+    }
+
+    /**
+     * @return the next element, blocks until it is available. Null if the
+     *         source is exhausted or if {@link #retryLater()} was called.
+     */
+    protected abstract T next() throws Exception;
+
+    /**
+     * Called by {@link #next()} (before returning null) if the source has
+     * nothing to deliver yet. The drain loop then releases its thread and
+     * calls {@link #next()} again on a newly submitted task.
+     */
+    protected final void retryLater() {
+        retry = true;
+    }
+
+    /**
+     * Releases the resources of the source, called by the drain loop after
+     * the last signal.
+     */
+    protected abstract void close();
+
+    /**
+     * Called by the thread that cancels the subscription, e.g. to abort a
+     * blocking read of {@link #next()}.
+     */
+    protected void abort() {
+    }
+
+    /**
+     * @return the current demand ({@code Long.MAX_VALUE} if unbounded).
+     */
+    protected long demand() {
+        return demand.get();
+    }
+
+    public void request(long n) {
+        if (n <= 0) {
+            invalidRequest = n;
+        } else {
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n;
+                if (next < 0) {
+                    next = Long.MAX_VALUE;
+                }
+            } while (!demand.compareAndSet(current, next));
+        }
+        schedule();
+    }
+
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            abort();
+            schedule();
+        }
+    }
+
+    private void schedule() {
+        if (pending.getAndIncrement() == 0) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Run the loop on the calling thread to report the failure
+                cancelled = true;
+                fail(e);
+                pending.set(0);
+            }
+        }
+    }
+
+    public void run() {
+        int missed = 1;
+        do {
+            while (drain()) {
+                if (resubmit()) {
+                    return;
+                }
+            }
+            missed = pending.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Submits the drain loop again, the pending signals are left to the new
+     * task.
+     * 
+     * @return false if the loop has to continue on the current thread, i.e.
+     *         the executor ran the task on the calling thread or rejected it.
+     */
+    private boolean resubmit() {
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean submitted = new AtomicBoolean();
+        final AtomicBoolean inline = new AtomicBoolean();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (Thread.currentThread() == caller && !submitted.get()) {
+                        // Run by the caller (e.g. CallerRunsPolicy), continue
+                        // the current loop instead of recursing
+                        inline.set(true);
+                    } else {
+                        PullSubscription.this.run();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(e);
+            return false;
+        }
+        submitted.set(true);
+        return !inline.get();
+    }
+
+    /**
+     * @return true if the source asked to retry later.
+     */
+    private boolean drain() {
+        if (done) {
+            return false;
+        }
+        try {
+            while (!cancelled) {
+                if (null != invalidRequest) {
+                    fail(new IllegalArgumentException("The number of requested elements has to be positive but was "
+                            + invalidRequest));
+                    return false;
+                }
+                long n = demand.get();
+                if (n == 0) {
+                    return false;
+                }
+                T element = next();
+                if (cancelled) {
+                    break;
+                }
+                if (retry) {
+                    retry = false;
+                    return true;
+                }
+                if (null == element) {
+                    done = true;
+                    close();
+                    subscriber.onComplete();
+                    return false;
+                }
+                if (n != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                subscriber.onNext(element);
+            }
+        } catch (Exception e) {
+            if (!cancelled) {
+                fail(e);
+                return false;
+            }
+        }
+        done = true;
+        close();
+        return false;
+    }
+
+    private void fail(Throwable t) {
+        done = true;
+        cancelled = true;
+        close();
+        subscriber.onError(t);
+    }
+}
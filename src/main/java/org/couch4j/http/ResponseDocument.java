@@ -67,6 +67,7 @@ class ResponseDocument extends Document implements DatabaseAware {
     private JSONObject jsonObject;
 
     private Database database;
+    private DocumentLoader loader;
 
     public ResponseDocument(final String id) {
         if (null == id) {
@@ -89,7 +90,7 @@ class ResponseDocument extends Document implements DatabaseAware {
         load(jsonObject);
     }
 
-    private void load(final JSONObject jsonObject) {
+    void load(final JSONObject jsonObject) {
         this.jsonObject = jsonObject;
         if (jsonObject.has("_attachments")) {
             attachments = jsonObject.getJSONObject("_attachments");
@@ -106,9 +107,21 @@ class ResponseDocument extends Document implements DatabaseAware {
 
     @Override
     public String getRev() {
+        if (null == _rev && isAvailable) {
+            // lazily loaded document stub
+            return jsonObject.optString("_rev", null);
+        }
         return _rev;
     }
 
+    /**
+     * @return true if the content of the document is available, false if this
+     *         is a stub that will be loaded lazily.
+     */
+    boolean isLoaded() {
+        return isAvailable;
+    }
+
     @Override
     public String toString() {
         fetchDocument();
@@ -212,18 +225,31 @@ class ResponseDocument extends Document implements DatabaseAware {
         this.database = d;
     }
 
+    /**
+     * Set the loader that is used to lazily load this document stub. The
+     * loader may load several stubs at once.
+     */
+    void setLoader(DocumentLoader loader) {
+        this.loader = loader;
+    }
+
     private void fetchDocument() {
         if (isAvailable) {
             return;
         }
+        if (null != this.loader) {
+            loader.load(this);
+            if (isAvailable) {
+                return;
+            }
+        }
         if (null == this.database) {
             throw new IllegalStateException(
                     "Database instance is not available. Unable to lazily load the response document.");
         }
 
         Document d = database.fetchDocument(this._id);
-        this.jsonObject = d.toJSONObject();
-        this.isAvailable = true;
+        load(d.toJSONObject());
     }
 
     @Override
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.couch4j.annotations.ThreadSafe;
+
+/**
+ * Tracks which change events have been processed by all their consumers and
+ * computes the low-watermark: the sequence of the latest event for which
+ * this event and all earlier events have been processed.
+ * <p>
+ * Events are processed out of order when they are handed to asynchronous
+ * consumers (e.g. batch listeners), the low-watermark is the sequence that
+ * can safely be checkpointed.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class SequenceTracker {
+
+    /**
+     * Callback for a new low-watermark.
+     */
+    interface Listener {
+        void processed(String seq, int events);
+    }
+
+    static final class Entry {
+        private final String seq;
+        // Guarded by the tracker
+        private int pending;
+
+        private Entry(String seq, int pending) {
+            this.seq = seq;
+            this.pending = pending;
+        }
+    }
+
+    // Guarded by this
+    private final Deque<Entry> inFlight = new ArrayDeque<Entry>();
+    private String watermark;
+
+    private final Listener listener;
+
+    SequenceTracker(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Registers a new event (in the order of the feed).
+     * 
+     * @param consumers
+     *            The number of times {@link #done(Entry)} has to be called
+     *            for the event.
+     */
+    synchronized Entry begin(String seq, int consumers) {
+        Entry entry = new Entry(seq, consumers);
+        inFlight.addLast(entry);
+        return entry;
+    }
+
+    /**
+     * Marks the event as processed by one of its consumers.
+     */
+    void done(Entry entry) {
+        String seq = null;
+        int events = 0;
+        synchronized (this) {
+            if (--entry.pending > 0) {
+                return;
+            }
+            while (!inFlight.isEmpty() && inFlight.peekFirst().pending <= 0) {
+                seq = inFlight.removeFirst().seq;
+                events++;
+            }
+            if (null != seq) {
+                watermark = seq;
+            }
+        }
+        if (null != seq) {
+            listener.processed(seq, events);
+        }
+    }
+
+    /**
+     * @return the low-watermark or null if no event has been processed yet.
+     */
+    synchronized String watermark() {
+        return watermark;
+    }
+
+    /**
+     * @return the number of events that have not been processed by all
+     *         consumers yet.
+     */
+    synchronized int inFlight() {
+        return inFlight.size();
+    }
+}
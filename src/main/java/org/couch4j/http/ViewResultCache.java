@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.couch4j.annotations.Immutable;
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.CacheStatistics;
+
+/**
+ * LRU cache for view results keyed by {@link org.couch4j.api.ViewQuery#queryString()}.
+ * <p>
+ * Every entry records the database's {@code update_seq} it was fetched at. An
+ * entry is valid as long as the database's current {@code update_seq} (as
+ * reported by the {@code _changes} feed or {@code getDatabaseInfo()}) is not
+ * greater. Writes via the local {@link org.couch4j.api.Database} instance
+ * invalidate the known sequence until it has been refreshed.
+ * <p>
+ * Like the {@link DocumentCache} the cache stores the JSON text and is
+ * bounded by its total length.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class ViewResultCache implements CacheStatistics {
+
+    @Immutable
+    static final class Entry {
+        private final long seq;
+        private final String json;
+
+        Entry(long seq, String json) {
+            this.seq = seq;
+            this.json = json;
+        }
+
+        long getSeq() {
+            return seq;
+        }
+
+        String getJson() {
+            return json;
+        }
+    }
+
+    private final long maxWeight;
+
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Set<String> refreshing = new HashSet<String>();
+    private long updateSeq = -1;
+    private long writes;
+    private long seqWrites;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    ViewResultCache(long maxWeight) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight has to be greater than 0 but was " + maxWeight);
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the latest known {@code update_seq} of the database or -1 if it
+     *         is unknown (e.g. after a local write) and has to be refreshed
+     *         using {@link #refreshUpdateSeq(long, long)}.
+     */
+    synchronized long updateSeq() {
+        return writes == seqWrites ? updateSeq : -1;
+    }
+
+    /**
+     * @return a token for {@link #refreshUpdateSeq(long, long)} that has to be
+     *         obtained <em>before</em> the {@code update_seq} is requested.
+     */
+    synchronized long writes() {
+        return writes;
+    }
+
+    synchronized void refreshUpdateSeq(long seq, long writes) {
+        updateSeq(seq);
+        this.seqWrites = writes;
+    }
+
+    /**
+     * Records a new {@code update_seq} (e.g. from the {@code _changes} feed).
+     */
+    synchronized void updateSeq(long seq) {
+        if (seq > updateSeq) {
+            updateSeq = seq;
+        }
+    }
+
+    /**
+     * Records a local write, the {@code update_seq} is unknown afterwards.
+     */
+    synchronized void written() {
+        writes++;
+    }
+
+    /**
+     * @return the cached entry for the query regardless of its sequence or
+     *         null.
+     */
+    synchronized Entry get(String query) {
+        return entries.get(query);
+    }
+
+    synchronized void hit() {
+        hits++;
+    }
+
+    synchronized void miss() {
+        misses++;
+    }
+
+    synchronized void put(String query, long seq, String json) {
+        if (json.length() > maxWeight) {
+            return;
+        }
+        Entry previous = entries.get(query);
+        if (null != previous) {
+            if (previous.getSeq() > seq) {
+                // A newer result was cached concurrently
+                return;
+            }
+            weight -= previous.getJson().length();
+            invalidations++;
+        }
+        entries.put(query, new Entry(seq, json));
+        weight += json.length();
+        for (Iterator<Entry> it = entries.values().iterator(); weight > maxWeight && it.hasNext();) {
+            weight -= it.next().getJson().length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * @return true if the caller should refresh the query, false if a refresh
+     *         is already in progress.
+     */
+    synchronized boolean startRefresh(String query) {
+        return refreshing.add(query);
+    }
+
+    synchronized void refreshed(String query) {
+        refreshing.remove(query);
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ViewResultCache [size=" + entries.size() + ", weight=" + weight + ", updateSeq=" + updateSeq
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", invalidations="
+                + invalidations + "]";
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.api.Publisher;
+import org.couch4j.api.StreamingViewResult;
+import org.couch4j.api.SynchronousDatabase;
+import org.couch4j.api.ViewQuery;
+import org.couch4j.api.ViewResultRow;
+
+/**
+ * Publishes the rows of a view. The view is requested when the first row is
+ * requested and each row is parsed from the response stream when it is
+ * requested, a subscriber without demand leaves the rest of the response
+ * unread on the connection.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class ViewRowPublisher implements Publisher<ViewResultRow> {
+
+    private final SynchronousDatabase database;
+    private final ViewQuery query;
+    private final Executor executor;
+
+    ViewRowPublisher(SynchronousDatabase database, ViewQuery query, Executor executor) {
+        this.database = database;
+        this.query = query;
+        this.executor = executor;
+    }
+
+    public void subscribe(Subscriber<? super ViewResultRow> subscriber) {
+        if (null == subscriber) {
+            throw new NullPointerException("subscriber");
+        }
+        new RowSubscription(subscriber).start();
+    }
+
+    private final class RowSubscription extends PullSubscription<ViewResultRow> {
+        // Only accessed by the drain loop
+        private StreamingViewResult result;
+        private Iterator<ViewResultRow> rows;
+
+        RowSubscription(Subscriber<? super ViewResultRow> subscriber) {
+            super(subscriber, executor);
+        }
+
+        @Override
+        protected ViewResultRow next() {
+            if (null == result) {
+                result = database.streamView(query);
+                rows = result.iterator();
+            }
+            return rows.hasNext() ? rows.next() : null;
+        }
+
+        @Override
+        protected void close() {
+            if (null != result) {
+                result.close();
+            }
+        }
+    }
+}
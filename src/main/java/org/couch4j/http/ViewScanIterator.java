@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+
+import net.sf.json.util.JSONUtils;
+
+import org.couch4j.api.DatabaseFuture;
+import org.couch4j.api.FutureDatabase;
+import org.couch4j.api.ViewQuery;
+import org.couch4j.api.ViewResult;
+import org.couch4j.api.ViewResultRow;
+import org.couch4j.exceptions.Couch4JException;
+
+/**
+ * Iterates over a view page by page using keyset paging. Each page after the
+ * first starts at the key and document id of the last row of the previous
+ * page (the boundary row) and requests one additional row, the boundary row
+ * is dropped if it is returned again. If the boundary row has been deleted in
+ * the meantime no row is skipped.
+ * <p>
+ * The request for the next page is sent as soon as a page has been received,
+ * i.e. while the page is iterated.
+ * <p>
+ * Not thread safe.
+ * 
+ * @author Stefan Saasen
+ */
+final class ViewScanIterator implements Iterator<ViewResultRow> {
+
+    private final FutureDatabase database;
+    private final ViewQuery query;
+    private final int pageSize;
+    // The remaining number of rows if the query has a limit, -1 otherwise
+    private long remaining;
+
+    private DatabaseFuture<ViewResult> next;
+    private int requested;
+    private ViewResultRow boundary;
+    private Iterator<ViewResultRow> rows = Collections.<ViewResultRow> emptyList().iterator();
+
+    ViewScanIterator(FutureDatabase database, ViewQuery query, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize has to be greater than 0 but was " + pageSize);
+        }
+        this.database = database;
+        this.query = query;
+        this.pageSize = pageSize;
+        String limit = query.getParameter("limit");
+        this.remaining = null == limit ? -1 : Long.parseLong(limit);
+        if (remaining != 0) {
+            request(query.toBuilder(), 0);
+        }
+    }
+
+    /**
+     * @param extra
+     *            The number of rows to request in addition to the page (i.e.
+     *            the boundary row).
+     */
+    private void request(ViewQuery.ViewQueryBuilder builder, int extra) {
+        requested = (remaining < 0 ? pageSize : (int) Math.min(pageSize, remaining)) + extra;
+        next = database.fetchView(builder.limit(requested).build());
+    }
+
+    /**
+     * @return the JSON representation of the key of the row.
+     */
+    static String keyJson(ViewResultRow row) {
+        return JSONUtils.valueToString(row.toJSONObject().get("key"));
+    }
+
+    private List<ViewResultRow> fetch() {
+        try {
+            return next.get().getRows();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Couch4JException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new Couch4JException(cause);
+        } finally {
+            next = null;
+        }
+    }
+
+    public boolean hasNext() {
+        while (!rows.hasNext()) {
+            if (null == next) {
+                return false;
+            }
+            int size = requested;
+            List<ViewResultRow> page = fetch();
+            boolean last = page.size() < size;
+            int start = 0;
+            if (null != boundary && !page.isEmpty() && sameRow(boundary, page.get(0))) {
+                start = 1;
+            }
+            int end = page.size();
+            if (remaining >= 0) {
+                end = (int) Math.min(end, start + remaining);
+                remaining -= end - start;
+            }
+            if (!last && remaining != 0 && end > start) {
+                boundary = page.get(end - 1);
+                ViewQuery.ViewQueryBuilder builder = query.toBuilder().startkeyJson(keyJson(boundary))
+                        .startkeyDocid(boundary.getId());
+                if (null != query.getParameter("skip")) {
+                    builder.skip(0);
+                }
+                request(builder, 1);
+            }
+            rows = page.subList(start, end).iterator();
+        }
+        return true;
+    }
+
+    private static boolean sameRow(ViewResultRow a, ViewResultRow b) {
+        return a.getId().equals(b.getId()) && keyJson(a).equals(keyJson(b));
+    }
+
+    public ViewResultRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return rows.next();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
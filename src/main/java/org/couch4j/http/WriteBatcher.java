@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.couch4j.annotations.ThreadSafe;
+import org.couch4j.exceptions.Couch4JException;
+
+/**
+ * Coalesces concurrent single document writes into {@code _bulk_docs}
+ * requests.
+ * <p>
+ * The first caller that adds a document to an empty batch becomes the leader
+ * of the batch: it waits until either the batch is full or the maximum delay
+ * has elapsed and then sends the whole batch. If a batch is filled up before
+ * the delay has elapsed the caller that added the last document sends it
+ * immediately. Every caller blocks until the result for its own document is
+ * available. No additional threads are used.
+ * 
+ * @author Stefan Saasen
+ */
+@ThreadSafe
+final class WriteBatcher {
+
+    private static final class Slot {
+        private final JSONObject json;
+        private JSONObject result;
+        private RuntimeException failure;
+        private boolean done;
+
+        Slot(JSONObject json) {
+            this.json = json;
+        }
+
+        synchronized void complete(JSONObject result, RuntimeException failure) {
+            this.result = result;
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized JSONObject await() {
+            boolean interrupted = false;
+            // The document is already on its way - wait for the result even
+            // if the thread gets interrupted.
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (null != failure) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+
+    private static final class Batch {
+        private final List<Slot> slots = new ArrayList<Slot>();
+        private boolean closed;
+    }
+
+    private final DatabaseImpl database;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+
+    private final Object lock = new Object();
+    private Batch current = new Batch();
+
+    WriteBatcher(DatabaseImpl database, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize has to be greater than 0 but was " + maxBatchSize);
+        }
+        if (maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay must not be negative but was " + maxDelay);
+        }
+        this.database = database;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * Adds the document to the current batch and waits for its result.
+     * 
+     * @return The {@code _bulk_docs} result for the given document (either
+     *         {@code id} and {@code rev} or {@code id}, {@code error} and
+     *         {@code reason}).
+     */
+    JSONObject save(JSONObject json) {
+        Slot slot = new Slot(json);
+        Batch batch;
+        boolean full = false;
+        boolean leader = false;
+        synchronized (lock) {
+            batch = current;
+            batch.slots.add(slot);
+            if (batch.slots.size() >= maxBatchSize) {
+                full = true;
+                close(batch);
+            } else {
+                leader = batch.slots.size() == 1;
+            }
+        }
+
+        if (full) {
+            flush(batch);
+        } else if (leader && awaitWindow(batch)) {
+            flush(batch);
+        }
+        return slot.await();
+    }
+
+    /**
+     * Waits until the batch has been closed by another caller or until the
+     * batch window has elapsed.
+     * 
+     * @return true if the batch has been closed by the leader (and has to be
+     *         flushed by the leader).
+     */
+    private boolean awaitWindow(Batch batch) {
+        boolean interrupted = false;
+        synchronized (lock) {
+            final long deadline = System.nanoTime() + maxDelayNanos;
+            long remaining;
+            while (!batch.closed && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                } catch (InterruptedException e) {
+                    // Send the batch right away
+                    interrupted = true;
+                    break;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (batch.closed) {
+                return false;
+            }
+            close(batch);
+            return true;
+        }
+    }
+
+    // Has to be called while holding the lock
+    private void close(Batch batch) {
+        batch.closed = true;
+        current = new Batch();
+        lock.notifyAll();
+    }
+
+    private void flush(Batch batch) {
+        final List<Slot> slots = batch.slots;
+        JSONArray docs = new JSONArray();
+        for (Slot slot : slots) {
+            docs.add(slot.json);
+        }
+        JSONArray results;
+        try {
+            results = database.bulkDocs(docs);
+        } catch (RuntimeException e) {
+            for (Slot slot : slots) {
+                slot.complete(null, e);
+            }
+            return;
+        }
+        for (int i = 0; i < slots.size(); i++) {
+            if (i < results.size()) {
+                slots.get(i).complete(results.getJSONObject(i), null);
+            } else {
+                slots.get(i).complete(null, new Couch4JException(new IllegalStateException(
+                        "Missing _bulk_docs result for document " + slots.get(i).json)));
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@
  */
 package org.couch4j.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -117,6 +118,33 @@ public final class CollectionUtils {
         return input;
     }
     
+    /**
+     * Splits the given list into consecutive sublists of (at most)
+     * {@code size} elements. The sublists are views of the given list.
+     * 
+     * <p>
+     * List<List<Integer>> chunks = partition(list(1, 2, 3, 4, 5), 2);
+     * 
+     * chunks => [[1, 2], [3, 4], [5]]
+     * </p>
+     * 
+     * @param <T>
+     * @param input
+     * @param size
+     *            The maximum size of each chunk (> 0).
+     * @return List of chunks or an empty list if the input is empty.
+     */
+    public static <T> List<List<T>> partition(List<T> input, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("The chunk size has to be greater than 0 but was " + size);
+        }
+        List<List<T>> chunks = new ArrayList<List<T>>((input.size() + size - 1) / size);
+        for (int from = 0; from < input.size(); from += size) {
+            chunks.add(input.subList(from, Math.min(input.size(), from + size)));
+        }
+        return chunks;
+    }
+
     /**
      * Checks if the given array includes the given value.
      *  
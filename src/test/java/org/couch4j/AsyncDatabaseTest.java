@@ -28,10 +28,20 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import net.sf.json.JSONArray;
 
@@ -39,6 +49,8 @@ import org.couch4j.api.AsynchronousDatabase.AsyncToken;
 import org.couch4j.api.*;
 import org.couch4j.api.AsynchronousDatabase.ResponseHandler;
 import org.couch4j.exceptions.DocumentNotFoundException;
+import org.couch4j.http.DatabaseFutures;
+import org.couch4j.http.DefaultCouchDbClient;
 import org.couch4j.exceptions.DocumentUpdateConflictException;
 import org.junit.After;
 import org.junit.Before;
@@ -164,7 +176,21 @@ public class AsyncDatabaseTest extends Couch4jBase {
 
     @Test
     public void bulkSave() throws Exception {
+        TestResultHandler<List<ServerResponse>> testHandler = new TestResultHandler<List<ServerResponse>>();
+        List<Document> docs = new ArrayList<Document>();
+        for (int i = 0; i < 3; i++) {
+            docs.add(new Document("bulk-" + i));
+        }
+        testEmpty.bulkSave(docs, testHandler);
+        synchronized (testHandler) {
+            testHandler.wait(TIMEOUT);
+        }
 
+        assertThat(testHandler.getResponse().size(), is(3));
+        for (int i = 0; i < 3; i++) {
+            assertThat(testHandler.getResponse().get(i).getId(), is("bulk-" + i));
+            assertTrue(testHandler.getResponse().get(i).isOk());
+        }
     }
 
 //    @Test
@@ -281,7 +307,140 @@ public class AsyncDatabaseTest extends Couch4jBase {
         }
         assertDocumentTest1(testHandler.getResponse());
     }
-    
+
+    @Test(expected = DocumentNotFoundException.class)
+    public void fetchDocumentNotFound() throws Exception {
+        TestResultHandler<Document> testHandler = new TestResultHandler<Document>();
+        test.fetchDocument(UUID.randomUUID().toString(), testHandler);
+        synchronized (testHandler) {
+            testHandler.wait(TIMEOUT);
+        }
+        throw testHandler.getError();
+    }
+
+    @Test
+    public void futures() throws Exception {
+        FutureDatabase db = ((Database) testEmpty).async();
+        List<DatabaseFuture<ServerResponse>> saved = new ArrayList<DatabaseFuture<ServerResponse>>();
+        for (int i = 0; i < 20; i++) {
+            saved.add(db.saveDocument("future-" + i, new Document()));
+        }
+        assertThat(DatabaseFutures.allOf(saved).get(TIMEOUT, TimeUnit.MILLISECONDS).size(), is(20));
+
+        List<DatabaseFuture<String>> ids = new ArrayList<DatabaseFuture<String>>();
+        for (int i = 0; i < 20; i++) {
+            ids.add(db.fetchDocument("future-" + i).transform(new DatabaseFuture.Transformer<Document, String>() {
+                public String apply(Document d) {
+                    return d.getId();
+                }
+            }));
+        }
+        List<String> result = DatabaseFutures.allOf(ids).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("future-" + i, result.get(i));
+        }
+    }
+
+    @Test(expected = DocumentNotFoundException.class)
+    public void futureNotFound() throws Throwable {
+        try {
+            ((Database) testEmpty).async().fetchDocument(UUID.randomUUID().toString()).get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void nonBlockingTransport() throws Exception {
+        CouchDbClient client = DefaultCouchDbClient.builder().host(server.getRemoteHost()).port(
+                server.getRemotePort()).nonBlockingTransport(2, 2).build();
+        try {
+            FutureDatabase db = client.getDatabase(EMPTY_DATABASE_NAME).async();
+            List<DatabaseFuture<ServerResponse>> saved = new ArrayList<DatabaseFuture<ServerResponse>>();
+            for (int i = 0; i < 50; i++) {
+                saved.add(db.saveDocument("nio-" + i, new Document()));
+            }
+            assertThat(DatabaseFutures.allOf(saved).get(10, TimeUnit.SECONDS).size(), is(50));
+
+            Document d = db.fetchDocument("nio-7").get(10, TimeUnit.SECONDS);
+            assertEquals("nio-7", d.getId());
+            db.deleteDocument(d).get(10, TimeUnit.SECONDS);
+            try {
+                db.fetchDocument("nio-7").get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof DocumentNotFoundException);
+            }
+            assertThat(db.fetchAllDocuments().get(10, TimeUnit.SECONDS).getTotalRows(), is(49));
+        } finally {
+            client.disconnect();
+        }
+    }
+
+
+    @Test
+    public void nonBlockingTransportRevalidatesWithETags() throws Exception {
+        CouchDbClient client = DefaultCouchDbClient.builder().host(server.getRemoteHost()).port(
+                server.getRemotePort()).nonBlockingTransport(1, 2).etagCacheSize(1024 * 1024).build();
+        try {
+            FutureDatabase db = client.getDatabase(EMPTY_DATABASE_NAME).async();
+            db.saveDocument("nio-etag", new Document()).get(10, TimeUnit.SECONDS);
+            long hits = client.getETagCacheStatistics().getHitCount();
+            db.fetchDocument("nio-etag").get(10, TimeUnit.SECONDS);
+            assertEquals("nio-etag", db.fetchDocument("nio-etag").get(10, TimeUnit.SECONDS).getId());
+            assertEquals(hits + 1, client.getETagCacheStatistics().getHitCount());
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void nonBlockingTransportNeverCompletesOnAnIoThread() throws Exception {
+        // A saturated executor with a caller-runs policy
+        final CountDownLatch release = new CountDownLatch(1);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        CouchDbClient client = DefaultCouchDbClient.builder().host(server.getRemoteHost()).port(
+                server.getRemotePort()).nonBlockingTransport(1, 2).asyncExecutor(executor).build();
+        try {
+            final FutureDatabase db = client.getDatabase(EMPTY_DATABASE_NAME).async();
+            db.saveDocument("nio-handler", new Document()).get(10, TimeUnit.SECONDS);
+
+            final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+            db.fetchDocument("nio-handler").addHandler(new ResponseHandler<Document>() {
+                public void completed(Document response, AsyncToken token) {
+                    results.add(Thread.currentThread().getName());
+                    try {
+                        // Waits for a response of the same I/O thread
+                        results.add(db.fetchDocument("nio-handler").get(10, TimeUnit.SECONDS));
+                    } catch (Exception e) {
+                        results.add(e);
+                    }
+                }
+
+                public void failed(Exception e) {
+                    results.add(e);
+                }
+            });
+            String thread = (String) results.poll(10, TimeUnit.SECONDS);
+            assertTrue(thread, thread.startsWith("couch4j-nio-completion"));
+            assertEquals("nio-handler", ((Document) results.poll(10, TimeUnit.SECONDS)).getId());
+        } finally {
+            release.countDown();
+            client.disconnect();
+            executor.shutdown();
+        }
+    }
+
 
 
     private void assertDocumentTest1(Document d) {
@@ -0,0 +1,86 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.couch4j.api.ChangeSubscription;
+import org.junit.Test;
+
+/**
+ * @author Stefan Saasen
+ */
+public class ChangeSubscriptionTest {
+
+    @Test
+    public final void testAll() {
+        ChangeSubscription all = ChangeSubscription.ALL;
+        assertNull(all.getFilter());
+        assertTrue(all.getDocIds().isEmpty());
+        assertFalse(all.isIncludeDocs());
+        assertEquals(all, ChangeSubscription.builder().build());
+    }
+
+    @Test
+    public final void testEquals() {
+        ChangeSubscription a = ChangeSubscription.builder().filter("app/type").filterParameter("type", "order")
+                .includeDocs(true).build();
+        ChangeSubscription b = ChangeSubscription.builder().filter("app/type").filterParameter("type", "order")
+                .includeDocs(true).build();
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(ChangeSubscription.builder().filter("app/type").filterParameter("type", "invoice")
+                .includeDocs(true).build()));
+        assertFalse(ChangeSubscription.builder().docIds(Arrays.asList("a")).build().equals(
+                ChangeSubscription.builder().docIds(Arrays.asList("b")).build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testInvalidFilter() {
+        ChangeSubscription.builder().filter("type");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testEmptyDocIds() {
+        ChangeSubscription.builder().docIds(Collections.<String> emptyList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testFilterAndDocIds() {
+        ChangeSubscription.builder().filter("app/type").docIds(Arrays.asList("a")).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testParametersWithoutFilter() {
+        ChangeSubscription.builder().filterParameter("type", "order").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public final void testReservedFilterParameter() {
+        ChangeSubscription.builder().filter("app/type").filterParameter("since", "0");
+    }
+}
@@ -29,8 +29,16 @@ import static org.junit.Assert.*;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
@@ -40,10 +48,14 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.couch4j.api.Database.ChangeEvent;
+import org.couch4j.api.Database.ChangeListener;
 import org.couch4j.api.Database.StreamContext;
 import org.couch4j.api.*;
+import org.couch4j.exceptions.Couch4JException;
 import org.couch4j.exceptions.DocumentNotFoundException;
 import org.couch4j.exceptions.DocumentUpdateConflictException;
+import org.couch4j.http.DefaultCouchDbClient;
 import org.couch4j.util.StreamUtils;
 import org.junit.After;
 import org.junit.Before;
@@ -134,6 +146,19 @@ public class DatabaseTest extends Couch4jBase {
         assertDocumentTest1(d2);
     }
 
+    @Test
+    public void testFetchDocuments() throws Exception {
+        List<Document> docs = test.fetchDocuments(Arrays.asList("INVALID_DOC_ID", VALID_DOC_ID));
+        assertEquals(2, docs.size());
+        assertNull(docs.get(0));
+        assertDocumentTest1(docs.get(1));
+    }
+
+    @Test
+    public void testFetchDocumentsEmpty() throws Exception {
+        assertTrue(test.fetchDocuments(new ArrayList<String>()).isEmpty());
+    }
+
     @Test
     public void testWithAttachmentAsStream() throws Exception {
         final int CONTENT_LENGTH = 9276;
@@ -176,6 +201,44 @@ public class DatabaseTest extends Couch4jBase {
         assertDocumentTest1(d);
     }
 
+    @Test
+    public void testFetchViewHydrate() throws Exception {
+        ViewResult result = test.fetchAllDocuments(false);
+        result.hydrate();
+        for (ViewResultRow row : result) {
+            Document d = row.getDocument();
+            assertSame(d, row.getDocument());
+            assertEquals(row.getId(), d.getId());
+            assertNotNull(d.getRev());
+            assertNotNull(d.toJson());
+        }
+    }
+
+    @Test
+    public void testStreamView() throws Exception {
+        ViewQuery v = ViewQuery.builder("test/t1").build();
+        StreamingViewResult result = test.streamView(v);
+        int count = 0;
+        for (ViewResultRow row : result) {
+            if (count == 0) {
+                assertEquals(VALID_DOC_ID, row.getId());
+                assertDocumentTest1(row.getDocument());
+            }
+            count++;
+        }
+        assertEquals(4, count);
+        result.close();
+    }
+
+    @Test
+    public void testStreamViewCloseEarly() throws Exception {
+        StreamingViewResult result = test.streamView(ViewQuery.builder("test/t1").build());
+        assertTrue(result.iterator().hasNext());
+        result.close();
+        // The connection has to be available again
+        assertNotNull(test.fetchDocument(VALID_DOC_ID));
+    }
+
     @Test
     public void testFetchEmptyView() throws Exception {
         ViewQuery v = ViewQuery.builder("test/empty").build();
@@ -184,6 +247,365 @@ public class DatabaseTest extends Couch4jBase {
         assertEquals(0, l.size());
     }
 
+    @Test
+    public void testBulkSave() throws Exception {
+        List<Document> docs = new ArrayList<Document>();
+        for (int i = 0; i < 25; i++) {
+            Document d = new Document();
+            d.put("i", i);
+            docs.add(d);
+        }
+        final String id = "bulk-" + UUID.randomUUID().toString();
+        docs.add(new Document(id));
+
+        // Use a small chunk size to get several requests
+        List<ServerResponse> responses = testEmpty.bulkSave(docs, 10);
+        assertEquals(docs.size(), responses.size());
+        for (int i = 0; i < docs.size(); i++) {
+            ServerResponse response = responses.get(i);
+            assertTrue(response.isOk());
+            assertNotNull(response.getRev());
+            assertEquals(response.getId(), docs.get(i).getId());
+            assertEquals(response.getRev(), docs.get(i).get("_rev"));
+        }
+        assertEquals(id, responses.get(25).getId());
+        assertEquals(20, testEmpty.fetchDocument(responses.get(20).getId()).get("i"));
+    }
+
+    @Test
+    public void testBulkSaveWithConflict() throws Exception {
+        final String id = "bulk-" + UUID.randomUUID().toString();
+        testEmpty.saveDocument(new Document(id));
+
+        List<Document> docs = new ArrayList<Document>();
+        docs.add(new Document());
+        docs.add(new Document(id));
+        List<ServerResponse> responses = testEmpty.bulkSave(docs);
+        assertTrue(responses.get(0).isOk());
+        assertFalse(responses.get(1).isOk());
+        assertEquals("conflict", responses.get(1).getError());
+    }
+
+    @Test
+    public void testSaveDocumentWithWriteBatching() throws Exception {
+        testEmpty.enableWriteBatching(10, 50, TimeUnit.MILLISECONDS);
+        try {
+            final int THREADS = 20;
+            final List<Document> docs = new ArrayList<Document>();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < THREADS; i++) {
+                final Document d = new Document();
+                d.put("i", i);
+                docs.add(d);
+                threads.add(new Thread() {
+                    @Override
+                    public void run() {
+                        testEmpty.saveDocument(d);
+                    }
+                });
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (Document d : docs) {
+                assertNotNull(d.getId());
+                assertEquals(d.get("i"), testEmpty.fetchDocument(d.getId()).get("i"));
+            }
+        } finally {
+            testEmpty.disableWriteBatching();
+        }
+    }
+
+    @Test(expected = DocumentUpdateConflictException.class)
+    public void testSaveDocumentWithWriteBatchingConflict() throws Exception {
+        final String id = UUID.randomUUID().toString();
+        testEmpty.saveDocument(new Document(id));
+        testEmpty.enableWriteBatching(10, 1, TimeUnit.MILLISECONDS);
+        try {
+            testEmpty.saveDocument(new Document(id));
+        } finally {
+            testEmpty.disableWriteBatching();
+        }
+    }
+
+    @Test
+    public void testDocumentCache() throws Exception {
+        final String id = UUID.randomUUID().toString();
+        Document d = new Document(id);
+        d.put("value", "a");
+        testEmpty.saveDocument(d);
+
+        testEmpty.enableDocumentCache(1024 * 1024);
+        try {
+            assertEquals("a", testEmpty.fetchDocument(id).get("value"));
+            assertEquals("a", testEmpty.fetchDocument(id).get("value"));
+            CacheStatistics stats = testEmpty.getDocumentCacheStatistics();
+            assertEquals(1, stats.getMissCount());
+            assertEquals(1, stats.getHitCount());
+
+            // Writes remove the document from the cache
+            d.put("value", "b");
+            testEmpty.saveDocument(d);
+            assertEquals("b", testEmpty.fetchDocument(id).get("value"));
+        } finally {
+            testEmpty.disableDocumentCache();
+        }
+        assertNull(testEmpty.getDocumentCacheStatistics());
+    }
+
+    @Test
+    public void testDocumentCacheSeesChangesRightAfterEnabling() throws Exception {
+        final String id = UUID.randomUUID().toString();
+        Document d = new Document(id);
+        d.put("value", "a");
+        testEmpty.saveDocument(d);
+
+        // A change by another client right after the cache has been enabled
+        // must be seen by the cache.
+        CouchDbClient client = DefaultCouchDbClient.builder().host(server.getRemoteHost()).port(
+                server.getRemotePort()).changeFeedHub(1, 500).build();
+        try {
+            Database cached = client.getDatabase(testEmpty.getName());
+            cached.enableDocumentCache(1024 * 1024);
+            assertEquals("a", cached.fetchDocument(id).get("value"));
+            d.put("value", "b");
+            testEmpty.saveDocument(d);
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!"b".equals(cached.fetchDocument(id).get("value")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals("b", cached.fetchDocument(id).get("value"));
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void testETagCacheStatistics() throws Exception {
+        assertNull(server.getETagCacheStatistics());
+        CouchDbClient client = DefaultCouchDbClient.builder().host(server.getRemoteHost()).port(
+                server.getRemotePort()).etagCacheSize(1024 * 1024).build();
+        try {
+            Database db = client.getDatabase(testEmpty.getName());
+            ViewQuery query = ViewQuery.builder("_all_docs").build();
+            int rows = db.fetchView(query).getTotalRows();
+            CacheStatistics stats = client.getETagCacheStatistics();
+            long misses = stats.getMissCount();
+            assertEquals(0, stats.getHitCount());
+
+            assertEquals(rows, db.fetchView(query).getTotalRows());
+            assertEquals(1, stats.getHitCount());
+            assertEquals(misses, stats.getMissCount());
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void testViewCache() throws Exception {
+        ViewQuery query = ViewQuery.builder("_all_docs").build();
+        testEmpty.enableViewCache(1024 * 1024);
+        try {
+            int rows = testEmpty.fetchView(query).getRows().size();
+            assertEquals(rows, testEmpty.fetchView(query).getRows().size());
+            CacheStatistics stats = testEmpty.getViewCacheStatistics();
+            assertEquals(1, stats.getHitCount());
+
+            // A local write requires a new view result
+            testEmpty.saveDocument(new Document(UUID.randomUUID().toString()));
+            assertEquals(rows + 1, testEmpty.fetchView(query).getRows().size());
+        } finally {
+            testEmpty.disableViewCache();
+        }
+    }
+
+    /**
+     * Records the signals of a {@link Publisher}.
+     */
+    private static class QueueSubscriber<T> implements Publisher.Subscriber<T> {
+        final BlockingQueue<T> elements = new LinkedBlockingQueue<T>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile Publisher.Subscription subscription;
+        volatile Throwable error;
+        volatile String thread;
+
+        public void onSubscribe(Publisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(T element) {
+            thread = Thread.currentThread().getName();
+            elements.add(element);
+        }
+
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+
+    @Test
+    public void testPublishView() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            testEmpty.saveDocument(new Document("publish-" + i));
+        }
+        QueueSubscriber<ViewResultRow> subscriber = new QueueSubscriber<ViewResultRow>();
+        testEmpty.publishView(
+                ViewQuery.builder("_all_docs").startkey("publish-").endkey("publish-z").build()).subscribe(subscriber);
+        subscriber.subscription.request(2);
+        assertEquals("publish-0", subscriber.elements.poll(10, TimeUnit.SECONDS).getId());
+        assertEquals("publish-1", subscriber.elements.poll(10, TimeUnit.SECONDS).getId());
+        assertNull(subscriber.elements.poll(300, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        for (int i = 2; i < 5; i++) {
+            assertEquals("publish-" + i, subscriber.elements.poll(10, TimeUnit.SECONDS).getId());
+        }
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testScanView() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            testEmpty.saveDocument(new Document("scan-" + i));
+        }
+        ViewQuery query = ViewQuery.builder("_all_docs").startkey("scan-").endkey("scan-z").build();
+        Iterator<ViewResultRow> rows = testEmpty.scanView(query, 3);
+        for (int i = 0; i < 7; i++) {
+            assertTrue(rows.hasNext());
+            assertEquals("scan-" + i, rows.next().getId());
+        }
+        assertFalse(rows.hasNext());
+
+        rows = testEmpty.scanView(query.toBuilder().limit(4).build(), 3);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("scan-" + i, rows.next().getId());
+        }
+        assertFalse(rows.hasNext());
+    }
+
+    @Test
+    public void testStreamPartitions() throws Exception {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            testEmpty.saveDocument(new Document("part-" + i));
+            expected.add("part-" + i);
+        }
+        ViewQuery query = ViewQuery.builder("_all_docs").startkey("part-").endkey("part-z").build();
+        List<Object> splitKeys = testEmpty.sampleSplitKeys(query, 3);
+        assertEquals(Arrays.<Object> asList("part-3", "part-6"), splitKeys);
+
+        List<StreamingViewResult> partitions = testEmpty.streamPartitions(query, splitKeys);
+        assertEquals(3, partitions.size());
+        List<String> ids = new ArrayList<String>();
+        for (StreamingViewResult partition : partitions) {
+            for (ViewResultRow row : partition) {
+                ids.add(row.getId());
+            }
+        }
+        assertEquals(expected, ids);
+
+        ids.clear();
+        for (ViewResultRow row : testEmpty.streamPartitionsMerged(query, splitKeys)) {
+            ids.add(row.getId());
+        }
+        Collections.sort(ids);
+        assertEquals(expected, ids);
+    }
+
+    @Test(timeout = 30000)
+    public void testStreamPartitionsWithinThePoolLimit() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            testEmpty.saveDocument(new Document("limit-" + i));
+        }
+        ViewQuery query = ViewQuery.builder("_all_docs").startkey("limit-").endkey("limit-z").build();
+        CouchDbClient client = DefaultCouchDbClient.builder().host(server.getRemoteHost()).port(
+                server.getRemotePort()).maxConnectionsPerRoute(2).build();
+        try {
+            Database db = client.getDatabase(testEmpty.getName());
+            try {
+                db.streamPartitions(query, Arrays.asList("limit-1", "limit-2"));
+                fail("3 partitions with 2 connections");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            // The other connection is held by a stream, waiting for it must
+            // not block forever
+            StreamingViewResult held = db.streamView(query);
+            try {
+                db.streamPartitions(query, Arrays.asList("limit-2"));
+                fail("no connection available");
+            } catch (Couch4JException e) {
+                // expected
+            } finally {
+                held.close();
+            }
+            List<StreamingViewResult> partitions = db.streamPartitions(query, Arrays.asList("limit-2"));
+            for (StreamingViewResult partition : partitions) {
+                partition.close();
+            }
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void testPublishChanges() throws Exception {
+        String since = String.valueOf(testEmpty.getDatabaseInfo().getUpdateSeq());
+        QueueSubscriber<ChangeEvent> subscriber = new QueueSubscriber<ChangeEvent>();
+        testEmpty.publishChanges(ChangeSubscription.ALL, since).subscribe(subscriber);
+        for (int i = 0; i < 3; i++) {
+            testEmpty.saveDocument(new Document("change-" + i));
+        }
+        subscriber.subscription.request(2);
+        assertEquals("change-0", subscriber.elements.poll(10, TimeUnit.SECONDS).getId());
+        assertEquals("change-1", subscriber.elements.poll(10, TimeUnit.SECONDS).getId());
+        assertNull(subscriber.elements.poll(300, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.request(1);
+        assertEquals("change-2", subscriber.elements.poll(10, TimeUnit.SECONDS).getId());
+        // Not read on the executor of the asynchronous requests
+        assertTrue(subscriber.thread.startsWith("couch4j-changes-publisher-"));
+        subscriber.subscription.cancel();
+        assertNull(subscriber.error);
+        assertEquals(1, subscriber.completed.getCount());
+    }
+
+    @Test
+    public void testChangeSubscription() throws Exception {
+        final String id = UUID.randomUUID().toString();
+        final BlockingQueue<ChangeEvent> events = new LinkedBlockingQueue<ChangeEvent>();
+        ChangeListener listener = new ChangeListener() {
+            public void onChange(ChangeEvent event) {
+                events.add(event);
+            }
+        };
+        testEmpty.addChangeListener(listener, ChangeSubscription.builder().docIds(Arrays.asList(id)).includeDocs(
+                true).build());
+        try {
+            testEmpty.saveDocument(new Document(UUID.randomUUID().toString()));
+            Document d = new Document(id);
+            d.put("value", "a");
+            testEmpty.saveDocument(d);
+
+            ChangeEvent e = events.poll(10, TimeUnit.SECONDS);
+            assertNotNull(e);
+            assertEquals(id, e.getId());
+            assertEquals("a", e.getDocument().get("value"));
+            assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+        } finally {
+            testEmpty.removeChangeListener(listener);
+        }
+    }
+
     @Test
     public void testSaveExistingDocument() throws Exception {
         Document d = test.fetchDocument("test2");
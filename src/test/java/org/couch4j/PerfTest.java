@@ -26,6 +26,9 @@ package org.couch4j;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.couch4j.api.CouchDbClient;
 import org.couch4j.api.Database;
 import org.couch4j.api.Document;
@@ -61,4 +64,23 @@ public class PerfTest extends Couch4jBase {
         long duration = System.currentTimeMillis() - start;
         System.out.format("Fetching %d documents took %d ms", UPPER, duration);
     }
+
+    @Test(timeout = 10000)
+    public void fetchMultipleDocumentsAtOnce() throws Exception {
+        Database test = server.getDatabase("couch4j");
+        final int UPPER = 1000;
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i <= UPPER; i++) {
+            ids.add(Couch4jBase.VALID_DOC_ID);
+        }
+        long start = System.currentTimeMillis();
+        List<Document> docs = test.fetchDocuments(ids);
+        assertEquals(ids.size(), docs.size());
+        for (Document d : docs) {
+            assertNotNull(d.getRev());
+            assertEquals(Couch4jBase.VALID_DOC_ID, d.getId());
+        }
+        long duration = System.currentTimeMillis() - start;
+        System.out.format("Fetching %d documents at once took %d ms", UPPER, duration);
+    }
 }
@@ -103,6 +103,8 @@ public class ViewQueryTest {
     public final void testStale() {
         ViewQuery v = ViewQuery.builder("design/test").stale(true).build();
         assertThat(v.queryString(), is("_design/design/_view/test?stale=ok"));
+        assertTrue(v.isStale());
+        assertFalse(ViewQuery.builder("design/test").build().isStale());
     }
 
     @Test
@@ -211,13 +213,43 @@ public class ViewQueryTest {
     @Test
     public final void testStartkeyDocid() {
         ViewQuery v = ViewQuery.builder("design/test").startkeyDocid("2").build();
-        assertThat(v.queryString(), is("_design/design/_view/test?startkey_docid=%222%22"));
+        assertThat(v.queryString(), is("_design/design/_view/test?startkey_docid=2"));
     }
     
     @Test
     public final void testEndkeyDocid() {
         ViewQuery v = ViewQuery.builder("design/test").endkeyDocid("2").build();
-        assertThat(v.queryString(), is("_design/design/_view/test?endkey_docid=%222%22"));
+        assertThat(v.queryString(), is("_design/design/_view/test?endkey_docid=2"));
+    }
+
+    @Test
+    public final void testStartkeyJson() {
+        ViewQuery v = ViewQuery.builder("design/test").startkeyJson("[\"a\",1]").endkeyJson("{}").build();
+        assertThat(v.queryString(), is("_design/design/_view/test?startkey=%5B%22a%22%2C1%5D&endkey=%7B%7D"));
+    }
+
+    @Test
+    public final void testToBuilderReplacesParameters() {
+        ViewQuery v = ViewQuery.builder("design/test").limit(10).includeDocs(true).build();
+        ViewQuery next = v.toBuilder().limit(5).startkeyDocid("a").build();
+        assertThat(next.queryString(), is("_design/design/_view/test?include_docs=true&limit=5&startkey_docid=a"));
+        assertThat(v.queryString(), is("_design/design/_view/test?limit=10&include_docs=true"));
+        assertThat(next.getParameter("limit"), is("5"));
+        assertThat(next.getParameter("skip"), is((String) null));
+    }
+
+    @Test
+    public final void testGetParameterReturnsJson() {
+        ViewQuery v = ViewQuery.builder("design/test").startkey("a b", "c").endkeyJson("{}").build();
+        assertThat(v.getParameter("startkey"), is("[\"a b\",\"c\"]"));
+        assertThat(v.getParameter("endkey"), is("{}"));
+    }
+
+    @Test
+    public final void testRemove() {
+        ViewQuery v = ViewQuery.builder("design/test").startkey("a").startkeyDocid("b").build();
+        assertThat(v.toBuilder().remove("startkey_docid").build().queryString(),
+                is("_design/design/_view/test?startkey=%22a%22"));
     }
 
     @Test
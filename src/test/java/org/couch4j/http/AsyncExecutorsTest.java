@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.couch4j.http.DefaultCouchDbClient.RejectionPolicy;
+import org.junit.Test;
+
+public class AsyncExecutorsTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final Runnable blocking = new Runnable() {
+        public void run() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    };
+
+    private static Thread runOn(ExecutorService executor) {
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        executor.execute(new Runnable() {
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        });
+        return thread.get();
+    }
+
+    @Test
+    public void failWhenSaturated() throws Exception {
+        ExecutorService executor = AsyncExecutors.newThreadPool(1, 1, RejectionPolicy.FAIL);
+        executor.execute(blocking);
+        executor.execute(blocking);
+        try {
+            executor.execute(blocking);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void callerRunsWhenSaturated() throws Exception {
+        ExecutorService executor = AsyncExecutors.newThreadPool(1, 1, RejectionPolicy.CALLER_RUNS);
+        executor.execute(blocking);
+        executor.execute(blocking);
+        assertEquals(Thread.currentThread(), runOn(executor));
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectAfterShutdown() {
+        ExecutorService executor = AsyncExecutors.newThreadPool(1, 1, RejectionPolicy.CALLER_RUNS);
+        executor.shutdown();
+        executor.execute(blocking);
+    }
+
+    @Test
+    public void daemonThreads() throws Exception {
+        ExecutorService executor = AsyncExecutors.newThreadPool(2, 10, RejectionPolicy.FAIL);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        executor.execute(new Runnable() {
+            public void run() {
+                thread.set(Thread.currentThread());
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertTrue(thread.get().isDaemon());
+        executor.shutdown();
+    }
+
+    @Test
+    public void boundedExecutor() throws Exception {
+        ExecutorService executor = new AsyncExecutors.BoundedExecutorService(Executors.newCachedThreadPool(), 2,
+                RejectionPolicy.FAIL);
+        executor.execute(blocking);
+        executor.execute(blocking);
+        try {
+            executor.execute(blocking);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+    }
+
+    @Test
+    public void boundedExecutorCallerRuns() throws Exception {
+        ExecutorService executor = new AsyncExecutors.BoundedExecutorService(Executors.newCachedThreadPool(), 1,
+                RejectionPolicy.CALLER_RUNS);
+        executor.execute(blocking);
+        assertEquals(Thread.currentThread(), runOn(executor));
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void virtualThreadsFallBackToPool() throws Exception {
+        ExecutorService executor = AsyncExecutors.newExecutor(2, 10, RejectionPolicy.FAIL, true);
+        assertFalse(executor.isShutdown());
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
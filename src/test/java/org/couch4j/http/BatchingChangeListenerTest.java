@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.couch4j.api.Database.BatchChangeListener;
+import org.couch4j.api.Database.ChangeEvent;
+import org.couch4j.api.Document;
+import org.junit.Test;
+
+public class BatchingChangeListenerTest {
+
+    private static class RecordingListener implements BatchChangeListener {
+        final List<List<ChangeEvent>> batches = Collections.synchronizedList(new ArrayList<List<ChangeEvent>>());
+
+        public void onChanges(List<ChangeEvent> events) {
+            batches.add(events);
+        }
+    }
+
+    private static ChangeEvent event(final int seq) {
+        return new ChangeEvent() {
+            public boolean isDeleted() {
+                return false;
+            }
+
+            public String getSeq() {
+                return String.valueOf(seq);
+            }
+
+            public String getId() {
+                return "doc" + seq;
+            }
+
+            public List<String> changeRevs() {
+                return Collections.emptyList();
+            }
+
+            public Document getDocument() {
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void flushesFullBatches() {
+        RecordingListener listener = new RecordingListener();
+        BatchingChangeListener batching = new BatchingChangeListener(listener, 10, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 25; i++) {
+            batching.onChange(event(i));
+        }
+        batching.close();
+
+        int seq = 0;
+        for (List<ChangeEvent> batch : listener.batches) {
+            assertTrue(batch.size() <= 10);
+            for (ChangeEvent e : batch) {
+                assertEquals(String.valueOf(seq++), e.getSeq());
+            }
+        }
+        assertEquals(25, seq);
+    }
+
+    @Test
+    public void flushesAfterMaxDelay() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        BatchingChangeListener batching = new BatchingChangeListener(listener, 100, 20, TimeUnit.MILLISECONDS);
+        try {
+            batching.onChange(event(1));
+            batching.onChange(event(2));
+            Thread.sleep(300);
+            assertEquals(1, listener.batches.size());
+            assertEquals(2, listener.batches.get(0).size());
+        } finally {
+            batching.close();
+        }
+    }
+}
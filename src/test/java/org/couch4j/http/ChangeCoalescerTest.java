@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.couch4j.api.Database.ChangeListener;
+import org.couch4j.http.DatabaseChangeNotificationService.DatabaseChangeEvent;
+import org.junit.Test;
+
+public class ChangeCoalescerTest {
+
+    private final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+
+    private final SequenceTracker tracker = new SequenceTracker(new SequenceTracker.Listener() {
+        public void processed(String seq, int events) {
+        }
+    });
+
+    private final ChangeCoalescer.Sink sink = new ChangeCoalescer.Sink() {
+        public void dispatch(DatabaseChangeEvent event, ChangeListener[] listeners) {
+            dispatched.add(event.getId() + "@" + event.getSeq());
+            event.processed();
+        }
+    };
+
+    private DatabaseChangeEvent event(String id, int seq) {
+        String s = String.valueOf(seq);
+        return new DatabaseChangeEvent(id, s, false, Collections.<String> emptyList(), null, tracker, tracker.begin(
+                s, 1), 1);
+    }
+
+    @Test
+    public void keepsTheLatestEventPerDocument() throws Exception {
+        ChangeCoalescer coalescer = new ChangeCoalescer(sink, 1, TimeUnit.HOURS);
+        coalescer.offer(event("a", 1), new ChangeListener[0]);
+        coalescer.offer(event("b", 2), new ChangeListener[0]);
+        coalescer.offer(event("a", 3), new ChangeListener[0]);
+        coalescer.offer(event("a", 4), new ChangeListener[0]);
+        assertEquals(2, coalescer.collapsed());
+        assertTrue(dispatched.isEmpty());
+
+        coalescer.close();
+        assertEquals("[a@4, b@2]", dispatched.toString());
+        assertEquals("4", tracker.watermark());
+        assertEquals(0, tracker.inFlight());
+    }
+
+    @Test
+    public void dispatchesAfterTheWindow() throws Exception {
+        ChangeCoalescer coalescer = new ChangeCoalescer(sink, 50, TimeUnit.MILLISECONDS);
+        coalescer.offer(event("a", 1), new ChangeListener[0]);
+        Thread.sleep(500);
+        assertEquals("[a@1]", dispatched.toString());
+
+        coalescer.offer(event("a", 2), new ChangeListener[0]);
+        coalescer.close();
+        coalescer.offer(event("a", 3), new ChangeListener[0]);
+        assertEquals("[a@1, a@2, a@3]", dispatched.toString());
+        assertEquals(0, coalescer.collapsed());
+    }
+
+    @Test(timeout = 10000)
+    public void eventsOfferedWhileClosingFollowTheHeldEvents() throws Exception {
+        final CountDownLatch dispatching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ChangeCoalescer coalescer = new ChangeCoalescer(new ChangeCoalescer.Sink() {
+            public void dispatch(DatabaseChangeEvent event, ChangeListener[] listeners) {
+                if ("1".equals(event.getSeq())) {
+                    dispatching.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                sink.dispatch(event, listeners);
+            }
+        }, 1, TimeUnit.HOURS);
+        coalescer.offer(event("a", 1), new ChangeListener[0]);
+        coalescer.offer(event("b", 2), new ChangeListener[0]);
+        Thread closer = new Thread(new Runnable() {
+            public void run() {
+                coalescer.close();
+            }
+        });
+        closer.start();
+        dispatching.await();
+        // Offered by the feed while the held events are flushed
+        coalescer.offer(event("b", 3), new ChangeListener[0]);
+        release.countDown();
+        closer.join();
+        assertEquals("[a@1, b@2, b@3]", dispatched.toString());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ChangeFeedHubTest {
+
+    @Test
+    public void pollsAllFeedsWithTheHubThreads() throws Exception {
+        final CountDownLatch polled = new CountDownLatch(100);
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        ChangeFeedHub hub = new ChangeFeedHub(2, 10000);
+        for (int i = 0; i < 100; i++) {
+            hub.subscribe(new ChangeFeedHub.Poller() {
+                public boolean poll() {
+                    threads.add(Thread.currentThread().getName());
+                    polled.countDown();
+                    return false;
+                }
+            });
+        }
+        assertTrue(polled.await(5, TimeUnit.SECONDS));
+        assertEquals(100, hub.size());
+        assertTrue(threads.size() <= 2);
+        hub.shutdown();
+        assertTrue(hub.isShutdown());
+        assertEquals(0, hub.size());
+    }
+
+    @Test
+    public void pollsAgainImmediatelyIfThereWereChanges() throws Exception {
+        final CountDownLatch polled = new CountDownLatch(3);
+        ChangeFeedHub hub = new ChangeFeedHub(1, 10000);
+        hub.subscribe(new ChangeFeedHub.Poller() {
+            public boolean poll() {
+                polled.countDown();
+                return true;
+            }
+        });
+        assertTrue(polled.await(1, TimeUnit.SECONDS));
+        hub.shutdown();
+    }
+
+    @Test
+    public void stopsPollingUnsubscribedFeeds() throws Exception {
+        final AtomicInteger polls = new AtomicInteger();
+        ChangeFeedHub hub = new ChangeFeedHub(1, 10);
+        ChangeFeedHub.Poller poller = new ChangeFeedHub.Poller() {
+            public boolean poll() {
+                polls.incrementAndGet();
+                return false;
+            }
+        };
+        hub.subscribe(poller);
+        Thread.sleep(100);
+        hub.unsubscribe(poller);
+        Thread.sleep(50);
+        int count = polls.get();
+        assertTrue(count > 0);
+        Thread.sleep(100);
+        assertEquals(count, polls.get());
+        hub.shutdown();
+    }
+
+    @Test
+    public void keepsPollingFailingFeeds() throws Exception {
+        final CountDownLatch polled = new CountDownLatch(2);
+        ChangeFeedHub hub = new ChangeFeedHub(1, 10);
+        hub.subscribe(new ChangeFeedHub.Poller() {
+            public boolean poll() throws Exception {
+                polled.countDown();
+                throw new Exception("failed");
+            }
+        });
+        assertTrue(polled.await(1, TimeUnit.SECONDS));
+        hub.shutdown();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ChangeFeedMetricsTest {
+
+    private final AtomicInteger updateSeqRequests = new AtomicInteger();
+    private volatile String processedSeq;
+
+    private final ChangeFeedMetrics metrics = new ChangeFeedMetrics(new ChangeFeedMetrics.Source() {
+        public String processedSeq() {
+            return processedSeq;
+        }
+
+        public long updateSeq() {
+            updateSeqRequests.incrementAndGet();
+            return 100;
+        }
+
+        public int backlog() {
+            return 7;
+        }
+    });
+
+    @Test
+    public void latencyPercentiles() {
+        assertEquals(0, metrics.getDispatchLatency(99, TimeUnit.MILLISECONDS));
+        for (int i = 1; i <= 100; i++) {
+            metrics.delivered(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(100, metrics.getEventCount());
+        assertEquals(50, metrics.getDispatchLatency(50, TimeUnit.MILLISECONDS));
+        assertEquals(99, metrics.getDispatchLatency(99, TimeUnit.MILLISECONDS));
+        assertEquals(100, metrics.getDispatchLatency(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, metrics.getDispatchLatency(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void keepsTheLatestLatencies() {
+        for (int i = 0; i < ChangeFeedMetrics.LATENCY_SAMPLES; i++) {
+            metrics.delivered(1000);
+        }
+        for (int i = 0; i < ChangeFeedMetrics.LATENCY_SAMPLES; i++) {
+            metrics.delivered(5);
+        }
+        assertEquals(5, metrics.getDispatchLatency(100, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void lag() {
+        assertEquals(-1, metrics.getLag());
+        metrics.received("60");
+        assertEquals(40, metrics.getLag());
+        processedSeq = "90-g1AAAA";
+        assertEquals(10, metrics.getLag());
+        // The update_seq is requested at most once per second
+        assertEquals(1, updateSeqRequests.get());
+        assertEquals("60", metrics.getLastReceivedSeq());
+        assertEquals("90-g1AAAA", metrics.getLastProcessedSeq());
+        assertEquals(7, metrics.getDispatchBacklog());
+    }
+
+    @Test
+    public void updateSeqRequestDoesNotBlockTheDispatch() throws Exception {
+        final CountDownLatch requested = new CountDownLatch(1);
+        final CountDownLatch respond = new CountDownLatch(1);
+        final ChangeFeedMetrics blocking = new ChangeFeedMetrics(new ChangeFeedMetrics.Source() {
+            public String processedSeq() {
+                return "1";
+            }
+
+            public long updateSeq() {
+                requested.countDown();
+                try {
+                    respond.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 5;
+            }
+
+            public int backlog() {
+                return 0;
+            }
+        });
+        Thread poller = new Thread() {
+            @Override
+            public void run() {
+                blocking.getLag();
+            }
+        };
+        poller.start();
+        assertTrue(requested.await(5, TimeUnit.SECONDS));
+
+        blocking.delivered(1);
+        blocking.getEventRate();
+        // Another thread does not wait for the pending request either
+        assertEquals(-1, blocking.getLag());
+
+        respond.countDown();
+        poller.join(5000);
+        assertEquals(4, blocking.getLag());
+    }
+
+    @Test
+    public void sequenceNumber() {
+        assertEquals(12, ChangeFeedMetrics.sequenceNumber("12"));
+        assertEquals(12, ChangeFeedMetrics.sequenceNumber("12-g1AAAAE"));
+        assertEquals(-1, ChangeFeedMetrics.sequenceNumber("g1AAAAE"));
+        assertEquals(-1, ChangeFeedMetrics.sequenceNumber(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPercentile() {
+        metrics.getDispatchLatency(101, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.sf.json.JSONException;
+
+import org.junit.Test;
+
+public class ChangeLineParserTest {
+
+    private final ChangeLineParser parser = new ChangeLineParser();
+
+    private boolean parse(String line) throws Exception {
+        byte[] b = ("xx" + line).getBytes("UTF-8");
+        return parser.parse(b, 2, b.length - 2);
+    }
+
+    @Test
+    public void change() throws Exception {
+        assertTrue(parse("{\"seq\":12,\"id\":\"doc\",\"changes\":[{\"rev\":\"2-a\"},{\"rev\":\"1-b\"}]}"));
+        assertTrue(parser.isChange());
+        assertEquals("12", parser.seq());
+        assertEquals("doc", parser.id());
+        assertEquals(Arrays.asList("2-a", "1-b"), parser.revs());
+        assertFalse(parser.deleted());
+        assertNull(parser.lastSeq());
+    }
+
+    @Test
+    public void deletedChangeWithUnknownMembers() throws Exception {
+        assertTrue(parse(" { \"seq\" : \"3-g1AA\" , \"x\" : {\"a\":[1,\"]}\"]}, \"id\":\"d\\\"\\u00e4\\n\", "
+                + "\"changes\":[ ], \"deleted\":true, \"n\": null }"));
+        assertEquals("3-g1AA", parser.seq());
+        assertEquals("d\"ä\n", parser.id());
+        assertTrue(parser.revs().isEmpty());
+        assertTrue(parser.deleted());
+    }
+
+    @Test
+    public void includedDocument() throws Exception {
+        assertTrue(parse("{\"seq\":5,\"id\":\"d\",\"changes\":[{\"rev\":\"1-a\"}],"
+                + "\"doc\":{\"_id\":\"d\",\"_rev\":\"1-a\",\"v\":{\"x\":\"}\"}}}"));
+        assertEquals("d", parser.id());
+        assertEquals("}", parser.doc().getJSONObject("v").getString("x"));
+
+        assertTrue(parse("{\"seq\":6,\"id\":\"d\",\"doc\":null}"));
+        assertNull(parser.doc());
+        assertTrue(parse("{\"seq\":7,\"id\":\"d\"}"));
+        assertNull(parser.doc());
+    }
+
+    @Test
+    public void utf8Id() throws Exception {
+        assertTrue(parse("{\"seq\":1,\"id\":\"grüße\"}"));
+        assertEquals("grüße", parser.id());
+    }
+
+    @Test
+    public void lastSeq() throws Exception {
+        assertTrue(parse("{\"last_seq\":42}"));
+        assertFalse(parser.isChange());
+        assertEquals("42", parser.lastSeq());
+    }
+
+    @Test
+    public void heartbeat() throws Exception {
+        assertFalse(parse(""));
+        assertFalse(parse("  "));
+    }
+
+    @Test(expected = JSONException.class)
+    public void invalid() throws Exception {
+        parse("{\"seq\":1,\"id\":\"abc}");
+    }
+
+    @Test
+    public void framer() throws Exception {
+        String feed = "{\"seq\":1,\"id\":\"a\"}\n\n{\"seq\":2,\"id\":\"b\"}\r\n{\"last_seq\":2}";
+        StringBuilder large = new StringBuilder(feed);
+        // Lines that are larger than the initial buffer
+        large.append("\n{\"seq\":3,\"id\":\"");
+        for (int i = 0; i < 20000; i++) {
+            large.append('x');
+        }
+        large.append("\"}\n");
+
+        LineFramer lines = new LineFramer(new ByteArrayInputStream(large.toString().getBytes("UTF-8")));
+        List<String> result = new ArrayList<String>();
+        while (lines.next()) {
+            if (parser.parse(lines.buffer(), lines.lineStart(), lines.lineLength())) {
+                result.add(parser.isChange() ? parser.id() : "last:" + parser.lastSeq());
+            }
+        }
+        assertEquals(4, result.size());
+        assertEquals(Arrays.asList("a", "b", "last:2"), result.subList(0, 3));
+        assertEquals(20000, result.get(3).length());
+    }
+}
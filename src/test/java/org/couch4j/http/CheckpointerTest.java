@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.couch4j.api.SequenceCheckpointStore;
+import org.junit.Test;
+
+public class CheckpointerTest {
+
+    private static final SequenceCheckpointStore STORE = new SequenceCheckpointStore() {
+        public String load() {
+            return null;
+        }
+
+        public void store(String seq) {
+        }
+    };
+
+    @Test
+    public void invalidInterval() {
+        int before = checkpointThreads();
+        try {
+            new Checkpointer(STORE, 10, 0, TimeUnit.SECONDS);
+            fail("interval must be positive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(before, checkpointThreads());
+    }
+
+    private static int checkpointThreads() {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if ("couch4j-checkpoint".equals(t.getName()) && t.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.couch4j.http.DefaultCouchDbClient.CouchDbClientBuilder;
+import org.couch4j.http.DefaultCouchDbClient.RejectionPolicy;
+import org.junit.Test;
+
+public class CouchDbClientBuilderTest {
+
+    @Test
+    public void defaults() {
+        CouchDbClientBuilder b = DefaultCouchDbClient.builder();
+        assertEquals(HttpConnectionManager.DEFAULT_MAX_TOTAL_CONNECTIONS, b.getMaxTotalConnections());
+        assertEquals(HttpConnectionManager.DEFAULT_MAX_CONNECTIONS_PER_ROUTE, b.getMaxConnectionsPerRoute());
+        assertEquals(-1, b.getKeepAlive());
+
+        DefaultCouchDbClient client = b.build();
+        assertEquals(DefaultCouchDbClient.DEFAULT_HOST, client.getRemoteHost());
+        assertEquals(DefaultCouchDbClient.DEFAULT_PORT, client.getRemotePort());
+    }
+
+    @Test
+    public void configure() {
+        CouchDbClientBuilder b = DefaultCouchDbClient.builder().host("couch.example.com").port(5985)
+                .maxTotalConnections(128).maxConnectionsPerRoute(64).connectTimeout(1000).socketTimeout(30000)
+                .connectionLeaseTimeout(500).tcpNoDelay(false).keepAlive(15000);
+        assertEquals(128, b.getMaxTotalConnections());
+        assertEquals(64, b.getMaxConnectionsPerRoute());
+        assertEquals(1000, b.getConnectTimeout());
+        assertEquals(30000, b.getSocketTimeout());
+        assertEquals(500, b.getConnectionLeaseTimeout());
+        assertFalse(b.isTcpNoDelay());
+        assertEquals(15000, b.getKeepAlive());
+
+        DefaultCouchDbClient client = b.build();
+        assertEquals("http://couch.example.com:5985", client.toString());
+    }
+
+    @Test
+    public void asyncExecutor() {
+        CouchDbClientBuilder b = DefaultCouchDbClient.builder();
+        assertEquals(DefaultCouchDbClient.DEFAULT_ASYNC_THREADS, b.getAsyncThreads());
+        assertEquals(DefaultCouchDbClient.DEFAULT_ASYNC_QUEUE_CAPACITY, b.getAsyncQueueCapacity());
+        assertEquals(RejectionPolicy.CALLER_RUNS, b.getRejectionPolicy());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        b.asyncThreads(20, 50).asyncRejectionPolicy(RejectionPolicy.FAIL).virtualThreads(true).asyncExecutor(
+                executor);
+        assertEquals(20, b.getAsyncThreads());
+        assertEquals(50, b.getAsyncQueueCapacity());
+        assertEquals(RejectionPolicy.FAIL, b.getRejectionPolicy());
+        assertTrue(b.isVirtualThreads());
+        assertSame(executor, b.getAsyncExecutor());
+        executor.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void asyncQueueCapacityMustBePositive() {
+        DefaultCouchDbClient.builder().asyncThreads(10, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxConnectionsPerRouteMustBePositive() {
+        DefaultCouchDbClient.builder().maxConnectionsPerRoute(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timeoutsMustNotBeNegative() {
+        DefaultCouchDbClient.builder().socketTimeout(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keepAliveMustBePositive() {
+        // 0 would keep idle connections forever
+        DefaultCouchDbClient.builder().keepAlive(0);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.couch4j.api.ChangeSubscription;
+import org.couch4j.api.Database;
+import org.couch4j.api.DatabaseInfo;
+import org.couch4j.api.Database.BatchChangeListener;
+import org.couch4j.api.Database.ChangeEvent;
+import org.couch4j.exceptions.Couch4JException;
+import org.junit.Test;
+
+public class DatabaseChangeNotificationServiceTest {
+
+    private static final BatchChangeListener BATCH_LISTENER = new BatchChangeListener() {
+        public void onChanges(List<ChangeEvent> events) {
+        }
+    };
+
+    private final AtomicInteger infoRequests = new AtomicInteger();
+
+    @Test
+    public void failedBatchListenerIsNotRegistered() throws Exception {
+        DatabaseChangeNotificationService service = new DatabaseChangeNotificationService(null, null,
+                database(false), null, ChangeSubscription.ALL);
+        try {
+            service.addChangeListener(BATCH_LISTENER, 10, 1, TimeUnit.SECONDS);
+            fail("the start sequence cannot be requested");
+        } catch (Couch4JException e) {
+            // expected
+        }
+        assertFalse(service.hasListeners());
+        assertEquals(0, batchWorkers());
+        // not registered
+        service.removeChangeListener(BATCH_LISTENER);
+    }
+
+    @Test
+    public void replacingABatchListenerKeepsTheFeed() {
+        ChangeFeedHub hub = new ChangeFeedHub(1, 60000);
+        try {
+            // Polling fails, the hub retries after a backoff
+            DatabaseChangeNotificationService service = new DatabaseChangeNotificationService(null, null,
+                    database(true), hub, ChangeSubscription.ALL);
+            service.addChangeListener(BATCH_LISTENER, 10, 1, TimeUnit.SECONDS);
+            service.addChangeListener(BATCH_LISTENER, 20, 1, TimeUnit.SECONDS);
+            // The feed was not restarted from the current update sequence
+            assertEquals(1, infoRequests.get());
+            assertEquals(1, hub.size());
+            service.removeChangeListener(BATCH_LISTENER);
+            assertFalse(service.hasListeners());
+            assertEquals(0, hub.size());
+        } finally {
+            hub.shutdown();
+        }
+    }
+
+    private static int batchWorkers() {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if ("couch4j-batch-change-listener".equals(t.getName()) && t.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Database database(final boolean available) {
+        final DatabaseInfo info = (DatabaseInfo) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { DatabaseInfo.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getUpdateSeq".equals(method.getName())) {
+                            return 1;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (Database) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Database.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (!"getDatabaseInfo".equals(method.getName())) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        infoRequests.incrementAndGet();
+                        if (!available) {
+                            throw new Couch4JException(new IOException("unavailable"));
+                        }
+                        return info;
+                    }
+                });
+    }
+}
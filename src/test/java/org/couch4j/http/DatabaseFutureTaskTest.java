@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.couch4j.api.AsynchronousDatabase.AsyncToken;
+import org.couch4j.api.AsynchronousDatabase.ResponseHandler;
+import org.couch4j.api.DatabaseFuture;
+import org.junit.Test;
+
+public class DatabaseFutureTaskTest {
+
+    private static class RecordingHandler<T> implements ResponseHandler<T> {
+        T response;
+        AsyncToken token;
+        Exception error;
+
+        public void completed(T response, AsyncToken token) {
+            this.response = response;
+            this.token = token;
+        }
+
+        public void failed(Exception e) {
+            this.error = e;
+        }
+    }
+
+    @Test
+    public void notifiesHandlers() {
+        DatabaseFutureTask<String> future = new DatabaseFutureTask<String>(new Callable<String>() {
+            public String call() {
+                return "a";
+            }
+        });
+        RecordingHandler<String> before = new RecordingHandler<String>();
+        future.addHandler(before);
+        future.run();
+        RecordingHandler<String> after = new RecordingHandler<String>();
+        future.addHandler(after);
+
+        assertEquals("a", before.response);
+        assertSame(future, before.token);
+        assertEquals("a", after.response);
+    }
+
+    @Test
+    public void routesRuntimeExceptionsToFailed() {
+        final IllegalStateException failure = new IllegalStateException();
+        DatabaseFutureTask<String> future = new DatabaseFutureTask<String>(new Callable<String>() {
+            public String call() {
+                throw failure;
+            }
+        });
+        RecordingHandler<String> handler = new RecordingHandler<String>();
+        future.addHandler(handler);
+        future.run();
+        assertSame(failure, handler.error);
+        assertNull(handler.response);
+    }
+
+    @Test
+    public void transform() throws Exception {
+        DatabaseFutureTask<String> future = DatabaseFutureTask.create();
+        DatabaseFuture<Integer> length = future.transform(new DatabaseFuture.Transformer<String, Integer>() {
+            public Integer apply(String input) {
+                return input.length();
+            }
+        });
+        future.complete("abc");
+        assertEquals(Integer.valueOf(3), length.get());
+    }
+
+    @Test
+    public void allOf() throws Exception {
+        DatabaseFutureTask<String> a = DatabaseFutureTask.create();
+        DatabaseFutureTask<String> b = DatabaseFutureTask.create();
+        DatabaseFuture<List<String>> all = DatabaseFutures.allOf(Arrays.asList(a, b));
+        b.complete("b");
+        assertTrue(!all.isDone());
+        a.complete("a");
+        assertEquals(Arrays.asList("a", "b"), all.get());
+
+        assertEquals(Collections.emptyList(), DatabaseFutures.allOf(
+                Collections.<DatabaseFuture<String>> emptyList()).get());
+    }
+
+    @Test
+    public void allOfFails() throws Exception {
+        DatabaseFutureTask<String> a = DatabaseFutureTask.create();
+        DatabaseFutureTask<String> b = DatabaseFutureTask.create();
+        DatabaseFuture<List<String>> all = DatabaseFutures.allOf(Arrays.asList(a, b));
+        IllegalStateException failure = new IllegalStateException();
+        a.fail(failure);
+        try {
+            all.get();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+            return;
+        }
+        throw new AssertionError("allOf did not fail");
+    }
+}
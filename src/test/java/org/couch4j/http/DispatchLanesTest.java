@@ -0,0 +1,175 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DispatchLanesTest {
+
+    @Test
+    public void preservesOrderPerKey() throws Exception {
+        final Map<String, List<Integer>> received = new HashMap<String, List<Integer>>();
+        DispatchLanes lanes = new DispatchLanes(4, 16);
+        for (int i = 0; i < 1000; i++) {
+            final String key = "doc" + (i % 10);
+            final int n = i;
+            lanes.execute(key, new Runnable() {
+                public void run() {
+                    synchronized (received) {
+                        List<Integer> l = received.get(key);
+                        if (null == l) {
+                            l = new ArrayList<Integer>();
+                            received.put(key, l);
+                        }
+                        l.add(n);
+                    }
+                }
+            });
+        }
+        lanes.close();
+
+        assertEquals(10, received.size());
+        for (List<Integer> l : received.values()) {
+            assertEquals(100, l.size());
+            List<Integer> sorted = new ArrayList<Integer>(l);
+            Collections.sort(sorted);
+            assertEquals(sorted, l);
+        }
+    }
+
+    @Test
+    public void blocksWhenTheLaneIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final DispatchLanes lanes = new DispatchLanes(1, 1);
+        Runnable blocking = new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // The first task is running, the second one is queued
+        lanes.execute("a", blocking);
+        lanes.execute("a", blocking);
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    lanes.execute("a", new Runnable() {
+                        public void run() {
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        release.countDown();
+        producer.join(1000);
+        assertTrue(!producer.isAlive());
+        lanes.close();
+    }
+
+    @Test
+    public void closeFromAWorkerWhileTheLaneIsFull() throws Exception {
+        final CountDownLatch close = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        final DispatchLanes lanes = new DispatchLanes(1, 1);
+        lanes.execute("a", new Runnable() {
+            public void run() {
+                try {
+                    close.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                lanes.close();
+                closed.countDown();
+            }
+        });
+        final CountDownLatch ran = new CountDownLatch(2);
+        final Runnable task = new Runnable() {
+            public void run() {
+                ran.countDown();
+            }
+        };
+        lanes.execute("a", task);
+        // Blocks while the lane is full
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    lanes.execute("a", task);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        producer.start();
+        producer.join(100);
+        close.countDown();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void interruptedCloseStopsAllWorkers() throws Exception {
+        int before = liveWorkers();
+        DispatchLanes lanes = new DispatchLanes(4, 16);
+        assertEquals(before + 4, liveWorkers());
+        Thread.currentThread().interrupt();
+        lanes.close();
+        assertTrue(Thread.interrupted());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (liveWorkers() > before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(before, liveWorkers());
+    }
+
+    private static int liveWorkers() {
+        int n = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.isAlive() && t.getName().startsWith("couch4j-dispatch-lane-")) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class DocumentCacheTest {
+
+    @Test
+    public void hitsAndMisses() {
+        DocumentCache cache = new DocumentCache(100);
+        assertNull(cache.get("a"));
+        cache.put("a", "{\"_id\":\"a\"}", cache.generation());
+        assertEquals("{\"_id\":\"a\"}", cache.get("a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        DocumentCache cache = new DocumentCache(30);
+        cache.put("a", "0123456789", cache.generation());
+        cache.put("b", "0123456789", cache.generation());
+        cache.put("c", "0123456789", cache.generation());
+        cache.get("a");
+        cache.put("d", "0123456789", cache.generation());
+
+        assertEquals(3, cache.getSize());
+        assertEquals(30, cache.getWeight());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void ignoresDocumentsLargerThanTheCache() {
+        DocumentCache cache = new DocumentCache(5);
+        cache.put("a", "0123456789", cache.generation());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void invalidate() {
+        DocumentCache cache = new DocumentCache(100);
+        cache.put("a", "{}", cache.generation());
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getWeight());
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void skipsResponsesThatRacedWithAnInvalidation() {
+        DocumentCache cache = new DocumentCache(100);
+        long generation = cache.generation();
+        cache.invalidate("a");
+        cache.put("a", "{\"v\":1}", generation);
+        assertNull(cache.get("a"));
+    }
+}
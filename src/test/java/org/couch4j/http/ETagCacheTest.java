@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+public class ETagCacheTest {
+
+    @Test
+    public void cachedResponsesAreCopied() {
+        ETagCache cache = new ETagCache(1024);
+        cache.put("url", "\"1\"", "{\"a\":{\"b\":1}}");
+
+        JSONObject cached = cache.get("url").getJson();
+        assertEquals(1, cached.getJSONObject("a").getInt("b"));
+        cached.getJSONObject("a").put("b", 3);
+        assertEquals(1, cache.get("url").getJson().getJSONObject("a").getInt("b"));
+        assertEquals("\"1\"", cache.get("url").getETag());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        // Room for two bodies
+        ETagCache cache = new ETagCache(4);
+        cache.put("a", "1", "{}");
+        cache.put("b", "1", "{}");
+        cache.get("a");
+        cache.put("c", "1", "{}");
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void statistics() {
+        ETagCache cache = new ETagCache(1024);
+        cache.put("a", "1", "{\"a\":1}");
+        cache.put("b", "1", "{}");
+        cache.revalidated(false);
+        cache.revalidated(true);
+        cache.revalidated(true);
+        cache.revalidated(true);
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.75, cache.getHitRatio(), 0.001);
+        assertEquals(2, cache.getSize());
+        assertEquals(9, cache.getWeight());
+
+        // A changed response replaces the previous one
+        cache.put("a", "2", "{}");
+        cache.remove("b");
+        assertEquals(2, cache.getInvalidationCount());
+        assertEquals(1, cache.getSize());
+        assertEquals(2, cache.getWeight());
+    }
+
+    @Test
+    public void boundedByTheSizeOfTheBodies() {
+        ETagCache cache = new ETagCache(10);
+        cache.put("a", "1", "{\"a\":1}");
+        cache.put("b", "1", "{\"b\":1}");
+        assertNull(cache.get("a"));
+        assertEquals(7, cache.getWeight());
+
+        // Too large to be cached, the outdated body is removed
+        cache.put("b", "2", "{\"b\":\"too large\"}");
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.getWeight());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+public class HttpConnectionManagerTest {
+
+    @Test
+    public void warmUpIgnoresUnreachableHost() {
+        HttpConnectionManager cm = new HttpConnectionManager(DefaultCouchDbClient.builder().connectTimeout(1000));
+        try {
+            assertEquals(0, cm.warmUp("localhost", 1, 3));
+        } finally {
+            cm.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void warmUpIsLimitedByThePool() throws Exception {
+        // Connections are accepted by the backlog of the server socket
+        ServerSocket server = new ServerSocket(0, 10);
+        HttpConnectionManager cm = new HttpConnectionManager(DefaultCouchDbClient.builder().connectTimeout(1000)
+                .maxConnectionsPerRoute(2));
+        try {
+            assertEquals(2, cm.warmUp("localhost", server.getLocalPort(), 3));
+        } finally {
+            cm.shutdown();
+            server.close();
+        }
+    }
+
+    @Test
+    public void shutdown() {
+        HttpConnectionManager cm = new HttpConnectionManager(DefaultCouchDbClient.builder().evictIdleConnections(100,
+                1000));
+        assertFalse(cm.isShutdown());
+        cm.shutdown();
+        assertTrue(cm.isShutdown());
+        // a second call is a no-op
+        cm.shutdown();
+    }
+}
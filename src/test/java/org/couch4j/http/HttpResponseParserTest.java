@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class HttpResponseParserTest {
+
+    /**
+     * Feeds the response in pieces of the given size.
+     */
+    private static HttpResponseParser parse(String response, int pieceSize) throws IOException {
+        HttpResponseParser parser = new HttpResponseParser(false);
+        byte[] b = response.getBytes("UTF-8");
+        for (int i = 0; i < b.length; i += pieceSize) {
+            parser.feed(ByteBuffer.wrap(b, i, Math.min(pieceSize, b.length - i)));
+        }
+        return parser;
+    }
+
+    @Test
+    public void contentLength() throws Exception {
+        String response = "HTTP/1.1 201 Created\r\nContent-Type: application/json\r\nContent-Length: 11\r\n\r\n"
+                + "{\"ok\":true}";
+        for (int size = 1; size < 20; size++) {
+            HttpResponseParser parser = parse(response, size);
+            assertTrue(parser.isComplete());
+            assertTrue(parser.keepAlive());
+            assertEquals(201, parser.response().getStatus());
+            assertEquals("{\"ok\":true}", parser.response().text());
+        }
+    }
+
+    @Test
+    public void chunked() throws Exception {
+        String response = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5;ext=1\r\n{\"a\":\r\n7\r\n\"äbc\"}\r\n0\r\nX-Trailer: 1\r\n\r\n";
+        for (int size = 1; size < 20; size++) {
+            HttpResponseParser parser = parse(response, size);
+            assertTrue(parser.isComplete());
+            assertTrue(parser.keepAlive());
+            assertEquals("{\"a\":\"äbc\"}", parser.response().text());
+        }
+    }
+
+    @Test
+    public void untilClose() throws Exception {
+        HttpResponseParser parser = parse("HTTP/1.0 200 OK\r\n\r\n{\"a\":1}", 3);
+        assertFalse(parser.isComplete());
+        assertTrue(parser.endOfStream());
+        assertFalse(parser.keepAlive());
+        assertEquals("{\"a\":1}", parser.response().text());
+    }
+
+    @Test
+    public void connectionClose() throws Exception {
+        HttpResponseParser parser = parse("HTTP/1.1 404 Object Not Found\r\nConnection: close\r\n"
+                + "Content-Length: 2\r\n\r\n{}", 100);
+        assertTrue(parser.isComplete());
+        assertFalse(parser.keepAlive());
+        assertEquals(404, parser.response().getStatus());
+    }
+
+    @Test
+    public void interimResponse() throws Exception {
+        HttpResponseParser parser = parse("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n{}",
+                7);
+        assertTrue(parser.isComplete());
+        assertEquals(200, parser.response().getStatus());
+    }
+
+    @Test
+    public void headResponse() throws Exception {
+        HttpResponseParser parser = new HttpResponseParser(true);
+        parser.feed(ByteBuffer.wrap("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n".getBytes("US-ASCII")));
+        assertTrue(parser.isComplete());
+        assertTrue(parser.keepAlive());
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedStatusLine() throws Exception {
+        parse("FOO\r\n\r\n", 10);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.json.JSONObject;
+
+import org.couch4j.api.DatabaseFuture;
+import org.couch4j.exceptions.DocumentNotFoundException;
+import org.junit.Test;
+
+public class InFlightRequestsTest {
+
+    private final InFlightRequests requests = new InFlightRequests();
+
+    @Test
+    public void singleCallerGetsTheResponse() {
+        final JSONObject json = JSONObject.fromObject("{\"a\":1}");
+        assertSame(json, requests.get("url", new Callable<JSONObject>() {
+            public JSONObject call() {
+                return json;
+            }
+        }));
+    }
+
+    @Test
+    public void concurrentCallersShareOneRequest() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<JSONObject> loader = new Callable<JSONObject>() {
+            public JSONObject call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return JSONObject.fromObject("{\"a\":1}");
+            }
+        };
+
+        final List<JSONObject> results = new ArrayList<JSONObject>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    JSONObject json = requests.get("url", loader);
+                    synchronized (results) {
+                        results.add(json);
+                    }
+                }
+            });
+        }
+        threads.get(0).start();
+        started.await();
+        for (Thread t : threads.subList(1, threads.size())) {
+            t.start();
+        }
+        Thread.sleep(200);
+        release.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(10, results.size());
+        for (JSONObject json : results) {
+            assertEquals(1, json.getInt("a"));
+        }
+        // Every caller gets its own copy
+        assertNotSame(results.get(0), results.get(1));
+    }
+
+    @Test(expected = DocumentNotFoundException.class)
+    public void exceptionsArePropagated() {
+        requests.get("url", new Callable<JSONObject>() {
+            public JSONObject call() {
+                throw new DocumentNotFoundException(new JSONObject());
+            }
+        });
+    }
+
+    @Test
+    public void asynchronousCallersShareOneRequest() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final DatabaseFutureTask<JSONObject> response = DatabaseFutureTask.create();
+        Callable<DatabaseFuture<JSONObject>> loader = new Callable<DatabaseFuture<JSONObject>>() {
+            public DatabaseFuture<JSONObject> call() {
+                calls.incrementAndGet();
+                return response;
+            }
+        };
+        DatabaseFuture<JSONObject> first = requests.getAsync("url", loader);
+        DatabaseFuture<JSONObject> second = requests.getAsync("url", loader);
+        // A blocking caller joins the request as well
+        final List<JSONObject> blocking = new ArrayList<JSONObject>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                blocking.add(requests.get("url", new Callable<JSONObject>() {
+                    public JSONObject call() {
+                        throw new AssertionError("not shared");
+                    }
+                }));
+            }
+        };
+        t.start();
+        Thread.sleep(200);
+        response.complete(JSONObject.fromObject("{\"a\":1}"));
+        t.join();
+
+        assertEquals(1, calls.get());
+        assertEquals(1, first.get().getInt("a"));
+        assertEquals(1, second.get().getInt("a"));
+        assertEquals(1, blocking.get(0).getInt("a"));
+        assertNotSame(first.get(), second.get());
+
+        // Completed requests are not shared
+        requests.getAsync("url", loader);
+        assertEquals(2, calls.get());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+
+import org.junit.Test;
+
+public class JsonRowReaderTest {
+
+    private static final String VIEW_RESULT = "{\"total_rows\":3,\"offset\":1,\"rows\":[\r\n"
+            + "{\"id\":\"a\",\"key\":\"k,1\",\"value\":{\"v\":[1,2,{\"x\":\"}\"}]}},\r\n"
+            + "{\"id\":\"b\",\"key\":[\"k\\\"2\",2],\"value\":null},\r\n"
+            + "{\"id\":\"c\",\"key\":3,\"value\":true}\r\n" + "]}";
+
+    @Test
+    public void testReadHeader() throws Exception {
+        JsonRowReader reader = new JsonRowReader(new StringReader(VIEW_RESULT), "rows");
+        JSONObject header = reader.readHeader();
+        assertEquals(3, header.getInt("total_rows"));
+        assertEquals(1, header.getInt("offset"));
+    }
+
+    @Test
+    public void testReadRows() throws Exception {
+        JsonRowReader reader = new JsonRowReader(new StringReader(VIEW_RESULT), "rows");
+        reader.readHeader();
+
+        JSONObject row = reader.nextRow();
+        assertEquals("a", row.getString("id"));
+        assertEquals("k,1", row.getString("key"));
+        assertEquals("}", row.getJSONObject("value").getJSONArray("v").getJSONObject(2).getString("x"));
+
+        row = reader.nextRow();
+        assertEquals("b", row.getString("id"));
+        assertEquals("k\"2", row.getJSONArray("key").getString(0));
+
+        row = reader.nextRow();
+        assertEquals("c", row.getString("id"));
+        assertTrue(row.getBoolean("value"));
+
+        assertNull(reader.nextRow());
+        assertNull(reader.nextRow());
+    }
+
+    @Test
+    public void testEmptyRows() throws Exception {
+        JsonRowReader reader = new JsonRowReader(new StringReader("{\"total_rows\":0,\"rows\":[]}"), "rows");
+        assertEquals(0, reader.readHeader().getInt("total_rows"));
+        assertNull(reader.nextRow());
+    }
+
+    @Test
+    public void testTrailer() throws Exception {
+        JsonRowReader reader = new JsonRowReader(new StringReader(
+                "{\"results\":[{\"seq\":1,\"id\":\"a\"}],\n\"last_seq\":1}"), "results");
+        assertTrue(reader.readHeader().isEmpty());
+        assertNull(reader.trailer());
+        assertEquals("a", reader.nextRow().getString("id"));
+        assertNull(reader.nextRow());
+        assertEquals(1, reader.trailer().getInt("last_seq"));
+    }
+
+    @Test
+    public void testMissingArray() throws Exception {
+        JsonRowReader reader = new JsonRowReader(new StringReader("{\"rows\":null}"), "results");
+        reader.readHeader();
+        assertNull(reader.nextRow());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testTruncatedResponse() throws Exception {
+        JsonRowReader reader = new JsonRowReader(new StringReader("{\"rows\":[{\"id\":\"a\""), "rows");
+        reader.readHeader();
+        reader.nextRow();
+    }
+}
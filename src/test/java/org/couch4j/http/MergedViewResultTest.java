@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import net.sf.json.JSONObject;
+
+import org.couch4j.api.StreamingViewResult;
+import org.couch4j.api.ViewResultRow;
+import org.couch4j.exceptions.Couch4JException;
+import org.junit.Test;
+
+public class MergedViewResultTest {
+
+    /**
+     * Returns the rows {@code prefix + 0} to {@code prefix + (size - 1)}, an
+     * endless number of rows if {@code size} is negative or fails after
+     * {@code size} rows if {@code fail} is set.
+     */
+    private static final class Partition implements StreamingViewResult {
+        private final String prefix;
+        private final int size;
+        private final boolean fail;
+        volatile boolean closed;
+
+        Partition(String prefix, int size, boolean fail) {
+            this.prefix = prefix;
+            this.size = size;
+            this.fail = fail;
+        }
+
+        public int getTotalRows() {
+            return 42;
+        }
+
+        public int getOffset() {
+            return 7;
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        public Iterator<ViewResultRow> iterator() {
+            return new Iterator<ViewResultRow>() {
+                private int i;
+
+                public boolean hasNext() {
+                    if (closed) {
+                        return false;
+                    }
+                    if (i == size && fail) {
+                        throw new Couch4JException(new IOException("failed"));
+                    }
+                    return size < 0 || i < size;
+                }
+
+                public ViewResultRow next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    JSONObject json = new JSONObject();
+                    json.put("id", prefix + i++);
+                    json.put("key", prefix);
+                    json.put("value", prefix);
+                    return new JsonViewResultRow(json, null);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    @Test
+    public void mergesAllRows() {
+        List<Partition> partitions = Arrays.asList(new Partition("a", 500, false), new Partition("b", 0, false),
+                new Partition("c", 300, false));
+        MergedViewResult result = new MergedViewResult(new ArrayList<StreamingViewResult>(partitions), 10);
+        assertEquals(42, result.getTotalRows());
+        assertEquals(7, result.getOffset());
+
+        int a = 0;
+        int c = 0;
+        for (ViewResultRow row : result) {
+            // The rows of each partition keep their order
+            if (row.getId().startsWith("a")) {
+                assertEquals("a" + a++, row.getId());
+            } else {
+                assertEquals("c" + c++, row.getId());
+            }
+        }
+        assertEquals(500, a);
+        assertEquals(300, c);
+    }
+
+    @Test
+    public void failure() {
+        MergedViewResult result = new MergedViewResult(Arrays.<StreamingViewResult> asList(new Partition("a", -1,
+                false), new Partition("b", 5, true)), 10);
+        try {
+            for (Iterator<ViewResultRow> it = result.iterator(); it.hasNext();) {
+                it.next();
+            }
+            fail("The failure of a partition must be propagated");
+        } catch (Couch4JException e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void closeStopsTheReaders() throws Exception {
+        Partition endless = new Partition("a", -1, false);
+        MergedViewResult result = new MergedViewResult(Collections.<StreamingViewResult> singletonList(endless), 10);
+        Iterator<ViewResultRow> rows = result.iterator();
+        assertTrue(rows.hasNext());
+        rows.next();
+        result.close();
+        assertTrue(endless.closed);
+        assertFalse(rows.hasNext());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void iterateOnce() {
+        MergedViewResult result = new MergedViewResult(Collections.<StreamingViewResult> singletonList(new Partition(
+                "a", 1, false)));
+        result.iterator();
+        result.iterator();
+    }
+}
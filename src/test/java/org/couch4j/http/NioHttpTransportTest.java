@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.couch4j.exceptions.Couch4JException;
+import org.junit.After;
+import org.junit.Test;
+
+public class NioHttpTransportTest {
+
+    /**
+     * Answers each request with the request line as the body and closes the
+     * connection after {@code requestsPerConnection} requests.
+     */
+    private final class Server implements Runnable {
+        private final ServerSocket socket;
+        private final int requestsPerConnection;
+        private final AtomicInteger connections = new AtomicInteger();
+
+        Server(int requestsPerConnection) throws IOException {
+            this.socket = new ServerSocket(0);
+            this.requestsPerConnection = requestsPerConnection;
+            Thread t = new Thread(this);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    final Socket s = socket.accept();
+                    connections.incrementAndGet();
+                    Thread t = new Thread(new Runnable() {
+                        public void run() {
+                            serve(s);
+                        }
+                    });
+                    t.setDaemon(true);
+                    t.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket s) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "US-ASCII"));
+                OutputStream out = s.getOutputStream();
+                for (int i = 0; i < requestsPerConnection; i++) {
+                    String requestLine = in.readLine();
+                    if (null == requestLine) {
+                        break;
+                    }
+                    int length = 0;
+                    String header;
+                    while ((header = in.readLine()).length() > 0) {
+                        if (header.toLowerCase().startsWith("content-length:")) {
+                            length = Integer.parseInt(header.substring(15).trim());
+                        }
+                    }
+                    char[] body = new char[length];
+                    for (int read = 0; read < length;) {
+                        read += in.read(body, read, length - read);
+                    }
+                    String json = "{\"request\":\"" + requestLine + "\",\"body\":" + length + "}";
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + json.length() + "\r\n\r\n" + json)
+                            .getBytes("UTF-8"));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // connection closed
+            } finally {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private Server server;
+    private NioHttpTransport transport;
+
+
+    @After
+    public void tearDown() throws Exception {
+        if (null != transport) {
+            transport.shutdown();
+        }
+        if (null != server) {
+            server.socket.close();
+        }
+    }
+
+    private NioHttpTransport transport(int requestsPerConnection, int connections) throws IOException {
+        server = new Server(requestsPerConnection);
+        transport = new NioHttpTransport("localhost", server.socket.getLocalPort(), 1, connections, 10000);
+        return transport;
+    }
+
+    @Test
+    public void path() throws Exception {
+        assertEquals("/db/doc?rev=1", NioHttpTransport.path("http://localhost:5984/db/doc?rev=1"));
+        assertEquals("/", NioHttpTransport.path("http://localhost:5984"));
+    }
+
+    @Test
+    public void manyRequestsOnFewConnections() throws Exception {
+        transport(Integer.MAX_VALUE, 2);
+        List<DatabaseFutureTask<NioHttpTransport.Response>> responses = new ArrayList<DatabaseFutureTask<NioHttpTransport.Response>>();
+        for (int i = 0; i < 200; i++) {
+            responses.add(transport.execute("PUT", "http://localhost/db/" + i, "{\"i\":" + i + "}"));
+        }
+        for (int i = 0; i < 200; i++) {
+            NioHttpTransport.Response r = responses.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(200, r.getStatus());
+            assertTrue(r.text(), r.text().startsWith("{\"request\":\"PUT /db/" + i + " HTTP/1.1\""));
+        }
+        assertTrue(server.connections.get() <= 2);
+    }
+
+    @Test
+    public void retryOnClosedConnection() throws Exception {
+        transport(1, 1);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(200, transport.execute("GET", "http://localhost/db/" + i, null).get(10, TimeUnit.SECONDS)
+                    .getStatus());
+            // Give the server the chance to close the connection
+            Thread.sleep(50);
+        }
+        assertEquals(5, server.connections.get());
+    }
+
+    @Test
+    public void shutdownFailsRequests() throws Exception {
+        transport(Integer.MAX_VALUE, 1);
+        transport.shutdown();
+        try {
+            transport.execute("GET", "http://localhost/db", null).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof Couch4JException);
+        }
+    }
+
+    @Test
+    public void requestsRacingTheShutdownComplete() throws Exception {
+        transport(Integer.MAX_VALUE, 2);
+        final List<DatabaseFutureTask<NioHttpTransport.Response>> responses = new CopyOnWriteArrayList<DatabaseFutureTask<NioHttpTransport.Response>>();
+        Thread client = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 2000; i++) {
+                    responses.add(transport.execute("GET", "http://localhost/db/" + i, null));
+                }
+            }
+        };
+        client.start();
+        Thread.sleep(5);
+        transport.shutdown();
+        client.join();
+        for (DatabaseFutureTask<NioHttpTransport.Response> response : responses) {
+            try {
+                response.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof Couch4JException);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.couch4j.api.FutureDatabase;
+import org.couch4j.api.ViewQuery;
+import org.couch4j.api.ViewResult;
+import org.junit.Test;
+
+public class PartitionedViewScanTest {
+
+    private final List<String> queries = new ArrayList<String>();
+
+    private static List<String> queryStrings(List<ViewQuery> queries) {
+        List<String> strings = new ArrayList<String>();
+        for (ViewQuery q : queries) {
+            strings.add(q.queryString());
+        }
+        return strings;
+    }
+
+    @Test
+    public void partitions() {
+        List<ViewQuery> partitions = PartitionedViewScan.partitions(ViewQuery.builder("_all_docs").build(),
+                Arrays.asList("g", "p"));
+        assertEquals(Arrays.asList("_all_docs?endkey=%22g%22&inclusive_end=false",
+                "_all_docs?startkey=%22g%22&endkey=%22p%22&inclusive_end=false", "_all_docs?startkey=%22p%22"),
+                queryStrings(partitions));
+    }
+
+    @Test
+    public void partitionsKeepTheRangeOfTheQuery() {
+        ViewQuery query = ViewQuery.builder("d/v").startkey("a").startkeyDocid("x").endkey("z").includeDocs(true)
+                .build();
+        List<ViewQuery> partitions = PartitionedViewScan.partitions(query, Arrays.asList("m", "m"));
+        assertEquals(Arrays.asList(
+                "_design/d/_view/v?startkey=%22a%22&startkey_docid=x&include_docs=true&endkey=%22m%22&inclusive_end=false",
+                "_design/d/_view/v?endkey=%22z%22&include_docs=true&startkey=%22m%22"), queryStrings(partitions));
+    }
+
+    @Test
+    public void noSplitKeys() {
+        ViewQuery query = ViewQuery.builder("d/v").descending(true).build();
+        assertEquals(Collections.singletonList(query.queryString()),
+                queryStrings(PartitionedViewScan.partitions(query, Collections.emptyList())));
+    }
+
+    @Test
+    public void keyJson() {
+        assertEquals("\"a\"", PartitionedViewScan.keyJson("a"));
+        assertEquals("12", PartitionedViewScan.keyJson(12));
+        assertEquals("null", PartitionedViewScan.keyJson(null));
+        assertEquals("[\"a\",1]", PartitionedViewScan.keyJson(Arrays.asList("a", 1)));
+        assertEquals("[\"a\",\"b\"]", PartitionedViewScan.keyJson(new String[] { "a", "b" }));
+        assertEquals("[\"a\",1]", PartitionedViewScan.keyJson(JSONArray.fromObject("[\"a\",1]")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void limitIsRejected() {
+        PartitionedViewScan.partitions(ViewQuery.builder("d/v").limit(10).build(), Arrays.asList("g"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullSplitKeys() {
+        PartitionedViewScan.partitions(ViewQuery.builder("d/v").build(), null);
+    }
+
+    /**
+     * A view with 100 rows, the key of row {@code i} is {@code i / 10}.
+     */
+    private FutureDatabase database() {
+        return (FutureDatabase) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FutureDatabase.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        ViewQuery q = (ViewQuery) args[0];
+                        queries.add(q.queryString());
+                        int start = 0;
+                        if (null != q.getParameter("startkey")) {
+                            start = Integer.parseInt(q.getParameter("startkey")) * 10;
+                        }
+                        int from = start;
+                        if (null != q.getParameter("startkey_docid")) {
+                            // The id of row i is i
+                            from = Math.max(from, Integer.parseInt(q.getParameter("startkey_docid")));
+                        }
+                        int end = 100;
+                        if (null != q.getParameter("endkey")) {
+                            end = (Integer.parseInt(q.getParameter("endkey")) + 1) * 10;
+                        }
+                        String skip = q.getParameter("skip");
+                        from = Math.min(end, from + (null == skip ? 0 : Integer.parseInt(skip)));
+                        int to = Math.min(end, from + Integer.parseInt(q.getParameter("limit")));
+                        JSONArray rows = new JSONArray();
+                        for (int i = from; i < to; i++) {
+                            JSONObject row = new JSONObject();
+                            row.put("id", String.valueOf(i));
+                            row.put("key", i / 10);
+                            row.put("value", null);
+                            rows.add(row);
+                        }
+                        JSONObject json = new JSONObject();
+                        json.put("total_rows", 100);
+                        json.put("offset", start);
+                        json.put("rows", rows);
+                        DatabaseFutureTask<ViewResult> future = DatabaseFutureTask.create();
+                        future.complete(new JsonViewResult(json, null));
+                        return future;
+                    }
+                });
+    }
+
+    @Test
+    public void sampleSplitKeys() {
+        List<Object> keys = PartitionedViewScan.sampleSplitKeys(database(), ViewQuery.builder("d/v").build(), 4);
+        assertEquals(Arrays.<Object> asList(2, 5, 7), keys);
+        assertEquals(Arrays.asList("_design/d/_view/v?include_docs=false&limit=0",
+                "_design/d/_view/v?include_docs=false&limit=1&skip=25",
+                "_design/d/_view/v?include_docs=false&startkey=2&startkey_docid=25&limit=1&skip=25",
+                "_design/d/_view/v?include_docs=false&startkey=5&startkey_docid=50&limit=1&skip=25"), queries);
+    }
+
+    @Test
+    public void sampleSplitKeysOfARange() {
+        ViewQuery query = ViewQuery.builder("d/v").startkey(2).endkeyJson("5").build();
+        List<Object> keys = PartitionedViewScan.sampleSplitKeys(database(), query, 2);
+        // rows 20 to 59 (the offset of the end key is 50, i.e. without the
+        // rows of the end key itself)
+        assertEquals(Arrays.<Object> asList(3), keys);
+        assertEquals("_design/d/_view/v?startkey=2&endkey=5&include_docs=false&limit=1&skip=15", queries.get(2));
+    }
+
+    @Test
+    public void sampleSplitKeysIgnoresDuplicates() {
+        assertEquals(Arrays.<Object> asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9),
+                PartitionedViewScan.sampleSplitKeys(database(), ViewQuery.builder("d/v").build(), 50));
+    }
+
+    @Test
+    public void sampleOnePartition() {
+        assertEquals(Collections.emptyList(),
+                PartitionedViewScan.sampleSplitKeys(database(), ViewQuery.builder("d/v").build(), 1));
+        assertEquals(0, queries.size());
+    }
+}
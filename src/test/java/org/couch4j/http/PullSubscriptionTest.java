@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.couch4j.api.Publisher.Subscriber;
+import org.couch4j.api.Publisher.Subscription;
+import org.junit.Test;
+
+public class PullSubscriptionTest {
+
+    private static final Executor SAME_THREAD = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Produces the numbers up to {@code max}.
+     */
+    private static final class Counter extends PullSubscription<Integer> {
+        private final int max;
+        private int produced;
+        private boolean closed;
+
+        Counter(Subscriber<? super Integer> subscriber, int max) {
+            super(subscriber, SAME_THREAD);
+            this.max = max;
+        }
+
+        @Override
+        protected Integer next() {
+            return produced < max ? ++produced : null;
+        }
+
+        @Override
+        protected void close() {
+            closed = true;
+        }
+    }
+
+    private static class Recorder implements Subscriber<Integer> {
+        final List<Integer> elements = new ArrayList<Integer>();
+        Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(Integer element) {
+            elements.add(element);
+        }
+
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void onlyRequestedElementsAreProduced() {
+        Recorder r = new Recorder();
+        Counter c = new Counter(r, 10);
+        c.start();
+        assertEquals(0, c.produced);
+        r.subscription.request(3);
+        assertEquals(3, c.produced);
+        assertEquals(3, r.elements.size());
+        r.subscription.request(2);
+        assertEquals(5, r.elements.size());
+        assertFalse(r.completed);
+    }
+
+    @Test
+    public void completeWhenExhausted() {
+        Recorder r = new Recorder();
+        Counter c = new Counter(r, 3);
+        c.start();
+        r.subscription.request(Long.MAX_VALUE);
+        assertEquals(3, r.elements.size());
+        assertTrue(r.completed);
+        assertTrue(c.closed);
+        assertNull(r.error);
+    }
+
+    @Test
+    public void requestFromOnNext() {
+        final List<Integer> depth = new ArrayList<Integer>();
+        Recorder r = new Recorder() {
+            private int nesting;
+
+            @Override
+            public void onNext(Integer element) {
+                super.onNext(element);
+                nesting++;
+                depth.add(nesting);
+                subscription.request(1);
+                nesting--;
+            }
+        };
+        Counter c = new Counter(r, 100);
+        c.start();
+        r.subscription.request(1);
+        assertEquals(100, r.elements.size());
+        assertTrue(r.completed);
+        for (int d : depth) {
+            assertEquals(1, d);
+        }
+    }
+
+    @Test
+    public void cancel() {
+        Recorder r = new Recorder();
+        Counter c = new Counter(r, 10);
+        c.start();
+        r.subscription.request(2);
+        r.subscription.cancel();
+        r.subscription.request(5);
+        assertEquals(2, r.elements.size());
+        assertTrue(c.closed);
+        assertFalse(r.completed);
+    }
+
+    @Test
+    public void invalidRequest() {
+        Recorder r = new Recorder();
+        Counter c = new Counter(r, 10);
+        c.start();
+        r.subscription.request(0);
+        assertTrue(r.error instanceof IllegalArgumentException);
+        assertTrue(c.closed);
+    }
+
+    @Test
+    public void failingSource() {
+        Recorder r = new Recorder();
+        PullSubscription<Integer> s = new PullSubscription<Integer>(r, SAME_THREAD) {
+            @Override
+            protected Integer next() throws Exception {
+                throw new IllegalStateException("boom");
+            }
+
+            @Override
+            protected void close() {
+            }
+        };
+        s.start();
+        r.subscription.request(1);
+        assertEquals("boom", r.error.getMessage());
+        assertFalse(r.completed);
+    }
+
+    /**
+     * Returns nothing for the first {@code retries} calls.
+     */
+    private static final class SlowSource extends PullSubscription<Integer> {
+        private int retries;
+        private int produced;
+
+        SlowSource(Subscriber<? super Integer> subscriber, Executor executor, int retries) {
+            super(subscriber, executor);
+            this.retries = retries;
+        }
+
+        @Override
+        protected Integer next() {
+            if (retries > 0) {
+                retries--;
+                retryLater();
+                return null;
+            }
+            return ++produced;
+        }
+
+        @Override
+        protected void close() {
+        }
+    }
+
+    @Test
+    public void retryLaterReleasesTheThread() {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        Executor queued = new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        Recorder r = new Recorder();
+        SlowSource s = new SlowSource(r, queued, 1);
+        s.start();
+        r.subscription.request(2);
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        // Resubmitted instead of delivering
+        assertEquals(1, tasks.size());
+        assertTrue(r.elements.isEmpty());
+        r.subscription.request(1);
+        assertEquals(1, tasks.size());
+        tasks.poll().run();
+        assertTrue(tasks.isEmpty());
+        assertEquals(3, r.elements.size());
+        assertFalse(r.completed);
+        assertNull(r.error);
+    }
+
+    @Test
+    public void retryLaterOnTheCallingThreadDoesNotRecurse() {
+        Recorder r = new Recorder();
+        SlowSource s = new SlowSource(r, SAME_THREAD, 10000);
+        s.start();
+        r.subscription.request(1);
+        assertEquals(1, r.elements.size());
+        assertNull(r.error);
+    }
+}
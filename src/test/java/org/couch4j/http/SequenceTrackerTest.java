@@ -0,0 +1,71 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SequenceTrackerTest {
+
+    private final List<String> processed = new ArrayList<String>();
+
+    private final SequenceTracker tracker = new SequenceTracker(new SequenceTracker.Listener() {
+        public void processed(String seq, int events) {
+            processed.add(seq + "/" + events);
+        }
+    });
+
+    @Test
+    public void inOrder() {
+        tracker.done(tracker.begin("1", 1));
+        tracker.done(tracker.begin("2", 1));
+        assertEquals("2", tracker.watermark());
+        assertEquals("[1/1, 2/1]", processed.toString());
+    }
+
+    @Test
+    public void outOfOrder() {
+        SequenceTracker.Entry e1 = tracker.begin("1", 2);
+        SequenceTracker.Entry e2 = tracker.begin("2", 1);
+        SequenceTracker.Entry e3 = tracker.begin("3", 1);
+
+        tracker.done(e1);
+        tracker.done(e3);
+        assertNull(tracker.watermark());
+        tracker.done(e2);
+        assertNull(tracker.watermark());
+        assertEquals(3, tracker.inFlight());
+
+        // The last consumer of the first event
+        tracker.done(e1);
+        assertEquals("3", tracker.watermark());
+        assertEquals(0, tracker.inFlight());
+        assertEquals("[3/3]", processed.toString());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009, 2010 Stefan Saasen
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.couch4j.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.couch4j.api.FutureDatabase;
+import org.couch4j.api.ViewQuery;
+import org.couch4j.api.ViewResult;
+import org.couch4j.api.ViewResultRow;
+import org.junit.Test;
+
+public class ViewScanIteratorTest {
+
+    /**
+     * Rows with the key {@code i / 5} (i.e. five rows per key) and the id
+     * {@code i}.
+     */
+    private final List<JSONObject> view = new ArrayList<JSONObject>();
+    private final List<String> queries = new ArrayList<String>();
+    private String deleteAfterFirstPage;
+
+    public ViewScanIteratorTest() {
+        for (int i = 0; i < 23; i++) {
+            JSONObject row = new JSONObject();
+            row.put("id", id(i));
+            row.put("key", i / 5);
+            row.put("value", i);
+            view.add(row);
+        }
+    }
+
+    private static String id(int i) {
+        return String.format("d%02d", i);
+    }
+
+    /**
+     * Answers {@code fetchView} like CouchDB for the startkey, startkey_docid
+     * and limit parameters.
+     */
+    private FutureDatabase database() {
+        return (FutureDatabase) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FutureDatabase.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        ViewQuery q = (ViewQuery) args[0];
+                        queries.add(q.queryString());
+                        String startkey = q.getParameter("startkey");
+                        String startId = q.getParameter("startkey_docid");
+                        int limit = Integer.parseInt(q.getParameter("limit"));
+                        JSONArray rows = new JSONArray();
+                        for (JSONObject row : view) {
+                            if (rows.size() == limit) {
+                                break;
+                            }
+                            if (null != startkey) {
+                                int c = row.getInt("key") - Integer.parseInt(startkey);
+                                if (c < 0 || (c == 0 && row.getString("id").compareTo(startId) < 0)) {
+                                    continue;
+                                }
+                            }
+                            rows.add(row);
+                        }
+                        if (queries.size() == 1 && null != deleteAfterFirstPage) {
+                            for (Iterator<JSONObject> it = view.iterator(); it.hasNext();) {
+                                if (it.next().getString("id").equals(deleteAfterFirstPage)) {
+                                    it.remove();
+                                }
+                            }
+                        }
+                        JSONObject json = new JSONObject();
+                        json.put("total_rows", view.size());
+                        json.put("rows", rows);
+                        DatabaseFutureTask<ViewResult> future = DatabaseFutureTask.create();
+                        future.complete(new JsonViewResult(json, null));
+                        return future;
+                    }
+                });
+    }
+
+    private List<String> scan(ViewQuery query, int pageSize) {
+        List<String> ids = new ArrayList<String>();
+        for (Iterator<ViewResultRow> it = new ViewScanIterator(database(), query, pageSize); it.hasNext();) {
+            ids.add(it.next().getId());
+        }
+        return ids;
+    }
+
+    private List<String> ids(int from, int to) {
+        List<String> ids = new ArrayList<String>();
+        for (int i = from; i < to; i++) {
+            ids.add(id(i));
+        }
+        return ids;
+    }
+
+    @Test
+    public void pagesOverDuplicateKeys() {
+        assertEquals(ids(0, 23), scan(ViewQuery.builder("d/v").build(), 4));
+        assertEquals(6, queries.size());
+        assertEquals("_design/d/_view/v?limit=4", queries.get(0));
+        assertEquals("_design/d/_view/v?startkey=0&startkey_docid=d03&limit=5", queries.get(1));
+    }
+
+    @Test
+    public void pageSizeDividesRows() {
+        view.remove(22);
+        view.remove(21);
+        view.remove(20);
+        assertEquals(ids(0, 20), scan(ViewQuery.builder("d/v").build(), 5));
+        assertEquals(5, queries.size());
+    }
+
+    @Test
+    public void limit() {
+        assertEquals(ids(0, 10), scan(ViewQuery.builder("d/v").limit(10).build(), 4));
+        assertEquals("_design/d/_view/v?startkey=1&startkey_docid=d07&limit=3", queries.get(2));
+    }
+
+    @Test
+    public void deletedBoundaryRow() {
+        deleteAfterFirstPage = id(3);
+        List<String> expected = ids(0, 23);
+        assertEquals(expected, scan(ViewQuery.builder("d/v").build(), 4));
+    }
+
+    @Test
+    public void emptyView() {
+        view.clear();
+        assertFalse(new ViewScanIterator(database(), ViewQuery.builder("d/v").build(), 10).hasNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pageSizeMustBePositive() {
+        new ViewScanIterator(database(), ViewQuery.builder("d/v").build(), 0);
+    }
+}
@@ -62,6 +62,25 @@ public class CollectionUtilsTest {
         assertEquals("s3", s.get("s2"));
     }   
     
+    @Test
+    public final void testPartition() {
+        List<List<Integer>> chunks = CollectionUtils.partition(CollectionUtils.list(1, 2, 3, 4, 5), 2);
+        assertEquals(3, chunks.size());
+        assertEquals(CollectionUtils.list(1, 2), chunks.get(0));
+        assertEquals(CollectionUtils.list(3, 4), chunks.get(1));
+        assertEquals(CollectionUtils.list(5), chunks.get(2));
+    }
+
+    @Test
+    public final void testPartitionEmptyList() {
+        assertTrue(CollectionUtils.partition(CollectionUtils.list(), 10).isEmpty());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public final void testPartitionInvalidSize() {
+        CollectionUtils.partition(CollectionUtils.list(1), 0);
+    }
+
     @Test(expected=IllegalArgumentException.class)
     public final void testInvalidMap() {
         CollectionUtils.map("s1", "s2", "s2");